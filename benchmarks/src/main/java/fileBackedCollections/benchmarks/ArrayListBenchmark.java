@@ -0,0 +1,147 @@
+package fileBackedCollections.benchmarks;
+/**
+ * FileBackedArrayList against ArrayList. The list holds 'size' strings of
+ * 'elementSize' characters; run with -t to set the number of threads.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayListBenchmark {
+
+	static final int ADDS = 100000;
+
+	@Param({Implementations.HEAP, "RANDOM_ACCESS", "MEMORY_MAPPED"})
+	public String impl;
+
+	@Param({"16", "1024"})
+	public int elementSize;
+
+	@Param({"10000", "1000000"})
+	public int size;
+
+	private List<String> list;
+	private String[] elements; // a set of elements to write, not all in the list
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		elements = new String[1024];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = Implementations.element(size + i, elementSize);
+		}
+		list = Implementations.newList(impl);
+		for (int i = 0; i < size; i++) {
+			list.add(Implementations.element(i, elementSize));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Implementations.close(list);
+	}
+
+	/**
+	 * random numbers of the thread, below half the size so the indexes are 
+	 * in the list while other threads remove and add
+	 */
+	@State(Scope.Thread)
+	public static class Indexes extends Cursor {
+
+		@Setup(Level.Trial)
+		public void setup(ArrayListBenchmark benchmark) {
+			fill(benchmark.size / 2);
+		}
+	}
+
+	/**
+	 * a list that is new for each iteration, for the benchmark of add
+	 */
+	@State(Scope.Benchmark)
+	public static class Empty {
+
+		List<String> list;
+
+		@Setup(Level.Iteration)
+		public void setup(ArrayListBenchmark benchmark) {
+			list = Implementations.newList(benchmark.impl);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			Implementations.close(list);
+		}
+	}
+
+	/**
+	 * add ADDS items to a new list, timed as one shot so the list does not grow
+	 * without bound
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, batchSize = ADDS)
+	@Measurement(iterations = 10, batchSize = ADDS)
+	public boolean add(Empty empty, Indexes indexes) {
+		return empty.list.add(elements[indexes.next() & (elements.length - 1)]);
+	}
+
+	@Benchmark
+	public String get(Indexes indexes) {
+		return list.get(indexes.next());
+	}
+
+	@Benchmark
+	public String set(Indexes indexes) {
+		return list.set(indexes.next(), elements[indexes.next() & (elements.length - 1)]);
+	}
+
+	/**
+	 * remove an item and add it back at the end, so the size stays the same
+	 */
+	@Benchmark
+	public boolean removeAndAdd(Indexes indexes) {
+		return list.add(list.remove(indexes.next()));
+	}
+
+	/**
+	 * look for an item in the first half of the list
+	 */
+	@Benchmark
+	public int indexOf(Indexes indexes) {
+		return list.indexOf(Implementations.element(indexes.next(), elementSize));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void iterate(Blackhole blackhole) {
+
+		for (String item : list) {
+			blackhole.consume(item);
+		}
+	}
+}
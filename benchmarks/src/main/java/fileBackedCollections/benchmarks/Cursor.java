@@ -0,0 +1,38 @@
+package fileBackedCollections.benchmarks;
+/**
+ * random numbers for the operations of one benchmark thread, made before the
+ * measurement so the benchmarks do not time the random number generator
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class Cursor {
+
+	private static final int COUNT = 1 << 14;
+
+	private final int[] numbers = new int[COUNT];
+	private int next = 0;
+
+	/**
+	 * make the numbers
+	 * 
+	 * @param bound numbers are from 0 to bound - 1
+	 */
+	void fill(int bound) {
+
+		final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+		for (int i = 0; i < COUNT; i++) {
+			numbers[i] = random.nextInt(Math.max(1, bound));
+		}
+	}
+
+	int next() {
+		return numbers[next++ & (COUNT - 1)];
+	}
+}
@@ -0,0 +1,105 @@
+package fileBackedCollections.benchmarks;
+/**
+ * FileBackedHashMap against HashMap. The map holds 'size' entries with string
+ * keys and values of 'elementSize' characters; run with -t to set the number
+ * of threads.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashMapBenchmark {
+
+	@Param({Implementations.HEAP, "RANDOM_ACCESS", "MEMORY_MAPPED"})
+	public String impl;
+
+	@Param({"16", "1024"})
+	public int elementSize;
+
+	@Param({"10000", "1000000"})
+	public int size;
+
+	private Map<String, String> map;
+	private String[] keys;
+	private String[] values; // a set of values to write
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		keys = new String[size];
+		values = new String[1024];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Implementations.element(size + i, elementSize);
+		}
+		map = Implementations.newMap(impl);
+		for (int i = 0; i < size; i++) {
+			keys[i] = "key" + i;
+			map.put(keys[i], Implementations.element(i, elementSize));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Implementations.close(map);
+	}
+
+	/**
+	 * random numbers of the thread, from 0 to twice the size, so half of them
+	 * are not keys in the map
+	 */
+	@State(Scope.Thread)
+	public static class Keys extends Cursor {
+
+		@Setup(Level.Trial)
+		public void setup(HashMapBenchmark benchmark) {
+			fill(benchmark.size * 2);
+		}
+	}
+
+	/**
+	 * replace the value of a key in the map
+	 */
+	@Benchmark
+	public String put(Keys keys) {
+		return map.put(this.keys[keys.next() >> 1], values[keys.next() & (values.length - 1)]);
+	}
+
+	/**
+	 * get the value of a key in the map
+	 */
+	@Benchmark
+	public String get(Keys keys) {
+		return map.get(this.keys[keys.next() >> 1]);
+	}
+
+	/**
+	 * look for a key, half of which are not in the map
+	 */
+	@Benchmark
+	public boolean containsKey(Keys keys) {
+		return map.containsKey("key" + keys.next());
+	}
+}
@@ -0,0 +1,87 @@
+package fileBackedCollections.benchmarks;
+/**
+ * the collections compared by the benchmarks. "heap" is the JDK collection, made
+ * safe for the benchmarks run with several threads; the other names are the
+ * storage engines of the file backed collection.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fileBackedCollections.Codecs;
+import fileBackedCollections.FileBackedArrayList;
+import fileBackedCollections.FileBackedHashMap;
+import fileBackedCollections.FileBackedSet;
+import fileBackedCollections.Protection;
+import fileBackedCollections.StorageType;
+
+final class Implementations {
+
+	static final String HEAP = "heap";
+
+	private Implementations() {
+	}
+
+	static List<String> newList(String impl) {
+
+		if (HEAP.equals(impl)) {
+			return Collections.synchronizedList(new ArrayList<String>());
+		}
+		return new FileBackedArrayList<String>(Codecs.STRING, StorageType.valueOf(impl));
+	}
+
+	static Map<String, String> newMap(String impl) {
+
+		if (HEAP.equals(impl)) {
+			return Collections.synchronizedMap(new HashMap<String, String>());
+		}
+		return new FileBackedHashMap<String, String>(Codecs.STRING, Codecs.STRING, StorageType.valueOf(impl), Protection.AES);
+	}
+
+	static Set<String> newSet(String impl) {
+
+		if (HEAP.equals(impl)) {
+			return Collections.synchronizedSet(new HashSet<String>());
+		}
+		return new FileBackedSet<String>(Codecs.STRING, StorageType.valueOf(impl));
+	}
+
+	/**
+	 * an element of a given size, different for each number
+	 * 
+	 * @param number number of the element
+	 * @param size length of the string
+	 * @return String starting with the number and padded to the size
+	 */
+	static String element(int number, int size) {
+
+		final StringBuilder result = new StringBuilder(size);
+		result.append(number).append(':');
+		while (result.length() < size) {
+			result.append((char) ('a' + result.length() % 26));
+		}
+		result.setLength(Math.max(size, String.valueOf(number).length()));
+		return result.toString();
+	}
+
+	/**
+	 * close a file backed collection, deleting its file
+	 * 
+	 * @param collection collection to close, nothing is done for a JDK collection
+	 */
+	static void close(Object collection) throws IOException {
+
+		if (collection instanceof Closeable) {
+			((Closeable) collection).close();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package fileBackedCollections.benchmarks;
+/**
+ * FileBackedSet against HashSet. The set holds 'size' strings of 'elementSize'
+ * characters; run with -t to set the number of threads.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetBenchmark {
+
+	static final int ADDS = 100000;
+
+	@Param({Implementations.HEAP, "RANDOM_ACCESS", "MEMORY_MAPPED"})
+	public String impl;
+
+	@Param({"16", "1024"})
+	public int elementSize;
+
+	@Param({"10000", "1000000"})
+	public int size;
+
+	private Set<String> set;
+	private String[] elements; // the elements in the set, and as many that are not
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		elements = new String[size * 2];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = Implementations.element(i, elementSize);
+		}
+		set = Implementations.newSet(impl);
+		for (int i = 0; i < size; i++) {
+			set.add(elements[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Implementations.close(set);
+	}
+
+	@State(Scope.Thread)
+	public static class Elements extends Cursor {
+
+		@Setup(Level.Trial)
+		public void setup(SetBenchmark benchmark) {
+			fill(benchmark.size * 2);
+		}
+	}
+
+	/**
+	 * a set that is new for each iteration, for the benchmark of add
+	 */
+	@State(Scope.Benchmark)
+	public static class Empty {
+
+		Set<String> set;
+
+		@Setup(Level.Iteration)
+		public void setup(SetBenchmark benchmark) {
+			set = Implementations.newSet(benchmark.impl);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			Implementations.close(set);
+		}
+	}
+
+	/**
+	 * add ADDS elements to a new set, some of them more than once, timed as one 
+	 * shot so the set does not grow without bound
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, batchSize = ADDS)
+	@Measurement(iterations = 10, batchSize = ADDS)
+	public boolean add(Empty empty, Elements elements) {
+		return empty.set.add(this.elements[elements.next()]);
+	}
+
+	/**
+	 * look for an element, half of which are not in the set
+	 */
+	@Benchmark
+	public boolean contains(Elements elements) {
+		return set.contains(this.elements[elements.next()]);
+	}
+}
@@ -0,0 +1,33 @@
+package fileBackedCollections;
+/**
+ * flight recorder event of an add to a file backed collection, or a put to a 
+ * map, that took longer than the threshold, 10 ms unless the recording sets another
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("fileBackedCollections.Add")
+@Label("File Backed Add")
+@Description("An add or put to a file backed collection that took longer than the threshold")
+@Category("File Backed Collections")
+@Threshold("10 ms")
+@StackTrace(true)
+final class AddEvent extends jdk.jfr.Event {
+
+	@Label("Collection")
+	String collection;
+
+	@Label("File")
+	String file;
+
+	@Label("Count")
+	@Description("number of items added")
+	int count;
+}
@@ -0,0 +1,86 @@
+package fileBackedCollections;
+/**
+ * AES in counter mode, which uses the AES instructions of the processor where 
+ * the JVM supports them. Counter mode encrypts in place without padding, so the
+ * stored record is the same size as the serialized object.
+ * 
+ * Each backing file has its own random key, and the nonce of the record is the 
+ * upper half of the initial counter block. The key comes from a SecureRandom
+ * that does not block waiting for entropy.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+class AesCipher implements RecordCipher {
+
+	private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+	private static final int KEY_BYTES = 16;
+	private static final int BLOCK_BYTES = 16;
+
+	// Cipher objects are not thread safe, so each thread has its own
+	private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(AesCipher::newCipher);
+	private final ThreadLocal<byte[]> counters = ThreadLocal.withInitial(() -> new byte[BLOCK_BYTES]);
+	private final SecretKeySpec key;
+
+	/**
+	 * create a cipher with a new random key
+	 */
+	AesCipher() {
+		
+		final byte[] keyBytes = new byte[KEY_BYTES];
+		new SecureRandom().nextBytes(keyBytes);
+		key = new SecretKeySpec(keyBytes, "AES");
+	}
+	
+	/**
+	 * create a cipher with a saved key
+	 * 
+	 * @param keyBytes key returned by key()
+	 */
+	AesCipher(byte[] keyBytes) {
+		
+		if (keyBytes.length != KEY_BYTES) {
+			throw new IllegalArgumentException("AesCipher: key must be " + KEY_BYTES + " bytes");
+		}
+		key = new SecretKeySpec(keyBytes, "AES");
+	}
+	
+	@Override
+	public byte[] key() {
+		return key.getEncoded();
+	}
+
+	@Override
+	public void transform(byte[] data, int offset, int length, long nonce) {
+
+		final byte[] counter = counters.get();
+		for (int i = 0; i < Long.BYTES; i++) {
+			counter[i] = (byte) (nonce >>> (Byte.SIZE * (Long.BYTES - 1 - i)));
+		}
+		
+		try {
+			final Cipher cipher = ciphers.get();
+			cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter));
+			cipher.doFinal(data, offset, length, data, offset);
+			
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Cipher newCipher() {
+		
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("AesCipher: " + TRANSFORMATION + " is not available", e);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package fileBackedCollections;
+/**
+ * changes submitted to a collection without waiting for them. The changes run
+ * on the I/O threads one after the other, in the order they were submitted, so
+ * items added asynchronously keep their order; a change that fails completes
+ * its own future with the exception and does not stop the changes after it.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class AsyncWrites {
+
+	/**
+	 * a change to a collection, given the result of the work done for it before
+	 * its turn, such as the encoded bytes of an item
+	 */
+	interface Change<T, R> {
+		R apply(T input) throws IOException;
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private CompletableFuture<?> last = CompletableFuture.completedFuture(null); // guarded by lock
+
+	/**
+	 * run a change after the changes submitted before it
+	 * 
+	 * @param input work the change needs, which can be done in parallel with 
+	 * earlier changes
+	 * @param change the change, run on an I/O thread
+	 * @return CompletableFuture with the result of the change
+	 */
+	<T, R> CompletableFuture<R> submit(CompletableFuture<T> input, Change<T, R> change) {
+
+		lock.lock();
+		try {
+			final CompletableFuture<R> result = last.handle((ignored, failure) -> null)
+					.thenCombineAsync(input, (ignored, value) -> {
+						try {
+							return change.apply(value);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}, IoThreads.executor());
+			last = result;
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package fileBackedCollections;
+/**
+ * the index of a collection saved in a file next to its backing file, so the
+ * collection can be opened again without reading its records. The file holds
+ * a header with the state of the collection and the key of its cipher, the
+ * columns of the index, and a CRC32C checksum of both.
+ *
+ * The first change to the collection after a checkpoint marks the checkpoint
+ * stale. A stale checkpoint still holds the key, and the index is recovered 
+ * from the records when the collection is opened.
+ *
+ * The key is needed to read the records, so the checkpoint file must be kept
+ * as safe as the data it protects.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+final class Checkpoint {
+
+	/**
+	 * name of the checkpoint file is the name of the backing file with this added
+	 */
+	static final String SUFFIX = ".index";
+
+	private static final int MAGIC = 0x46424349; // FBCI
+	private static final int VERSION = 3;
+	private static final int MAX_KEY_SIZE = 64;
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+	private static final int STATE_POSITION = 8; // the state is not in the checksum
+	private static final int VALID = 1;
+	private static final int STALE = 0;
+
+	final Protection protection;
+	final byte[] key;
+	final byte[] dictionary; // dictionary of the compressed records, or null
+	final long sequence; // sequence number of the next record
+	final long length; // length of the stored data
+	final long liveBytes;
+	final int nextSlot; // slot of the next item added
+	final Index index; // null if the checkpoint is stale
+
+	Checkpoint(Protection protection, byte[] key, byte[] dictionary, long sequence, long length, long liveBytes, int nextSlot, Index index) {
+
+		this.protection = protection;
+		this.key = key;
+		this.dictionary = dictionary;
+		this.sequence = sequence;
+		this.length = length;
+		this.liveBytes = liveBytes;
+		this.nextSlot = nextSlot;
+		this.index = index;
+	}
+
+	/**
+	 * check if the checkpoint still matches its backing file
+	 *
+	 * @return true if the index can be used, false if only the key and the
+	 * dictionary can
+	 */
+	boolean isValid() {
+		return index != null;
+	}
+
+	/**
+	 * the checkpoint file of a backing file
+	 *
+	 * @param data backing file
+	 * @return File of the checkpoint
+	 */
+	static File file(File data) {
+		return new File(data.getPath() + SUFFIX);
+	}
+
+	/**
+	 * write the checkpoint of a backing file. It is written to a temporary file
+	 * which then replaces the old checkpoint, so there is always either the old
+	 * or the new checkpoint. A checkpoint without an index is written stale.
+	 *
+	 * @param data backing file
+	 * @throws IOException
+	 */
+	void write(File data) throws IOException {
+
+		final File target = file(data);
+		final File temp = new File(target.getPath() + ".tmp");
+		final CRC32C checksum = new CRC32C();
+
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+			final ByteBuffer start = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			start.putInt(MAGIC).putInt(VERSION).putInt(isValid() ? VALID : STALE).flip();
+			drain(channel, start, null);
+
+			final int dictionarySize = dictionary != null ? dictionary.length : 0;
+			final ByteBuffer header = ByteBuffer.allocate(44 + key.length + dictionarySize).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(protection.ordinal()).putInt(key.length).put(key);
+			header.putInt(dictionarySize).put(dictionary != null ? dictionary : new byte[0]);
+			header.putLong(sequence).putLong(length).putLong(liveBytes).putInt(nextSlot).putInt(isValid() ? index.size() : 0);
+			header.flip();
+			drain(channel, header, checksum);
+
+			if (isValid()) {
+				index.write(channel, checksum);
+			}
+
+			final ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			trailer.putInt((int) checksum.getValue()).flip();
+			drain(channel, trailer, null);
+			channel.force(true);
+		}
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * read the checkpoint of a backing file
+	 *
+	 * @param data backing file
+	 * @return Checkpoint, or null if the backing file has no checkpoint. A stale
+	 * checkpoint has only the protection, the key and the dictionary.
+	 * @throws IOException if the checkpoint can not be read or is damaged
+	 */
+	static Checkpoint read(File data) throws IOException {
+
+		final File source = file(data);
+		if (!source.exists()) {
+			return null;
+		}
+		final CRC32C checksum = new CRC32C();
+
+		try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+
+			final ByteBuffer header = ByteBuffer.allocate(40 + MAX_KEY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			fill(channel, header, 12, null);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("not a checkpoint of a file backed collection: " + source);
+			}
+			final boolean valid = header.getInt() == VALID;
+			fill(channel, header, 8, checksum);
+			final int protection = header.getInt();
+			final int keySize = header.getInt();
+			if (protection < 0 || protection >= Protection.values().length || keySize < 0 || keySize > MAX_KEY_SIZE) {
+				throw new IOException("checkpoint is damaged: " + source);
+			}
+
+			fill(channel, header, keySize + Integer.BYTES, checksum);
+			final byte[] key = new byte[keySize];
+			header.get(key);
+			final int dictionarySize = header.getInt();
+			if (dictionarySize < 0 || dictionarySize > MAX_DICTIONARY_SIZE) {
+				throw new IOException("checkpoint is damaged: " + source);
+			}
+			final ByteBuffer dictionary = ByteBuffer.allocate(dictionarySize);
+			fill(channel, dictionary, dictionarySize, checksum);
+			final byte[] preset = dictionarySize > 0 ? dictionary.array() : null;
+			if (!valid) {
+				return new Checkpoint(Protection.values()[protection], key, preset, 0, 0, 0, 0, null);
+			}
+
+			fill(channel, header, 32, checksum);
+			final long sequence = header.getLong();
+			final long length = header.getLong();
+			final long liveBytes = header.getLong();
+			final int nextSlot = header.getInt();
+			final int count = header.getInt();
+			if (count < 0) {
+				throw new IOException("checkpoint is damaged: " + source);
+			}
+
+			final Index index = Index.read(channel, count, checksum);
+
+			final ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			fill(channel, trailer, Integer.BYTES, null);
+			if (trailer.getInt() != (int) checksum.getValue()) {
+				throw new IOException("checkpoint is damaged: " + source);
+			}
+			return new Checkpoint(Protection.values()[protection], key, preset, sequence, length, liveBytes, nextSlot, index);
+
+		} catch (EOFException e) {
+			throw new IOException("checkpoint is damaged: " + source, e);
+		}
+	}
+
+	/**
+	 * mark the checkpoint of a backing file stale, when the collection no longer
+	 * matches it. The mark is forced to the disk before the collection is changed.
+	 *
+	 * @param data backing file
+	 * @throws IOException
+	 */
+	static void invalidate(File data) throws IOException {
+
+		final File checkpoint = file(data);
+		if (!checkpoint.exists()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(checkpoint.toPath(), StandardOpenOption.WRITE)) {
+			final ByteBuffer state = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			state.putInt(STALE).flip();
+			while (state.hasRemaining()) {
+				channel.write(state, STATE_POSITION + state.position());
+			}
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * write the remaining bytes of a buffer to a channel
+	 *
+	 * @param checksum checksum updated with the bytes, or null
+	 */
+	static void drain(FileChannel channel, ByteBuffer buffer, Checksum checksum) throws IOException {
+
+		if (checksum != null) {
+			checksum.update(buffer.duplicate());
+		}
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * read a number of bytes from a channel into a buffer, and flip the buffer
+	 *
+	 * @param checksum checksum updated with the bytes, or null
+	 */
+	static void fill(FileChannel channel, ByteBuffer buffer, int length, Checksum checksum) throws IOException {
+
+		buffer.clear().limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		if (checksum != null) {
+			checksum.update(buffer.duplicate());
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package fileBackedCollections;
+/**
+ * converts the objects stored in a file backed collection to and from bytes.
+ * Codecs for common types are in Codecs, and Java serialization is used for
+ * everything else.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+
+public interface Codec<E> {
+
+	/**
+	 * convert an object to bytes
+	 * 
+	 * @param object object to convert, not null
+	 * @return byte array
+	 * @throws IOException
+	 */
+	byte[] encode(E object) throws IOException;
+
+	/**
+	 * convert bytes made by encode back to an object
+	 * 
+	 * @param bytes array holding the encoded object
+	 * @param offset start of the encoded object in the array
+	 * @param length number of bytes in the encoded object
+	 * @return the object
+	 * @throws IOException
+	 */
+	E decode(byte[] bytes, int offset, int length) throws IOException;
+}
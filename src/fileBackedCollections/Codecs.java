@@ -0,0 +1,359 @@
+package fileBackedCollections;
+/**
+ * codecs for common types. These store only the value, without the stream
+ * header and class descriptor that Java serialization writes for every object,
+ * so the stored records are much smaller and faster to read.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class Codecs {
+
+	private Codecs() {
+	}
+
+	/**
+	 * strings as UTF-8. Strings with unpaired surrogate characters can not be
+	 * stored in UTF-8 and are replaced with '?' as in String.getBytes.
+	 */
+	public static final Codec<String> STRING = new Codec<String>() {
+		
+		public byte[] encode(String object) {
+			return object.getBytes(StandardCharsets.UTF_8);
+		}
+
+		public String decode(byte[] bytes, int offset, int length) {
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+	};
+
+	public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+		
+		public byte[] encode(Integer object) {
+			return ByteBuffer.allocate(Integer.BYTES).putInt(object).array();
+		}
+
+		public Integer decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getInt();
+		}
+	};
+
+	public static final Codec<Long> LONG = new Codec<Long>() {
+		
+		public byte[] encode(Long object) {
+			return ByteBuffer.allocate(Long.BYTES).putLong(object).array();
+		}
+
+		public Long decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getLong();
+		}
+	};
+
+	public static final Codec<Double> DOUBLE = new Codec<Double>() {
+		
+		public byte[] encode(Double object) {
+			return ByteBuffer.allocate(Double.BYTES).putDouble(object).array();
+		}
+
+		public Double decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getDouble();
+		}
+	};
+
+	public static final Codec<Float> FLOAT = new Codec<Float>() {
+		
+		public byte[] encode(Float object) {
+			return ByteBuffer.allocate(Float.BYTES).putFloat(object).array();
+		}
+
+		public Float decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getFloat();
+		}
+	};
+
+	public static final Codec<Short> SHORT = new Codec<Short>() {
+		
+		public byte[] encode(Short object) {
+			return ByteBuffer.allocate(Short.BYTES).putShort(object).array();
+		}
+
+		public Short decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getShort();
+		}
+	};
+
+	public static final Codec<Character> CHARACTER = new Codec<Character>() {
+		
+		public byte[] encode(Character object) {
+			return ByteBuffer.allocate(Character.BYTES).putChar(object).array();
+		}
+
+		public Character decode(byte[] bytes, int offset, int length) {
+			return ByteBuffer.wrap(bytes, offset, length).getChar();
+		}
+	};
+
+	public static final Codec<Byte> BYTE = new Codec<Byte>() {
+		
+		public byte[] encode(Byte object) {
+			return new byte[] { object };
+		}
+
+		public Byte decode(byte[] bytes, int offset, int length) {
+			return bytes[offset];
+		}
+	};
+
+	public static final Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+		
+		public byte[] encode(Boolean object) {
+			return new byte[] { (byte) (object ? 1 : 0) };
+		}
+
+		public Boolean decode(byte[] bytes, int offset, int length) {
+			return bytes[offset] != 0;
+		}
+	};
+
+	public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+		
+		public byte[] encode(byte[] object) {
+			return object.clone();
+		}
+
+		public byte[] decode(byte[] bytes, int offset, int length) {
+			return Arrays.copyOfRange(bytes, offset, offset + length);
+		}
+	};
+
+	public static final Codec<long[]> LONG_ARRAY = new Codec<long[]>() {
+		
+		public byte[] encode(long[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Long.BYTES);
+			buffer.asLongBuffer().put(object);
+			return buffer.array();
+		}
+
+		public long[] decode(byte[] bytes, int offset, int length) {
+			final long[] result = new long[length / Long.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asLongBuffer().get(result);
+			return result;
+		}
+	};
+
+	public static final Codec<int[]> INT_ARRAY = new Codec<int[]>() {
+		
+		public byte[] encode(int[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Integer.BYTES);
+			buffer.asIntBuffer().put(object);
+			return buffer.array();
+		}
+
+		public int[] decode(byte[] bytes, int offset, int length) {
+			final int[] result = new int[length / Integer.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asIntBuffer().get(result);
+			return result;
+		}
+	};
+
+	public static final Codec<double[]> DOUBLE_ARRAY = new Codec<double[]>() {
+		
+		public byte[] encode(double[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Double.BYTES);
+			buffer.asDoubleBuffer().put(object);
+			return buffer.array();
+		}
+
+		public double[] decode(byte[] bytes, int offset, int length) {
+			final double[] result = new double[length / Double.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asDoubleBuffer().get(result);
+			return result;
+		}
+	};
+
+	public static final Codec<float[]> FLOAT_ARRAY = new Codec<float[]>() {
+		
+		public byte[] encode(float[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Float.BYTES);
+			buffer.asFloatBuffer().put(object);
+			return buffer.array();
+		}
+
+		public float[] decode(byte[] bytes, int offset, int length) {
+			final float[] result = new float[length / Float.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asFloatBuffer().get(result);
+			return result;
+		}
+	};
+
+	public static final Codec<short[]> SHORT_ARRAY = new Codec<short[]>() {
+		
+		public byte[] encode(short[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Short.BYTES);
+			buffer.asShortBuffer().put(object);
+			return buffer.array();
+		}
+
+		public short[] decode(byte[] bytes, int offset, int length) {
+			final short[] result = new short[length / Short.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asShortBuffer().get(result);
+			return result;
+		}
+	};
+
+	public static final Codec<char[]> CHAR_ARRAY = new Codec<char[]>() {
+		
+		public byte[] encode(char[] object) {
+			final ByteBuffer buffer = ByteBuffer.allocate(object.length * Character.BYTES);
+			buffer.asCharBuffer().put(object);
+			return buffer.array();
+		}
+
+		public char[] decode(byte[] bytes, int offset, int length) {
+			final char[] result = new char[length / Character.BYTES];
+			ByteBuffer.wrap(bytes, offset, length).asCharBuffer().get(result);
+			return result;
+		}
+	};
+
+	/**
+	 * Java serialization, which stores any Serializable object
+	 */
+	private static final Codec<Object> SERIALIZED = new Codec<Object>() {
+		
+		public byte[] encode(Object object) throws IOException {
+			
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			final ObjectOutputStream out = new ObjectOutputStream(bos);
+			out.writeObject(object);
+			out.close();
+			return bos.toByteArray();
+		}
+
+		public Object decode(byte[] bytes, int offset, int length) throws IOException {
+			
+			final ByteArrayInputStream bis = new ByteArrayInputStream(bytes, offset, length);
+			final ObjectInputStream in = new ObjectInputStream(bis);
+			try {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new InvalidClassException(e.getMessage());
+			} finally {
+				in.close();
+			}
+		}
+	};
+
+	/**
+	 * codec used when none is given to a collection. Objects of the types with a codec 
+	 * in this class are stored with that codec after a one byte tag for the type, 
+	 * all other objects are stored with Java serialization.
+	 */
+	private static final Codec<Object> GENERIC = new Codec<Object>() {
+		
+		public byte[] encode(Object object) throws IOException {
+
+			byte tag = SERIALIZED_TAG;
+			if (!(object instanceof String) || isWellFormed((String) object)) {
+				final Byte known = TAGS.get(object.getClass());
+				if (known != null) {
+					tag = known;
+				}
+			}
+
+			final byte[] encoded = CODECS[tag].encode(object);
+			final byte[] result = new byte[encoded.length + 1];
+			result[0] = tag;
+			System.arraycopy(encoded, 0, result, 1, encoded.length);
+			return result;
+		}
+
+		public Object decode(byte[] bytes, int offset, int length) throws IOException {
+			
+			final int tag = bytes[offset];
+			if (tag < 0 || tag >= CODECS.length) {
+				throw new IOException("unknown codec tag " + tag);
+			}
+			return CODECS[tag].decode(bytes, offset + 1, length - 1);
+		}
+	};
+
+	private static final byte SERIALIZED_TAG = 0;
+	
+	// the position in this array is the tag stored with the object, so new 
+	// codecs must only be added at the end
+	@SuppressWarnings("unchecked")
+	private static final Codec<Object>[] CODECS = (Codec<Object>[]) new Codec<?>[] {
+		SERIALIZED, STRING, INTEGER, LONG, DOUBLE, FLOAT, SHORT, CHARACTER, BYTE, BOOLEAN,
+		BYTES, LONG_ARRAY, INT_ARRAY, DOUBLE_ARRAY, FLOAT_ARRAY, SHORT_ARRAY, CHAR_ARRAY
+	};
+	private static final Class<?>[] TYPES = new Class<?>[] {
+		null, String.class, Integer.class, Long.class, Double.class, Float.class, Short.class, 
+		Character.class, Byte.class, Boolean.class, byte[].class, long[].class, int[].class, 
+		double[].class, float[].class, short[].class, char[].class
+	};
+	private static final Map<Class<?>, Byte> TAGS = new HashMap<Class<?>, Byte>();
+	static {
+		for (byte tag = 1; tag < TYPES.length; tag++) {
+			TAGS.put(TYPES[tag], tag);
+		}
+	}
+
+	/**
+	 * the codec used when none is given to a collection. Strings, boxed primitives and
+	 * arrays of primitives are stored with the codecs in this class, and any 
+	 * other object with Java serialization.
+	 * 
+	 * @return codec for any Serializable object
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Serializable> Codec<E> generic() {
+		return (Codec<E>) (Codec<?>) GENERIC;
+	}
+
+	/**
+	 * Java serialization, for objects of any Serializable class
+	 * 
+	 * @return codec using ObjectOutputStream and ObjectInputStream
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Serializable> Codec<E> serialized() {
+		return (Codec<E>) (Codec<?>) SERIALIZED;
+	}
+
+	/**
+	 * check that a string has no unpaired surrogate characters, so it can 
+	 * be stored in UTF-8 without changing it
+	 * 
+	 * @param s string to check
+	 * @return true if the string can be encoded as UTF-8
+	 */
+	private static boolean isWellFormed(String s) {
+		
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (Character.isHighSurrogate(c)) {
+				if (i + 1 == s.length() || !Character.isLowSurrogate(s.charAt(i + 1))) {
+					return false;
+				}
+				i++;
+			} else if (Character.isLowSurrogate(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,283 @@
+package fileBackedCollections;
+/**
+ * counters and timers of a file backed collection: the records read and written,
+ * the time spent in the storage, in the codec and in the cipher, the waits for
+ * the lock of the collection and the time spent compacting the file. The counts
+ * are kept with LongAdders so threads do not contend on them, and the clock is
+ * only read while timing is on.
+ * 
+ * The stats can be registered as an MBean, and are unregistered when the 
+ * collection is closed:<br>
+ *    list.getStats().register("orders");
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public final class CollectionStats implements CollectionStatsMBean {
+
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder writeNanos = new LongAdder();
+	private final LongAdder encodeNanos = new LongAdder();
+	private final LongAdder decodeNanos = new LongAdder();
+	private final LongAdder cipherNanos = new LongAdder();
+	private final LongAdder lockWaits = new LongAdder();
+	private final LongAdder lockWaitNanos = new LongAdder();
+	private final LongAdder trims = new LongAdder();
+	private final LongAdder trimNanos = new LongAdder();
+	private volatile boolean timing = false;
+	
+	// the lists of records counted, whose live and dead bytes are reported
+	private final CopyOnWriteArrayList<FileBackedArrayList<?>> lists = new CopyOnWriteArrayList<FileBackedArrayList<?>>();
+	private ObjectName name = null;
+
+	/**
+	 * create the stats of a list
+	 * 
+	 * @param list list whose records are counted here
+	 */
+	CollectionStats(FileBackedArrayList<?> list) {
+		lists.add(list);
+	}
+
+	/**
+	 * report the live and dead bytes of a list with these stats
+	 * 
+	 * @param list list whose records are counted here
+	 */
+	void track(FileBackedArrayList<?> list) {
+		lists.addIfAbsent(list);
+	}
+
+	/**
+	 * start timing an operation
+	 * 
+	 * @return long the time now, or 0 if timing is off
+	 */
+	long time() {
+		return timing ? System.nanoTime() : 0;
+	}
+
+	private static long elapsed(LongAdder timer, long started) {
+
+		if (started == 0) {
+			return 0;
+		}
+		final long now = System.nanoTime();
+		timer.add(now - started);
+		return now;
+	}
+
+	/**
+	 * count a read from the storage
+	 * 
+	 * @param bytes number of bytes read
+	 * @param started time the read started
+	 */
+	void read(int bytes, long started) {
+
+		reads.increment();
+		bytesRead.add(bytes);
+		elapsed(readNanos, started);
+	}
+
+	/**
+	 * count a write to the storage, of one or more records
+	 * 
+	 * @param bytes number of bytes written
+	 * @param started time the write started
+	 */
+	void wrote(long bytes, long started) {
+
+		writes.increment();
+		bytesWritten.add(bytes);
+		elapsed(writeNanos, started);
+	}
+
+	/**
+	 * add the time since 'started' to the encode time
+	 * 
+	 * @return long the time now, or 0 if timing is off
+	 */
+	long encoded(long started) {
+		return elapsed(encodeNanos, started);
+	}
+
+	long decoded(long started) {
+		return elapsed(decodeNanos, started);
+	}
+
+	long ciphered(long started) {
+		return elapsed(cipherNanos, started);
+	}
+
+	void lockWait(long nanos) {
+
+		lockWaits.increment();
+		lockWaitNanos.add(nanos);
+	}
+
+	void trimmed(long nanos) {
+
+		trims.increment();
+		trimNanos.add(nanos);
+	}
+
+	/**
+	 * register the stats with the platform MBean server, as
+	 * fileBackedCollections:type=CollectionStats,name='name'
+	 * 
+	 * @param name name of the collection
+	 * @return true if the stats were registered
+	 */
+	public synchronized boolean register(String name) {
+
+		unregister();
+		try {
+			final ObjectName objectName = new ObjectName("fileBackedCollections:type=CollectionStats,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.name = objectName;
+			return true;
+		} catch (JMException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * remove the stats from the platform MBean server, if they are registered
+	 */
+	public synchronized void unregister() {
+
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already unregistered
+		}
+		name = null;
+	}
+
+	@Override
+	public long getReads() {
+		return reads.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getReadNanos() {
+		return readNanos.sum();
+	}
+
+	@Override
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getWriteNanos() {
+		return writeNanos.sum();
+	}
+
+	@Override
+	public long getEncodeNanos() {
+		return encodeNanos.sum();
+	}
+
+	@Override
+	public long getDecodeNanos() {
+		return decodeNanos.sum();
+	}
+
+	@Override
+	public long getCipherNanos() {
+		return cipherNanos.sum();
+	}
+
+	@Override
+	public long getLockWaits() {
+		return lockWaits.sum();
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return lockWaitNanos.sum();
+	}
+
+	@Override
+	public long getTrims() {
+		return trims.sum();
+	}
+
+	@Override
+	public long getTrimNanos() {
+		return trimNanos.sum();
+	}
+
+	@Override
+	public long getLiveBytes() {
+
+		long result = 0;
+		for (FileBackedArrayList<?> list : lists) {
+			result += list.getLiveBytes();
+		}
+		return result;
+	}
+
+	@Override
+	public long getDeadBytes() {
+
+		long result = 0;
+		for (FileBackedArrayList<?> list : lists) {
+			result += list.getDeadBytes();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isTiming() {
+		return timing;
+	}
+
+	@Override
+	public void setTiming(boolean timing) {
+		this.timing = timing;
+	}
+
+	@Override
+	public void reset() {
+
+		for (LongAdder counter : new LongAdder[] {reads, bytesRead, readNanos, writes, bytesWritten, writeNanos, 
+				encodeNanos, decodeNanos, cipherNanos, lockWaits, lockWaitNanos, trims, trimNanos}) {
+			counter.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "reads " + getReads() + " (" + getBytesRead() + " bytes), writes " + getWrites() + " (" + getBytesWritten() 
+				+ " bytes), live " + getLiveBytes() + " bytes, dead " + getDeadBytes() + " bytes, lock waits " + getLockWaits()
+				+ ", trims " + getTrims();
+	}
+}
@@ -0,0 +1,76 @@
+package fileBackedCollections;
+/**
+ * the counters and timers of a file backed collection, as seen through JMX.
+ * Times are in nanoseconds, and are only measured while timing is on.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+public interface CollectionStatsMBean {
+
+	long getReads();
+
+	long getBytesRead();
+
+	/**
+	 * @return long time spent reading records from the storage
+	 */
+	long getReadNanos();
+
+	long getWrites();
+
+	long getBytesWritten();
+
+	/**
+	 * @return long time spent writing records to the storage
+	 */
+	long getWriteNanos();
+
+	/**
+	 * @return long time spent serializing and compressing items
+	 */
+	long getEncodeNanos();
+
+	/**
+	 * @return long time spent decompressing and deserializing items
+	 */
+	long getDecodeNanos();
+
+	/**
+	 * @return long time spent encrypting and decrypting records
+	 */
+	long getCipherNanos();
+
+	/**
+	 * @return long number of times a change waited for the lock held by another change
+	 */
+	long getLockWaits();
+
+	long getLockWaitNanos();
+
+	/**
+	 * @return long number of calls of trim or compact
+	 */
+	long getTrims();
+
+	long getTrimNanos();
+
+	long getLiveBytes();
+
+	long getDeadBytes();
+
+	boolean isTiming();
+
+	/**
+	 * measure the times as well as the counts. Timing reads the clock a few times
+	 * for each operation, so it is off until it is wanted.
+	 * 
+	 * @param timing true to measure the times
+	 */
+	void setTiming(boolean timing);
+
+	/**
+	 * set the counters and timers to 0
+	 */
+	void reset();
+}
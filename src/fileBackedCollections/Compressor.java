@@ -0,0 +1,201 @@
+package fileBackedCollections;
+/**
+ * optional compression of the records of a collection, between serialization
+ * and encryption. Items smaller than the threshold are stored as they are.
+ * Large items are compressed alone with a Deflater. Small items compress poorly
+ * alone, so the first small items are collected as a preset dictionary, and the
+ * small items after them are compressed with it; the serialized class
+ * descriptions and repeated text the items share with the dictionary are then
+ * not stored in each record.
+ *
+ * The flags of a record say how it was compressed, so a record is read the same
+ * way whatever compression is set when it is read. A compressed record starts
+ * with the size of the item bytes.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class Compressor {
+
+	/**
+	 * size of the preset dictionary, which is processed for each small item
+	 * compressed with it
+	 */
+	static final int DICTIONARY_SIZE = 4096;
+
+	/**
+	 * items smaller than this are compressed with the dictionary
+	 */
+	static final int SMALL_SIZE = 4096;
+
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater());
+
+	/**
+	 * a compressed item and the flags of its record
+	 */
+	static final class Packed {
+
+		final byte[] bytes;
+		final int flags;
+
+		Packed(byte[] bytes, int flags) {
+			this.bytes = bytes;
+			this.flags = flags;
+		}
+	}
+
+	private volatile int threshold = 0; // items this size and larger are compressed, 0 for none
+	private volatile byte[] dictionary = null;
+	private byte[] sample = null; // small items collected for the dictionary
+	private int sampled = 0;
+
+	/**
+	 * check if an item of a size would be compressed
+	 *
+	 * @param size size of the serialized item in bytes
+	 * @return true if compress may change the bytes of the item
+	 */
+	boolean compresses(int size) {
+
+		final int minSize = threshold;
+		return minSize != 0 && size >= minSize;
+	}
+
+	/**
+	 * set the size of the smallest item that is compressed
+	 *
+	 * @param minSize size of the serialized item in bytes, 0 to not compress
+	 */
+	void setThreshold(int minSize) {
+		threshold = Math.max(0, minSize);
+	}
+
+	/**
+	 * the preset dictionary of the small items
+	 *
+	 * @return byte array, or null if there is no dictionary yet
+	 */
+	byte[] dictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * use a dictionary saved with the collection
+	 *
+	 * @param saved dictionary, or null
+	 */
+	synchronized void setDictionary(byte[] saved) {
+
+		dictionary = saved;
+		sample = null;
+		sampled = 0;
+	}
+
+	/**
+	 * compress the serialized bytes of an item if it is large enough and the
+	 * compressed bytes are smaller
+	 *
+	 * @param bytes serialized item, or null for a null item
+	 * @return Packed bytes to store and the flags of the record
+	 */
+	Packed compress(byte[] bytes) {
+
+		final int minSize = threshold;
+		if (bytes == null || minSize == 0 || bytes.length < minSize) {
+			return new Packed(bytes, 0);
+		}
+
+		byte[] preset = null;
+		if (bytes.length < SMALL_SIZE) {
+			preset = dictionary;
+			if (preset == null) {
+				// stored as it is until there is a dictionary
+				sample(bytes);
+				return new Packed(bytes, 0);
+			}
+		}
+
+		final Deflater deflater = deflaters.get();
+		deflater.reset();
+		if (preset != null) {
+			deflater.setDictionary(preset);
+		}
+		deflater.setInput(bytes);
+		deflater.finish();
+
+		// only kept if it is smaller
+		final byte[] packed = new byte[bytes.length];
+		ByteBuffer.wrap(packed).putInt(bytes.length);
+		int length = Integer.BYTES;
+		while (!deflater.finished() && length < packed.length) {
+			length += deflater.deflate(packed, length, packed.length - length);
+		}
+		if (!deflater.finished()) {
+			return new Packed(bytes, 0);
+		}
+		return new Packed(Arrays.copyOf(packed, length), preset != null ? Record.DEFLATED | Record.DICTIONARY : Record.DEFLATED);
+	}
+
+	/**
+	 * add a small item to the sample the dictionary is made of
+	 */
+	private synchronized void sample(byte[] bytes) {
+
+		if (dictionary != null) {
+			return;
+		}
+		if (sample == null) {
+			sample = new byte[DICTIONARY_SIZE];
+		}
+		final int length = Math.min(bytes.length, DICTIONARY_SIZE - sampled);
+		System.arraycopy(bytes, 0, sample, sampled, length);
+		sampled += length;
+		if (sampled == DICTIONARY_SIZE) {
+			dictionary = sample;
+			sample = null;
+		}
+	}
+
+	/**
+	 * decompress the item bytes of a record
+	 *
+	 * @param record array holding the item bytes, decrypted
+	 * @param offset start of the item bytes in the array
+	 * @param size size of the item bytes in the record
+	 * @param flags flags of the record
+	 * @return byte array of the serialized item
+	 * @throws IOException if the record is damaged or its dictionary is missing
+	 */
+	byte[] decompress(byte[] record, int offset, int size, int flags) throws IOException {
+
+		final byte[] bytes = new byte[ByteBuffer.wrap(record).getInt(offset)];
+		final Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(record, offset + Integer.BYTES, size - Integer.BYTES);
+		try {
+			int length = 0;
+			while (length < bytes.length) {
+				final int count = inflater.inflate(bytes, length, bytes.length - length);
+				if (count == 0) {
+					if (inflater.needsDictionary() && (flags & Record.DICTIONARY) != 0 && dictionary != null) {
+						inflater.setDictionary(dictionary);
+					} else if (inflater.needsDictionary() || inflater.needsInput() || inflater.finished()) {
+						throw new IOException("compressed record is damaged or its dictionary is missing");
+					}
+				}
+				length += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("compressed record is damaged", e);
+		}
+		return bytes;
+	}
+}
@@ -1,610 +1,2346 @@
-package fileBackedCollections;
-/**
- *  FileBackedArrayList replaces an ArrayList with a method that allows
- *  storing a larger collection than can hold in memory.
- *  
- *  Matthew Clark  2021
- * 
- * 
- */
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
-import java.io.Serializable;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Random;
-
-public class FileBackedArrayList<E extends Serializable> 
-	extends ArrayList<E> implements Serializable {
-	
-	private static final long serialVersionUID = -1057695858159751216L;
-	private ArrayList<IndexEntry> index = new ArrayList<IndexEntry>();
-	private File tempFile = null; // file object; could use just a String filename for this
-	private RandomAccessFile file = null; // RAF object stored in tempFile
-	private transient Random random = new Random();
-
-	
-	FileBackedArrayList() {
-		boolean success = init();
-		if (!success) {
-			System.err.println("FileBackedArrayList: could not initialize file");
-		}
-	}
-	
-	/**
-	 * create backing file.  The location of this file may have security implications
-	 * so this wrapper could be changed to specify a more secure location
-	 * @return temporary file
-	 * @throws IOException
-	 */
-	File createBackingFile() throws IOException {
-		File result =  File.createTempFile("filebackedcollection", "bin", null);
-		result.deleteOnExit();
-		return result;
-	}
-	
-	
-	/**
-	 *  initialization of the storage file
-	 *  @return true if the initialization seemed successful
-	 * @throws NoSuchAlgorithmException 
-	 */
-	boolean init()  {
-		
-		if (tempFile == null && file == null) {
-			try {
-				tempFile = createBackingFile();
-				file = new RandomAccessFile(tempFile, "rw");
-				
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-				return false;
-			} catch (IOException e) {
-				e.printStackTrace();
-				return false;
-			} 
-		}
-		
-		return true;
-	}
-	
-	/**
-	 * return the size of the backing file in bytes
-	 * 
-	 * @return long size of file
-	 */
-	public long fileSize() {
-		
-		try {
-			if (file == null) {
-				return 0;
-			}
-			synchronized(file) {
-				return file.length();
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return -1;
-	}
-	
-	
-	/**
-	 * compact the data store file. Some operations like remove and set may make
-	 * orphan objects in the file which may result in a lot of storage.  However,
-	 * this operation may be disk/time intensive as it copies all of the objects 
-	 * to a new file.
-	 * 
-	 */
-	public void trim() {
-
-		final FileBackedArrayList<E> update = new FileBackedArrayList<E>();
-
-		for (E item : this) {
-			update.add(item);
-		}
-		
-		this.clear();
-		
-		index = update.index;
-		file = update.file;
-		tempFile = update.tempFile;
-	}
-	
-	
-	@Override
-	public void clear() {
-		// clear index
-		index.clear();
-		if (file != null) {
-			try {
-				synchronized(file) {
-					file.close();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		if (tempFile != null && tempFile.exists()) {
-			tempFile.delete();
-		}
-		tempFile = null;
-		file = null;
-		boolean success = init();
-		if (!success) {
-			System.err.println("clear: error initializing backing file");
-		}
-	}
-	
-	
-	/**
-	 * read an entry from the file and return the bytes
-	 * @param entry serial number of object to get
-	 * @return the object, serialized in bytes
-	 * 
-	 * @throws IOException
-	 */
-	private final byte[] read(int entry) throws IOException {
-		
-		final IndexEntry indx = index.get(entry);
-		if (indx.getSize() == 0) return null;
-		
-		final byte[] objbytes = new byte[indx.getSize()];
-		
-		synchronized(file) {
-			file.seek(indx.getPosition());       
-			file.readFully(objbytes);
-		}
-		
-		return encrypt(objbytes, indx.getSeed());
-	}
-
-
-	/**
-	 * encrypt data using a combiner algorithm.  Each array has a different seed used for this XOR encryption.
-	 * This is a medium level encryption designed to make the data stored in the file non-obvious way
-	 * to thwart simple inspection. 
-	 * 
-	 * @param data
-	 * @return encrypted or decrypted data
-	 */
-	private final byte[] encrypt(final byte[] data, final long seed) {
-		
-		random.setSeed(seed);
-		final byte[] randombytes = new byte[data.length];
-		random.nextBytes(randombytes);
-		
-		for (int i = 0; i < data.length; i++) {
-			data[i] ^= randombytes[i];
-		}
-		return data;
-	}
-
-
-	/**
-	 * write a serialized object to the end of the memory mapped file as an array of bytes
-	 * 
-	 * @param bytes bytes to write
-	 * @throws IOException
-	 */
-	private final void write(final byte[] bytes, long seed) throws IOException {
-		
-		if (bytes == null) {
-			return;
-		}
-		
-		boolean success = init();
-		if (!success) {
-			throw new IOException("Error creating backing file");
-		}
-		
-		synchronized(file) {
-			
-			file.seek(file.length());
-			file.write(encrypt(bytes, seed));
-		}
-	}
-	
-
-
-	/**
-	 * serialize an object to a byte array
-	 * 
-	 * @param object Object to serialize
-	 * @return byte array
-	 * @throws IOException
-	 */
-	final private byte[] objectToBytes(Object object) throws IOException {
-		
-		if (object == null) {
-			return null;
-		}
-		
-		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		final ObjectOutputStream out = new ObjectOutputStream(bos);
-		out.writeObject(object);
-		out.close();
-		return bos.toByteArray();
-	}
-	
-
-	/**
-	 * read bytes and return to an object
-	 * @param bytes byte array from a serialized object
-	 * @return the object that created the bytes
-	 * @throws IOException
-	 * @throws ClassNotFoundException if the object's class is not known
-	 */
-	final private E bytesToObject(final byte[] bytes) throws IOException, ClassNotFoundException {
-
-		if (bytes == null || bytes.length == 0) {
-			return null;
-		}
-		
-		final ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-		final ObjectInputStream in = new ObjectInputStream(bis);
-		@SuppressWarnings("unchecked")
-		final E result = (E) in.readObject();
-		in.close();
-		return result;
-	}
-
-	@Override
-	public int size() {
-		return index.size();
-	}
-
-
-	/**
-	 * remove the item at the specified index. this does not remove the actual data stored
-	 * on disk however.
-	 * 
-	 * @param indx index of item to remove
-	 * @return E item removed
-	 */
-	public E remove(int indx) {
-		final E result = get(indx);
-		index.remove(indx);
-		return result;
-	}
-
-	
-	/**
-	 * get the item at the specified index
-	 * 
-	 * @param indx integer index
-	 * @return E item at that index
-	 */
-	public E get(int indx) {
-		
-		if (indx < 0 || indx >= size()) {
-			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
-		}
-		
-		try {
-			IndexEntry ientry = index.get(indx);
-			if (ientry.hashCode() == 0 || ientry.getSize() == 0 ) {
-				return null;
-			}
-			return bytesToObject(read(indx));
-			
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return null;
-	}
-	
-	@Override
-	public boolean add(E item) {
-		
-		add(index.size(), item);
-		return true;
-	}
-	
-	/**
-	 * add the item at the specified index, moving the indices of other items
-	 * if necessary
-	 * 
-	 * @param indx integer index location
-	 * @param E item to add
-	 * @throws IndexOutOfBoundsException if index is < 0 or > size
-	 * @throws NullPointerException if item is null
-	 */
-	public void add(int indx, E item) {
-		
-		if (indx < 0 || indx > size()) {
-			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
-		}
-		
-		boolean success = init();
-		if (!success) {
-			throw new NullPointerException("add: error creating backing file");
-		}
-
-		try {
-			
-			final byte[] entry = objectToBytes(item);
-			final IndexEntry idx = new IndexEntry(
-					fileSize(), 
-					entry != null ? entry.length : 0,
-					item);
-			
-			write(entry, idx.getSeed());
-			index.add(indx, idx);
-			
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-	
-	
-	
-
-	/**
-	 * set the item at index 'indx', to 'item'. It writes the 
-	 * new item to the end of the file,
-	 * 
-	 * @param indx integer index to set
-	 * @param item E item to add to collection
-	 * @return item replaced at the index location.
-	 */
-	public E set(int indx, E item) {
-		
-		if (indx < 0 || indx >= size()) {
-			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
-		}
-		
-		E result = null;
-		if (indx < size()) {
-			result = get(indx);
-		}
-		
-		try {
-			final byte[] entry = objectToBytes(item);
-			final int entry_len = entry != null ? entry.length : 0;
-			
-			
-			final IndexEntry idx = new IndexEntry(
-					fileSize(), 
-					entry_len,
-					item);
-			
-			write(entry, idx.getSeed());
-			index.set(indx, idx);
-		
-			
-		} catch (IOException e) {
-			e.printStackTrace();
-			
-		}  catch (Exception e) {
-			System.err.println("size is " + size());
-			System.err.println("index " + indx + " item " + item + " " + index.get(indx));
-			e.printStackTrace();
-		}
-		
-		return  result;
-	}
-
-	/**
-	 * return true if the collection is empty.
-	 * 
-	 * @return true if the collection is empty, false if not.
-	 */
-	public boolean isEmpty() {
-		return size() == 0;
-	}
-	
-	
-	/**
-	 * efficient indexOf does not require reading all objects from file,
-	 * uses hash of object as an initial check before reading.
-	 * 
-	 * @param Object o to check index
-	 * @returns int index in collection or -1 if not present.
-	 */
-	public int indexOf(Object o) {
-
-		final int objectHash = (o == null ? 0 : o.hashCode());
-		
-		for (int i = 0; i < size(); i++) {
-			final IndexEntry entry = index.get(i);
-			if (entry.hashCode() == objectHash) {
-				final E item = get(i);
-				if (item.equals(o)) {
-					return i;
-				}
-			}
-		}
-		return -1;
-	}
-	
-	/**
-	 * Returns true if the collection contains the argument object. 
-	 * Uses hash code in index to check object to avoid reading through
-	 * the entire file.
-	 * 
-	 * @param o object to check
-	 * @return true if the object is contained in the collection
-	 */
-	public boolean contains(Object o) {
-		
-		return indexOf(o) != -1;
-	}
-
-	/**
-	 * remove the object from the collection
-	 * 
-	 * @param Object o to remove
-	 * @returns true if the object was removed
-	 */
-	public boolean remove(Object o) {
-		
-		final int indx = indexOf(o);
-		if (indx != -1) {
-			index.remove(indx);
-			return true;
-		}
-		return false;
-	}
-	
-/**
- * add all items from the argument collection to this collection
- * 
- * @param coll collection to add
- * @return true if this collection was changed
- */
-	public boolean addAll(Collection<? extends E> coll) {
-		
-		boolean result = false;
-		for (E item : coll) {
-			result |= add(item);
-		}
-		return result;
-	}
-	
-	/**
-	 * retain only the items from the collection in this collection
-	 * 
-	 * @param coll items to keep
-	 * @return true if the collection was changed
-	 */
-	public boolean retainAll(Collection<?> coll) {
-		
-		boolean result = false;
-		
-		for (Iterator<E> iter = this.iterator(); iter.hasNext();) {
-			E item = iter.next();
-			if (!coll.contains(item)) {
-				iter.remove();
-				result = true;
-			}
-		}
-		return result;
-	}
-	
-	/**
-	 * Return true if this collections contains all of the objects in the argument
-	 * 
-	 * @param coll collection to compare to
-	 * @return true if this collection contains all items in the argument
-	 */
-	public boolean containsAll(Collection<?> coll) {
-		
-		for (Object o : coll) {
-			if (!contains(o)) {
-				return false;
-			}
-		}
-		return true;
-	}
-	
-/**
- * Remove all objects in the collection from this collection.
- * 
- * @param col collection to remove
- * @return true if any object was removed
- */
-	public boolean removeAll(Collection<?> col) {
-		boolean result = false;
-		
-		for (Object o : col) {
-			result |= remove(o);
-		}
-		
-		return result;
-	}
-
-	/**
-	 * Hashcode for this collection object
-	 * compute hashcode without having to read each object file
-	 * since the hashcodes are stored in the object
-	 * 
-	 * @return integer hashcode for collection
-	 */
-    public int hashCode() {
-        int hashCode = 1;
-        for (IndexEntry e : index)
-            hashCode = 31*hashCode + e.hashCode();
-        
-        return hashCode;
-    }
-  
-    
-    /**
-     * implement equals
-     * 
-     * @param Object o object to compare to
-     * @return true if this collection has the same elements as the argument
-     */
-    public boolean equals(Object o) {
-    	
-    	if (o instanceof FileBackedArrayList ) {
-    		final FileBackedArrayList<?> fbc = (FileBackedArrayList<?>) o;
-    		if (fbc.size() != size() || fbc.hashCode() != hashCode() ) {
-    			return false;
-    		}
-    		// here if he the sizes and hashcodes are equal, so the objects are probably equal
-    		// but we check each object.
-    		for (int i = 0; i < size(); i++) {
-    			if (!index.get(i).equals(fbc.index.get(i))) {
-    				return false;
-    			}
-    		}
-    	}
-    	return true;
-    }
-    
-    private String outOfBoundsMsg(int index) {
-        return "Out of bounds Index: "+index+", Size: "+size();
-    }
-    
-    /*
-     * (non-Javadoc)
-     * try to clean up file if trash-collected. Windows has bugs affecting
-     * deleting temporary files
-     * 
-     * @see java.lang.Object#finalize()
-     */
-    protected void finalize() {
-    	
-    	if (index != null) index.clear();
-    	if (tempFile != null && tempFile.exists()) {
-    		tempFile.delete();
-    	}
-    }
-
-	@Override
-	public Iterator<E> iterator() {
-		Iterator<E> iter = new Iterator<E>() {
-			
-			private int index = 0;
-
-			@Override
-			public boolean hasNext() {
-				return index < size();
-			}
-
-			@Override
-			public E next() {
-				E result = get(index++);
-				return result;
-			}
-			
-		};
-		
-		return iter;
-	}
-	
-	
-	
+package fileBackedCollections;
+/**
+ *  FileBackedArrayList replaces an ArrayList with a method that allows
+ *  storing a larger collection than can hold in memory.
+ *  
+ *  Matthew Clark  2021
+ * 
+ * 
+ */
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+public class FileBackedArrayList<E extends Serializable> 
+	extends ArrayList<E> implements Serializable, Closeable {
+	
+	private static final long serialVersionUID = -1057695858159751216L;
+	
+	/**
+	 * number of items addAll serializes together on the fork-join pool
+	 */
+	private static final int BATCH_SIZE = 4096;
+	
+	/**
+	 * largest run of adjacent records the iterator reads at once, 4 MB
+	 */
+	private static final int READ_AHEAD_SIZE = 4 << 20;
+	
+	/**
+	 * number of bytes of records the compactor moves at a time, 4 MB
+	 */
+	private static final int COMPACTION_SEGMENT = 4 << 20;
+	
+	/**
+	 * part of the file the compactor sorts the records of at a time, 64 MB
+	 */
+	private static final long COMPACTION_SPAN = 64 << 20;
+	
+	/**
+	 * dead space below which compaction is not started automatically, 1 MB
+	 */
+	private static final long MIN_GARBAGE = 1 << 20;
+	
+	/**
+	 * reads getAllAsync keeps outstanding at once
+	 */
+	private static final int QUEUE_DEPTH = 32;
+	
+	private Index index = new Index();
+	private File tempFile = null; // file object; could use just a String filename for this
+	private final transient boolean temporary; // the file is deleted with the collection
+	private transient boolean checkpointed = false; // the checkpoint of the file matches the collection
+	private transient Storage file = null; // storage engine for tempFile
+	private final StorageType storageType;
+	private final transient Codec<E> codec; // converts the items to and from bytes
+	private final Protection protection;
+	private transient RecordCipher cipher; // protects the records in the file
+	private transient ReadCache<E> cache = null; // objects recently read, if enabled
+	private volatile boolean prefetch = false; // iterators read the next run in the background
+	
+	private long sequence = 0; // sequence number of the next record
+	private int nextSlot = 0; // slot of the next item added, kept by its later versions
+	private volatile long liveBytes = 0; // bytes of the records of the items in the collection
+	private volatile double compactionThreshold = 0; // fraction of dead bytes that starts compaction
+	private transient Compaction compaction = null; // compaction pass in progress
+	private final transient FreeList holes = new FreeList(); // slots of dead records to reuse
+	private final transient Compressor compressor = new Compressor(); // compresses the items, if enabled
+	private transient byte[] savedDictionary = null; // dictionary of the compressor saved with a named file
+	private final transient AtomicBoolean compacting = new AtomicBoolean(); // compaction is scheduled
+	private transient volatile long relocations = 0; // count of changes that moved records in the file
+	private transient CollectionStats stats = new CollectionStats(this); // counters and timers, shared by the lists of a map
+	final transient AsyncWrites asyncWrites = new AsyncWrites(); // adds made with addAsync, in order, and by subclasses
+	
+	// changes to the collection hold the write lock, so appends are given file positions 
+	// in order. Readers do not take it, they get the entries from the index with an 
+	// optimistic read of the index lock, and read the file with positional reads.
+	// The compactor holds the record lock in write mode while it moves records, and
+	// readers validate the record lock after reading a record.
+	private final transient ReentrantLock writeLock = new ReentrantLock();
+	private final transient StampedLock indexLock = new StampedLock();
+	private final transient StampedLock recordLock = new StampedLock();
+
+	
+	FileBackedArrayList() {
+		this(StorageType.RANDOM_ACCESS);
+	}
+	
+	/**
+	 * create a collection using the given kind of storage engine for the backing file
+	 * 
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedArrayList(StorageType storageType) {
+		this(Codecs.<E>generic(), storageType);
+	}
+	
+	/**
+	 * create a collection storing the items with a codec
+	 * 
+	 * @param codec converts the items to and from bytes
+	 */
+	public FileBackedArrayList(Codec<E> codec) {
+		this(codec, StorageType.RANDOM_ACCESS);
+	}
+	
+	/**
+	 * create a collection storing the items with a codec, using the given kind of
+	 * storage engine for the backing file
+	 * 
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedArrayList(Codec<E> codec, StorageType storageType) {
+		this(codec, storageType, Protection.AES);
+	}
+	
+	/**
+	 * create a collection storing the items with a codec, using the given kind of
+	 * storage engine for the backing file and protection for the records
+	 * 
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 */
+	public FileBackedArrayList(Codec<E> codec, StorageType storageType, Protection protection) {
+		this.codec = codec;
+		this.storageType = storageType;
+		this.protection = protection;
+		this.temporary = true;
+		boolean success = init();
+		if (!success) {
+			System.err.println("FileBackedArrayList: could not initialize file");
+		}
+	}
+	
+	/**
+	 * open a collection stored in a named file, which is kept when the collection
+	 * is closed. If the file was closed or checkpointed before, the collection is
+	 * opened again from the checkpoint of its index without reading the records,
+	 * otherwise the index is recovered from the records.
+	 * 
+	 * @param file backing file
+	 * @throws IOException if the file has records but no checkpoint with their key, 
+	 * or can not be opened
+	 */
+	public FileBackedArrayList(File file) throws IOException {
+		this(file, Codecs.<E>generic(), StorageType.RANDOM_ACCESS, Protection.AES);
+	}
+	
+	/**
+	 * open a collection stored in a named file, which is kept when the collection
+	 * is closed. If the file was closed or checkpointed before, the collection is
+	 * opened again from the checkpoint of its index without reading the records,
+	 * otherwise the index is recovered from the records, and records at the end 
+	 * of the file that were not completely written are cut off. The collection
+	 * must be opened with the codec it was written with.
+	 * 
+	 * @param file backing file
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 * @throws IOException if the file has protected records but no checkpoint with 
+	 * their key, the checkpoint is for other protection, or the file can not be opened
+	 */
+	public FileBackedArrayList(File file, Codec<E> codec, StorageType storageType, Protection protection) throws IOException {
+		this.codec = codec;
+		this.storageType = storageType;
+		this.protection = protection;
+		this.temporary = false;
+		open(file);
+	}
+	
+	/**
+	 * open a named backing file, and load the checkpoint of the index if it 
+	 * matches the file, or recover the index from the records if not
+	 * 
+	 * @param dataFile backing file
+	 * @throws IOException
+	 */
+	private void open(File dataFile) throws IOException {
+		
+		final Checkpoint checkpoint = Checkpoint.read(dataFile);
+		if (checkpoint == null && dataFile.length() > 0 && protection != Protection.NONE) {
+			throw new IOException("no checkpoint with the key of " + dataFile);
+		}
+		if (checkpoint != null && checkpoint.protection != protection) {
+			throw new IOException(dataFile + " is protected with " + checkpoint.protection);
+		}
+		
+		final Storage storage = storageType.open(dataFile);
+		tempFile = dataFile;
+		file = storage;
+		try {
+			if (checkpoint != null && checkpoint.isValid()) {
+				if (storage.length() < checkpoint.length) {
+					throw new IOException(dataFile + " is shorter than its checkpoint");
+				}
+				// bytes after the checkpoint were written by a collection that was not closed
+				storage.truncate(checkpoint.length);
+				cipher = protection.newCipher(checkpoint.key);
+				compressor.setDictionary(savedDictionary = checkpoint.dictionary);
+				index = checkpoint.index;
+				sequence = checkpoint.sequence;
+				nextSlot = checkpoint.nextSlot;
+				liveBytes = checkpoint.liveBytes;
+				checkpointed = true;
+				return;
+			}
+			
+			cipher = checkpoint != null ? protection.newCipher(checkpoint.key) : protection.newCipher();
+			if (checkpoint != null) {
+				compressor.setDictionary(savedDictionary = checkpoint.dictionary);
+			}
+			if (storage.length() > 0) {
+				recover();
+			}
+			// the key is saved before any record is written with it
+			writeCheckpoint();
+			
+		} catch (IOException e) {
+			storage.close();
+			tempFile = null;
+			file = null;
+			throw e;
+		}
+	}
+	
+	/**
+	 * rebuild the index from the records in the file, and cut off the records
+	 * at the end of the file that were not completely written
+	 * 
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		
+		final Recovery recovery = Recovery.recover(file, holes);
+		final long length = file.length();
+		if (recovery.torn) {
+			System.err.println("FileBackedArrayList: cut off an incomplete record at the end of " + tempFile);
+		}
+		if (recovery.length < length) {
+			file.truncate(recovery.length);
+		} else if (recovery.length > length) {
+			// the slack of the last record was not written
+			final int missing = (int) (recovery.length - length);
+			file.append(Record.zeros(missing), 0, missing);
+		}
+		index = recovery.index;
+		sequence = recovery.sequence;
+		nextSlot = recovery.nextSlot;
+		liveBytes = recovery.liveBytes;
+	}
+	
+	/**
+	 * create backing file.  The location of this file may have security implications
+	 * so this wrapper could be changed to specify a more secure location
+	 * @return temporary file
+	 * @throws IOException
+	 */
+	File createBackingFile() throws IOException {
+		File result =  File.createTempFile("filebackedcollection", "bin", null);
+		result.deleteOnExit();
+		return result;
+	}
+	
+	
+	/**
+	 *  initialization of the storage file
+	 *  @return true if the initialization seemed successful
+	 * @throws NoSuchAlgorithmException 
+	 */
+	boolean init()  {
+		
+		if (tempFile == null && file == null) {
+			try {
+				tempFile = createBackingFile();
+				file = storageType.open(tempFile);
+				cipher = protection.newCipher();
+				
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			} 
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * return the size of the backing file in bytes, including
+	 * appended data that has not been written yet
+	 * 
+	 * @return long size of file
+	 */
+	public long fileSize() {
+		
+		try {
+			if (file == null) {
+				return 0;
+			}
+			return file.length();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * write appended data that is still buffered in memory to the backing file
+	 */
+	public void flush() {
+		
+		try {
+			if (file != null) {
+				file.flush();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * save the index of a collection with a named file next to the file, so the 
+	 * collection can be opened again from it. The records are forced to the disk
+	 * first. The checkpoint is marked stale by the next change to the collection, 
+	 * and a new one must be written after the changes.
+	 * 
+	 * @throws IOException
+	 * @throws IllegalStateException if the collection has a temporary file
+	 */
+	public void checkpoint() throws IOException {
+		
+		if (temporary) {
+			throw new IllegalStateException("checkpoint: the collection has a temporary file");
+		}
+		lockWrites();
+		try {
+			if (checkpointed || file == null) {
+				return;
+			}
+			writeCheckpoint();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	private void writeCheckpoint() throws IOException {
+		
+		file.force();
+		savedDictionary = compressor.dictionary();
+		new Checkpoint(protection, cipher.key(), savedDictionary, sequence, file.length(), liveBytes, nextSlot, index).write(tempFile);
+		checkpointed = true;
+	}
+	
+	/**
+	 * save a new dictionary of the compressor with a named file, before records
+	 * compressed with it are written. It is saved in a stale checkpoint, as the
+	 * collection is being changed.
+	 * 
+	 * @throws IOException
+	 */
+	private void saveDictionary() throws IOException {
+		
+		final byte[] dictionary = compressor.dictionary();
+		if (temporary || dictionary == savedDictionary) {
+			return;
+		}
+		new Checkpoint(protection, cipher.key(), dictionary, 0, 0, 0, 0, null).write(tempFile);
+		savedDictionary = dictionary;
+	}
+	
+	
+	/**
+	 * close the collection. A named file is checkpointed and kept, a temporary
+	 * file is deleted. The collection may not be used after it is closed.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		
+		stats.unregister();
+		lockWrites();
+		try {
+			if (file == null) {
+				return;
+			}
+			if (!temporary) {
+				checkpoint();
+			}
+			deleteBackingFile();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * take the lock of the changes to the collection, counting the time spent
+	 * waiting for it when another change holds it
+	 */
+	private void lockWrites() {
+		
+		if (writeLock.tryLock()) {
+			return;
+		}
+		final long start = System.nanoTime();
+		writeLock.lock();
+		stats.lockWait(System.nanoTime() - start);
+	}
+	
+	/**
+	 * the counters and timers of the collection, which can be registered as an MBean
+	 * 
+	 * @return CollectionStats of the collection
+	 */
+	public CollectionStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * count the operations of this list in the stats of another collection, for 
+	 * the lists that together hold a map
+	 * 
+	 * @param shared stats of the collection
+	 */
+	void useStats(CollectionStats shared) {
+		
+		stats = shared;
+		shared.track(this);
+	}
+	
+	/**
+	 * called before each change to the collection. The first change after a
+	 * checkpoint marks the checkpoint stale, because it no longer matches the file.
+	 */
+	private void changed() {
+		
+		if (checkpointed) {
+			checkpointed = false;
+			try {
+				Checkpoint.invalidate(tempFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	
+	/**
+	 * compact the data store file. Some operations like remove and set leave
+	 * orphan records in the file which may use a lot of storage. This is the 
+	 * same as compact.
+	 * 
+	 */
+	public void trim() {
+		compact();
+	}
+	
+	
+	/**
+	 * compact the data store file now. The records of the items are moved down over 
+	 * the space of removed and replaced items, a segment at a time, and the file is
+	 * truncated to the live records. The records are copied without deserializing 
+	 * them. Readers are not paused, and other changes can be made between segments.
+	 */
+	public void compact() {
+		
+		final long start = System.nanoTime();
+		try {
+			while (!compactStep()) {
+				// move the next segment
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		stats.trimmed(System.nanoTime() - start);
+	}
+	
+	
+	/**
+	 * compact the file in the background whenever the dead bytes of removed and
+	 * replaced items are more than a fraction of the file
+	 * 
+	 * @param garbageRatio fraction of the file, 0 to 1, or 0 to only compact when 
+	 * compact is called
+	 */
+	public void setCompactionThreshold(double garbageRatio) {
+		
+		compactionThreshold = garbageRatio;
+		checkGarbage();
+	}
+	
+	
+	/**
+	 * bytes of the file used by the records of items in the collection
+	 * 
+	 * @return long count of bytes
+	 */
+	public long getLiveBytes() {
+		return liveBytes;
+	}
+	
+	
+	/**
+	 * bytes of the file used by records of items that were removed or replaced,
+	 * which compaction reclaims
+	 * 
+	 * @return long count of bytes
+	 */
+	public long getDeadBytes() {
+		return Math.max(0, fileSize() - liveBytes);
+	}
+	
+	
+	/**
+	 * fraction of the file used by the records of items in the collection
+	 * 
+	 * @return double from 0 to 1, 1 for an empty file
+	 */
+	public double getLiveRatio() {
+		
+		final long length = fileSize();
+		return length > 0 ? (double) liveBytes / length : 1.0;
+	}
+	
+	
+	/**
+	 * start compaction in the background if the dead bytes are over the threshold
+	 */
+	private void checkGarbage() {
+		
+		final double threshold = compactionThreshold;
+		if (threshold <= 0) {
+			return;
+		}
+		final long dead = getDeadBytes();
+		if (dead > MIN_GARBAGE && dead > threshold * fileSize() && compacting.compareAndSet(false, true)) {
+			IoThreads.executor().execute(() -> {
+				try {
+					compact();
+				} finally {
+					compacting.set(false);
+				}
+			});
+		}
+	}
+	
+	
+	/**
+	 * state of a compaction pass, which moves the records down to the start
+	 * of the file in the order of their positions
+	 */
+	private static final class Compaction {
+		
+		long to = 0; // end of the compacted records, where the next record is moved to
+		long from = 0; // position of the first record not looked at yet
+		Index.Order order = null; // records from 'from', sorted by position
+		int next = 0; // next record of the order
+		int renumbered = 0; // renumbering count of the index when the order was made
+	}
+	
+	
+	/**
+	 * move the next segment of records down to the end of the compacted records. 
+	 * The segment is read, written to its new place and the positions of the 
+	 * entries changed while the record lock is held, so readers that read the
+	 * records at the same time read them again.
+	 * 
+	 * @return true when the file is compacted
+	 * @throws IOException
+	 */
+	private boolean compactStep() throws IOException {
+		
+		lockWrites();
+		try {
+			if (file == null) {
+				return true;
+			}
+			Compaction pass = compaction;
+			if (pass == null) {
+				// the compacted records are written over the holes
+				holes.clear();
+				pass = compaction = new Compaction();
+			}
+			
+			if (pass.order == null || pass.next == pass.order.size() || pass.renumbered != index.renumbered()) {
+				pass.order = index.orderByPosition(pass.from, COMPACTION_SPAN);
+				pass.next = 0;
+				pass.renumbered = index.renumbered();
+				
+				if (pass.order.size() == 0) {
+					// all records are compacted
+					if (pass.to < file.length()) {
+						changed();
+					}
+					final long stamp = recordLock.writeLock();
+					try {
+						relocations++;
+						file.truncate(pass.to);
+						if (cache != null) {
+							// items of dead records may have been cached by readers
+							// after the records were released
+							cache.clear();
+						}
+					} finally {
+						recordLock.unlockWrite(stamp);
+					}
+					compaction = null;
+					return true;
+				}
+			}
+			
+			final Index.Order order = pass.order;
+			int[] entries = new int[16];
+			int count = 0;
+			int length = 0;
+			while (pass.next < order.size() && length < COMPACTION_SEGMENT) {
+				final int entry = order.entries[pass.next];
+				final long position = order.positions[pass.next];
+				pass.next++;
+				pass.from = position + 1;
+				
+				final int size = index.getSize(entry);
+				if (index.getPosition(entry) != position) {
+					// the item was replaced after the order was made
+					continue;
+				}
+				if (count == 0 && position == pass.to) {
+					// already in place
+					pass.to += Record.length(size);
+					continue;
+				}
+				if (count == entries.length) {
+					entries = Arrays.copyOf(entries, count * 2);
+				}
+				entries[count++] = entry;
+				length += Record.length(size);
+			}
+			
+			if (count > 0) {
+				changed();
+				final byte[] segment = new byte[length];
+				int offset = 0;
+				for (int i = 0; i < count; i++) {
+					final int recordLength = Record.length(index.getSize(entries[i]));
+					file.read(index.getPosition(entries[i]), segment, offset, recordLength);
+					offset += recordLength;
+				}
+				
+				final long stamp = recordLock.writeLock();
+				try {
+					relocations++;
+					file.write(pass.to, segment, 0, length);
+					
+					final ReadCache<E> readCache = cache;
+					final long indexStamp = indexLock.writeLock();
+					try {
+						long position = pass.to;
+						for (int i = 0; i < count; i++) {
+							if (readCache != null) {
+								readCache.remove(index.getPosition(entries[i]));
+								readCache.remove(position);
+							}
+							index.setPosition(entries[i], position);
+							position += Record.length(index.getSize(entries[i]));
+						}
+					} finally {
+						indexLock.unlockWrite(indexStamp);
+					}
+				} finally {
+					recordLock.unlockWrite(stamp);
+				}
+				pass.to += length;
+			}
+			return false;
+			
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	
+	@Override
+	public void clear() {
+		
+		lockWrites();
+		final long stamp = indexLock.writeLock();
+		try {
+			// clear index
+			index.clear();
+			if (cache != null) {
+				cache.clear();
+			}
+			sequence = 0;
+			nextSlot = 0;
+			liveBytes = 0;
+			compaction = null;
+			holes.clear();
+			if (temporary) {
+				deleteBackingFile();
+				boolean success = init();
+				if (!success) {
+					System.err.println("clear: error initializing backing file");
+				}
+			} else {
+				// a new key, as the sequence numbers start again
+				changed();
+				try {
+					file.truncate(0);
+					cipher = protection.newCipher();
+					writeCheckpoint();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			indexLock.unlockWrite(stamp);
+			writeLock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * close the backing file, and delete it if it is temporary
+	 */
+	private void deleteBackingFile() {
+		
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (temporary && tempFile != null && tempFile.exists()) {
+			tempFile.delete();
+		}
+		tempFile = null;
+		file = null;
+	}
+	
+	
+	/**
+	 * where the record of an entry is, copied from the index so the 
+	 * record can be read without holding a lock
+	 */
+	private static final class Location {
+		
+		final long position;
+		final int size;
+		final Storage file;
+		final RecordCipher cipher;
+		
+		Location(long position, int size, Storage file, RecordCipher cipher) {
+			this.position = position;
+			this.size = size;
+			this.file = file;
+			this.cipher = cipher;
+		}
+	}
+	
+	
+	/**
+	 * get the location of the record of an entry. The index is read without 
+	 * locking, and read again with the read lock only if a change was made 
+	 * to the index at the same time.
+	 * 
+	 * @param indx integer index
+	 * @return Location of the record
+	 * @throws IndexOutOfBoundsException if the index is < 0 or >= size
+	 */
+	private Location locate(int indx) {
+		
+		long stamp = indexLock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				final Location result = locateEntry(indx);
+				if (indexLock.validate(stamp)) {
+					return result;
+				}
+			} catch (IndexOutOfBoundsException e) {
+				if (indexLock.validate(stamp)) {
+					throw e;
+				}
+				// the index arrays were replaced while they were read
+			}
+		}
+		
+		stamp = indexLock.readLock();
+		try {
+			return locateEntry(indx);
+		} finally {
+			indexLock.unlockRead(stamp);
+		}
+	}
+	
+	private Location locateEntry(int indx) {
+		
+		if (indx < 0 || indx >= index.size()) {
+			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
+		}
+		return new Location(index.getPosition(indx), index.getSize(indx), file, cipher);
+	}
+	
+	
+	/**
+	 * read a record from the file, still encrypted
+	 * @param location location of the record
+	 * @return the record in bytes, or null for a null object
+	 * 
+	 * @throws IOException
+	 */
+	private final byte[] read(Location location) throws IOException {
+		
+		final int size = location.size;
+		if (size == Index.NULL_SIZE) return null;
+		
+		final byte[] record = new byte[Record.HEADER_SIZE + size];
+		final long started = stats.time();
+		location.file.read(location.position, record, 0, record.length);
+		stats.read(record.length, started);
+		return record;
+	}
+
+
+	/**
+	 * write a serialized object to the backing file as a record, and change the
+	 * index for it while holding the index lock. A record written over space that
+	 * held other records is written while holding the record lock, so readers of
+	 * the old records read again.
+	 * 
+	 * @param bytes bytes to write, or null for a null object
+	 * @param flags how the bytes are compressed
+	 * @param slot slot of the item
+	 * @param hash hash of the item
+	 * @param position position of the slot to write the record to, or -1 to 
+	 * append the record to the end of the file
+	 * @param update change to the index, given the position of the record
+	 * @return long position of the record in the file
+	 * @throws IOException
+	 */
+	private final long write(final byte[] bytes, int flags, int slot, int hash, long position, LongConsumer update) throws IOException {
+		
+		boolean success = init();
+		if (!success) {
+			throw new IOException("Error creating backing file");
+		}
+		saveDictionary();
+		
+		// the sequence number is the nonce of the record, it is stored with
+		// the record so it stays the same when the record is moved
+		final long recordSequence = sequence++;
+		final int size = bytes != null ? bytes.length : Index.NULL_SIZE;
+		long started = stats.time();
+		if (bytes != null) {
+			cipher.transform(bytes, 0, bytes.length, recordSequence);
+			started = stats.ciphered(started);
+		}
+		final byte[] header = Record.header(size, flags, slot, hash, recordSequence, bytes);
+		
+		if (position < 0) {
+			position = file.append(header, 0, header.length);
+			if (bytes != null) {
+				file.append(bytes, 0, bytes.length);
+			}
+			final int slack = Record.slack(size);
+			if (slack > 0) {
+				file.append(Record.zeros(slack), 0, slack);
+			}
+			stats.wrote(Record.length(size), started);
+			updateIndex(update, position);
+			return position;
+		}
+		
+		final long stamp = recordLock.writeLock();
+		try {
+			relocations++;
+			if (cache != null) {
+				cache.remove(position);
+			}
+			file.write(position, header, 0, header.length);
+			if (bytes != null) {
+				file.write(position + header.length, bytes, 0, bytes.length);
+			}
+			stats.wrote(header.length + Math.max(0, size), started);
+			updateIndex(update, position);
+		} finally {
+			recordLock.unlockWrite(stamp);
+		}
+		return position;
+	}
+	
+	private void updateIndex(LongConsumer update, long position) {
+		
+		final long stamp = indexLock.writeLock();
+		try {
+			update.accept(position);
+		} finally {
+			indexLock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * find a hole for the record of an item
+	 * 
+	 * @param size size of the item bytes, or Index.NULL_SIZE
+	 * @return long position of a hole of the size of the slot of the record, 
+	 * or -1 to append the record
+	 */
+	private long allocate(int size) {
+		
+		if (compaction != null) {
+			return -1;
+		}
+		return holes.allocate(Record.length(size));
+	}
+	
+	/**
+	 * read the slot of the item of a record from its header
+	 * 
+	 * @param position position of the record
+	 * @return int slot
+	 * @throws IOException
+	 */
+	private int slotAt(long position) throws IOException {
+		
+		final byte[] header = new byte[Record.HEADER_SIZE];
+		file.read(position, header, 0, header.length);
+		return Record.slot(header, 0);
+	}
+	
+
+	/**
+	 * serialize an object to a byte array with the codec
+	 * 
+	 * @param object Object to serialize
+	 * @return byte array, or null for a null object
+	 * @throws IOException
+	 */
+	final private byte[] objectToBytes(E object) throws IOException {
+		
+		if (object == null) {
+			return null;
+		}
+		return codec.encode(object);
+	}
+	
+
+	/**
+	 * serialize an object and compress it, if compression is enabled
+	 * 
+	 * @param object Object to store
+	 * @return Packed bytes, null for a null object, and flags of the record
+	 * @throws IOException
+	 */
+	private Compressor.Packed encode(E object) throws IOException {
+		
+		final long started = stats.time();
+		final Compressor.Packed result = compressor.compress(objectToBytes(object));
+		stats.encoded(started);
+		return result;
+	}
+	
+	/**
+	 * store the items compressed. Items smaller than 'minSize' are stored as they are,
+	 * large items are compressed alone, and small items are compressed with a dictionary
+	 * made of the first small items stored. Compressed records are read whatever
+	 * compression is set.
+	 * 
+	 * @param minSize size in bytes of the smallest serialized item to compress, 
+	 * 0 to not compress the items stored after this
+	 */
+	public void setCompression(int minSize) {
+		compressor.setThreshold(minSize);
+	}
+	
+	/**
+	 * decrypt a record in place and return the object with the codec
+	 * @param recordCipher cipher of the file the record was read from
+	 * @param record array holding the record, or null for a null object
+	 * @param offset start of the record in the array
+	 * @param size size of the serialized object in the record
+	 * @return the object that created the bytes
+	 * @throws IOException if the bytes can not be decoded
+	 */
+	final private E decode(RecordCipher recordCipher, final byte[] record, int offset, int size) throws IOException {
+
+		if (record == null) {
+			return null;
+		}
+		final int start = offset + Record.HEADER_SIZE;
+		long decrypted = stats.time();
+		recordCipher.transform(record, start, size, Record.sequence(record, offset));
+		decrypted = stats.ciphered(decrypted);
+		final int flags = Record.flags(record, offset);
+		final E result;
+		if ((flags & Record.DEFLATED) != 0) {
+			final byte[] bytes = compressor.decompress(record, start, size, flags);
+			result = codec.decode(bytes, 0, bytes.length);
+		} else {
+			result = codec.decode(record, start, size);
+		}
+		stats.decoded(decrypted);
+		return result;
+	}
+
+	@Override
+	public int size() {
+		
+		final long stamp = indexLock.tryOptimisticRead();
+		final int size = index.size();
+		if (indexLock.validate(stamp)) {
+			return size;
+		}
+		
+		final long locked = indexLock.readLock();
+		try {
+			return index.size();
+		} finally {
+			indexLock.unlockRead(locked);
+		}
+	}
+
+
+	/**
+	 * remove the item at the specified index. this does not remove the actual data stored
+	 * on disk however.
+	 * 
+	 * @param indx index of item to remove
+	 * @return E item removed
+	 */
+	public E remove(int indx) {
+		
+		final E result = get(indx);
+		removeEntry(indx);
+		return result;
+	}
+	
+	/**
+	 * remove an entry from the index
+	 * 
+	 * @param indx index of the entry
+	 */
+	private void removeEntry(int indx) {
+		
+		lockWrites();
+		try {
+			changed();
+			release(index.getPosition(indx), index.getSize(indx));
+			final long stamp = indexLock.writeLock();
+			try {
+				index.remove(indx);
+			} finally {
+				indexLock.unlockWrite(stamp);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	
+	/**
+	 * get the item at the specified index
+	 * 
+	 * @param indx integer index
+	 * @return E item at that index
+	 */
+	public E get(int indx) {
+		
+		final GetEvent event = new GetEvent();
+		event.begin();
+		final E result = load(indx);
+		event.end();
+		if (event.shouldCommit()) {
+			event.collection = getClass().getSimpleName();
+			event.file = String.valueOf(tempFile);
+			event.index = indx;
+			event.commit();
+		}
+		return result;
+	}
+	
+	/**
+	 * read and decode the item at an index
+	 */
+	private E load(int indx) {
+		
+		long stamp = recordLock.tryOptimisticRead();
+		Location location = locate(indx);
+		if (location.size == Index.NULL_SIZE) {
+			return null;
+		}
+		
+		try {
+			final ReadCache<E> readCache = cache;
+			if (readCache != null) {
+				final E cached = readCache.get(location.position);
+				if (cached != null && recordLock.validate(stamp)) {
+					return cached;
+				}
+			}
+			
+			byte[] record = null;
+			try {
+				record = read(location);
+			} catch (IOException e) {
+				if (recordLock.validate(stamp)) {
+					throw e;
+				}
+			}
+			if (!recordLock.validate(stamp)) {
+				// the records were moved while this one was read
+				stamp = recordLock.readLock();
+				try {
+					location = locate(indx);
+					record = read(location);
+				} finally {
+					stamp = recordLock.tryConvertToOptimisticRead(stamp);
+				}
+			}
+			
+			final E result = decode(location.cipher, record, 0, location.size);
+			if (readCache != null && result != null) {
+				readCache.put(location.position, result, location.size);
+				if (!recordLock.validate(stamp)) {
+					// the record may have been moved before the item was cached
+					readCache.remove(location.position);
+				}
+			}
+			return result;
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * the stored bytes of an item, as the codec encoded them, without decoding the
+	 * item. When the file is memory mapped, the records are not protected and the
+	 * record is not compressed, the buffer is a read only view of the mapped file 
+	 * and nothing is copied; the view is valid until the item is replaced or removed,
+	 * or the file is compacted or closed. Otherwise the buffer holds a copy.
+	 * 
+	 * @param indx integer index of the item
+	 * @return ByteBuffer holding the bytes of the item, or null for a null item
+	 * @throws IndexOutOfBoundsException if the index is < 0 or >= size
+	 */
+	public ByteBuffer getBuffer(int indx) {
+		
+		long stamp = recordLock.tryOptimisticRead();
+		Location location = locate(indx);
+		try {
+			ByteBuffer result = null;
+			try {
+				result = bytesAt(location);
+			} catch (IOException e) {
+				if (recordLock.validate(stamp)) {
+					throw e;
+				}
+			}
+			if (!recordLock.validate(stamp)) {
+				// the records were moved while this one was read
+				stamp = recordLock.readLock();
+				try {
+					location = locate(indx);
+					result = bytesAt(location);
+				} finally {
+					recordLock.unlockRead(stamp);
+				}
+			}
+			return result;
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * the item bytes of a record, decrypted and decompressed
+	 * 
+	 * @param location location of the record
+	 * @return ByteBuffer holding the bytes, a view of the mapped file when they
+	 * are stored as they are, or null for a null item
+	 * @throws IOException
+	 */
+	private ByteBuffer bytesAt(Location location) throws IOException {
+		
+		final int size = location.size;
+		if (size == Index.NULL_SIZE) {
+			return null;
+		}
+		if (location.file instanceof MappedStorage && location.cipher == RecordCipher.NONE) {
+			final MappedStorage mapped = (MappedStorage) location.file;
+			if ((Record.flags(mapped.getInt(location.position)) & Record.DEFLATED) == 0) {
+				final ByteBuffer view = mapped.slice(location.position + Record.HEADER_SIZE, size);
+				if (view.remaining() == size) {
+					stats.read(size, 0);
+					return view;
+				}
+				// the record crosses the end of a mapped segment
+			}
+		}
+		
+		final byte[] record = read(location);
+		final long started = stats.time();
+		location.cipher.transform(record, Record.HEADER_SIZE, size, Record.sequence(record, 0));
+		stats.ciphered(started);
+		final int flags = Record.flags(record, 0);
+		if ((flags & Record.DEFLATED) != 0) {
+			return ByteBuffer.wrap(compressor.decompress(record, Record.HEADER_SIZE, size, flags)).asReadOnlyBuffer();
+		}
+		return ByteBuffer.wrap(record, Record.HEADER_SIZE, size).slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * read an item on the I/O threads, without waiting for it
+	 * 
+	 * @param indx integer index
+	 * @return CompletableFuture completed with the item at that index
+	 */
+	public CompletableFuture<E> getAsync(int indx) {
+		return CompletableFuture.supplyAsync(() -> get(indx), IoThreads.executor());
+	}
+	
+	/**
+	 * read many items together. The indexes are split into up to QUEUE_DEPTH runs
+	 * that are read in parallel on the I/O threads, so the disk is given many reads 
+	 * at once without a thread for each read.
+	 * 
+	 * @param indexes indexes of the items
+	 * @return CompletableFuture completed with the items, in the order of the indexes
+	 */
+	public CompletableFuture<List<E>> getAllAsync(int... indexes) {
+		
+		@SuppressWarnings("unchecked")
+		final E[] items = (E[]) new Serializable[indexes.length];
+		final int runs = Math.min(QUEUE_DEPTH, indexes.length);
+		final CompletableFuture<?>[] reads = new CompletableFuture<?>[runs];
+		for (int r = 0; r < runs; r++) {
+			final int from = (int) ((long) indexes.length * r / runs);
+			final int to = (int) ((long) indexes.length * (r + 1) / runs);
+			reads[r] = CompletableFuture.runAsync(() -> {
+				for (int i = from; i < to; i++) {
+					items[i] = get(indexes[i]);
+				}
+			}, IoThreads.executor());
+		}
+		return CompletableFuture.allOf(reads).thenApply(done -> Arrays.asList(items));
+	}
+	
+	/**
+	 * add an item after the last item, without waiting for it to be written. The
+	 * item is serialized on the fork-join pool while earlier adds are written, and
+	 * written on the I/O threads after them, so the items added with addAsync are
+	 * in the order they were added.
+	 * 
+	 * @param item item to add
+	 * @return CompletableFuture completed when the item is in the collection
+	 */
+	public CompletableFuture<Void> addAsync(E item) {
+		
+		final CompletableFuture<Compressor.Packed> encoded = CompletableFuture.supplyAsync(() -> {
+			try {
+				return encode(item);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, ForkJoinPool.commonPool());
+		final int hash = Objects.hashCode(item);
+		return asyncWrites.submit(encoded, entry -> {
+			if (!init()) {
+				throw new IOException("addAsync: error creating backing file");
+			}
+			insert(-1, entry, hash);
+			return null;
+		});
+	}
+	
+	@Override
+	public boolean add(E item) {
+		
+		insert(-1, item);
+		return true;
+	}
+	
+	/**
+	 * add the item at the specified index, moving the indices of other items
+	 * if necessary
+	 * 
+	 * @param indx integer index location
+	 * @param E item to add
+	 * @throws IndexOutOfBoundsException if index is < 0 or > size
+	 * @throws NullPointerException if item is null
+	 */
+	public void add(int indx, E item) {
+		
+		if (indx < 0 || indx > size()) {
+			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
+		}
+		insert(indx, item);
+	}
+	
+	/**
+	 * write an item to the end of the file and add it to the index
+	 * 
+	 * @param indx integer index location, or -1 to add the item after the last item
+	 * @param item item to add
+	 */
+	private void insert(int indx, E item) {
+		
+		boolean success = init();
+		if (!success) {
+			throw new NullPointerException("add: error creating backing file");
+		}
+
+		final AddEvent event = new AddEvent();
+		event.begin();
+		try {
+			insert(indx, encode(item), Objects.hashCode(item));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		commit(event, 1);
+	}
+	
+	/**
+	 * record an add in the flight recording, if it took longer than the threshold
+	 * 
+	 * @param event event begun when the add started
+	 * @param count number of items added
+	 */
+	private void commit(AddEvent event, int count) {
+		
+		event.end();
+		if (event.shouldCommit()) {
+			event.collection = getClass().getSimpleName();
+			event.file = String.valueOf(tempFile);
+			event.count = count;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * write the encoded bytes of an item to the file and add it to the index
+	 * 
+	 * @param indx integer index location, or -1 to add the item after the last item
+	 * @param entry encoded bytes of the item and the flags of its record
+	 * @param hash hash of the item
+	 * @throws IOException
+	 */
+	private void insert(int indx, Compressor.Packed entry, int hash) throws IOException {
+		
+		lockWrites();
+		try {
+			changed();
+			final int at = indx == -1 ? index.size() : indx;
+			if (at > index.size()) {
+				throw new IndexOutOfBoundsException(outOfBoundsMsg(at));
+			}
+			
+			final int entry_len = entry.bytes != null ? entry.bytes.length : Index.NULL_SIZE;
+			write(entry.bytes, entry.flags, nextSlot++, hash, allocate(entry_len), position -> index.add(at, position, entry_len, hash));
+			liveBytes += Record.length(entry_len);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * add an item after the last item, given the bytes the codec encodes it to.
+	 * When the records are neither protected nor compressed the bytes are written
+	 * to the end of the file straight from the buffer, otherwise they are copied
+	 * to be encrypted or compressed. The position of the buffer is not changed.
+	 * 
+	 * @param bytes buffer holding the encoded item from its position to its limit
+	 * @param hash hash of the item
+	 */
+	void addBytes(ByteBuffer bytes, int hash) {
+		
+		boolean success = init();
+		if (!success) {
+			throw new NullPointerException("add: error creating backing file");
+		}
+
+		try {
+			final int size = bytes.remaining();
+			if (cipher != RecordCipher.NONE || compressor.compresses(size)) {
+				final byte[] copy = new byte[size];
+				bytes.duplicate().get(copy);
+				insert(-1, compressor.compress(copy), hash);
+				return;
+			}
+			
+			lockWrites();
+			try {
+				changed();
+				final int at = index.size();
+				final byte[] header = Record.header(size, 0, nextSlot++, hash, sequence++, bytes);
+				final int slack = Record.slack(size);
+				final long started = stats.time();
+				final long position = file.append(new ByteBuffer[] {
+						ByteBuffer.wrap(header), bytes.duplicate(), ByteBuffer.wrap(Record.zeros(slack), 0, slack)});
+				stats.wrote(Record.length(size), started);
+				updateIndex(p -> index.add(at, p, size, hash), position);
+				liveBytes += Record.length(size);
+			} finally {
+				writeLock.unlock();
+			}
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	
+
+	/**
+	 * set the item at index 'indx', to 'item'. The new item is written in a hole 
+	 * of its size or at the end of the file, and the old one is then marked dead, 
+	 * so a named file always holds a complete version of the item. In a temporary 
+	 * file, which is never recovered, the new item is written over the old one if 
+	 * it fits its slot and there is no hole of its size.
+	 * 
+	 * @param indx integer index to set
+	 * @param item E item to add to collection
+	 * @return item replaced at the index location.
+	 */
+	public E set(int indx, E item) {
+		
+		if (indx < 0 || indx >= size()) {
+			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
+		}
+		
+		E result = null;
+		if (indx < size()) {
+			result = get(indx);
+		}
+		replace(indx, item);
+		return result;
+	}
+	
+	/**
+	 * set the item at an index without reading the item it replaces
+	 * 
+	 * @param indx integer index to set
+	 * @param item E item to store at the index
+	 */
+	void replace(int indx, E item) {
+		
+		if (indx < 0 || indx >= size()) {
+			throw new IndexOutOfBoundsException(outOfBoundsMsg(indx));
+		}
+		
+		try {
+			final Compressor.Packed entry = encode(item);
+			final int entry_len = entry.bytes != null ? entry.bytes.length : Index.NULL_SIZE;
+			
+			lockWrites();
+			try {
+				changed();
+				final long oldPosition = index.getPosition(indx);
+				final int oldSize = index.getSize(indx);
+				final int hash = Objects.hashCode(item);
+				
+				final int itemSlot = slotAt(oldPosition);
+				
+				final int slot = Record.length(oldSize);
+				final int length = Record.length(entry_len);
+				final long hole = temporary && length == slot ? -1 : allocate(entry_len);
+				if (temporary && hole == -1 && length <= slot) {
+					// the new record is written in the old slot, and the end of a
+					// larger slot is left as dead space
+					write(entry.bytes, entry.flags, itemSlot, hash, oldPosition, position -> index.set(indx, position, entry_len, hash));
+					liveBytes += length - slot;
+				} else {
+					// a torn write of the new record leaves the old one, which is 
+					// only marked dead once the new one is complete
+					write(entry.bytes, entry.flags, itemSlot, hash, hole, position -> index.set(indx, position, entry_len, hash));
+					liveBytes += length;
+					release(oldPosition, oldSize);
+				}
+			} finally {
+				writeLock.unlock();
+			}
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			
+		}  catch (Exception e) {
+			System.err.println("size is " + size());
+			System.err.println("index " + indx + " item " + item + " position " + index.getPosition(indx));
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * get the hash of the item at an index without reading it
+	 * 
+	 * @param indx integer index
+	 * @return int hash of the item
+	 */
+	final int hashAt(int indx) {
+		return index.getHash(indx);
+	}
+	
+	/**
+	 * remove the item at an index by moving the last item into its place. 
+	 * Used by collections that do not keep an order.
+	 * 
+	 * @param indx integer index
+	 */
+	final void removeBySwap(int indx) {
+		
+		lockWrites();
+		try {
+			changed();
+			release(index.getPosition(indx), index.getSize(indx));
+			final long stamp = indexLock.writeLock();
+			try {
+				index.removeBySwap(indx);
+			} finally {
+				indexLock.unlockWrite(stamp);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * called when the record of an entry is no longer used because the
+	 * entry is removed or replaced. The slot of the record becomes a hole
+	 * for new records, and compaction is started if there is too much 
+	 * dead space. The record in a named file is marked dead, so it is not
+	 * recovered. The mark is written under the record lock like other writes 
+	 * over a record, so a reader that found the old position reads the index 
+	 * again instead of decoding the record with the flags of a dead one.
+	 * 
+	 * @param position position of the record
+	 * @param size size of the item bytes of the record, or Index.NULL_SIZE
+	 */
+	private void release(long position, int size) {
+		
+		final ReadCache<E> readCache = cache;
+		if (!temporary) {
+			final long stamp = recordLock.writeLock();
+			try {
+				relocations++;
+				if (readCache != null) {
+					readCache.remove(position);
+				}
+				final byte[] dead = Record.dead();
+				file.write(position, dead, 0, dead.length);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				recordLock.unlockWrite(stamp);
+			}
+		}
+		final int length = Record.length(size);
+		liveBytes -= length;
+		
+		if (readCache != null) {
+			readCache.remove(position);
+		}
+		if (compaction == null) {
+			holes.free(position, length);
+		}
+		checkGarbage();
+	}
+	
+	/**
+	 * keep recently read items in memory, so they are not read from the file and 
+	 * deserialized again. Items read a second time are kept in preference to items 
+	 * read once, so a scan does not evict them. The cached items are shared by all
+	 * callers of get and must not be modified.
+	 * 
+	 * @param maxEntries maximum number of items in the cache, 0 to disable the cache
+	 * @param maxBytes maximum total size of the records of the items in the cache
+	 */
+	public void setCache(int maxEntries, long maxBytes) {
+		
+		cache = maxEntries > 0 && maxBytes > 0 ? new ReadCache<E>(maxEntries, maxBytes) : null;
+	}
+	
+	/**
+	 * number of reads served from the cache
+	 * 
+	 * @return long count of cache hits, 0 if there is no cache
+	 */
+	public long getCacheHits() {
+		
+		final ReadCache<E> readCache = cache;
+		return readCache != null ? readCache.hits() : 0;
+	}
+	
+	/**
+	 * number of reads that were not in the cache
+	 * 
+	 * @return long count of cache misses, 0 if there is no cache
+	 */
+	public long getCacheMisses() {
+		
+		final ReadCache<E> readCache = cache;
+		return readCache != null ? readCache.misses() : 0;
+	}
+
+	/**
+	 * return true if the collection is empty.
+	 * 
+	 * @return true if the collection is empty, false if not.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	
+	/**
+	 * efficient indexOf does not require reading all objects from file,
+	 * uses hash of object as an initial check before reading.
+	 * 
+	 * @param Object o to check index
+	 * @returns int index in collection or -1 if not present.
+	 */
+	public int indexOf(Object o) {
+
+		final int objectHash = (o == null ? 0 : o.hashCode());
+		
+		for (int i = index.nextHash(objectHash, 0); i != -1; i = index.nextHash(objectHash, i + 1)) {
+			final E item = get(i);
+			if (Objects.equals(item, o)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns true if the collection contains the argument object. 
+	 * Uses hash code in index to check object to avoid reading through
+	 * the entire file.
+	 * 
+	 * @param o object to check
+	 * @return true if the object is contained in the collection
+	 */
+	public boolean contains(Object o) {
+		
+		return indexOf(o) != -1;
+	}
+
+	/**
+	 * remove the object from the collection
+	 * 
+	 * @param Object o to remove
+	 * @returns true if the object was removed
+	 */
+	public boolean remove(Object o) {
+		
+		final int indx = indexOf(o);
+		if (indx != -1) {
+			removeEntry(indx);
+			return true;
+		}
+		return false;
+	}
+	
+/**
+ * add all items from the argument collection to this collection. Large collections
+ * are added in batches: each batch is serialized, compressed and encrypted in parallel on the 
+ * fork-join pool, while the previous batch is written with a single gathering write.
+ * 
+ * @param coll collection to add
+ * @return true if this collection was changed
+ */
+	public boolean addAll(Collection<? extends E> coll) {
+		
+		if (coll.size() < BATCH_SIZE || ForkJoinPool.getCommonPoolParallelism() < 2) {
+			// not worth the overhead of the pipeline
+			boolean result = false;
+			for (E item : coll) {
+				result |= add(item);
+			}
+			return result;
+		}
+		
+		boolean success = init();
+		if (!success) {
+			throw new NullPointerException("addAll: error creating backing file");
+		}
+		
+		final AddEvent event = new AddEvent();
+		event.begin();
+		final Iterator<? extends E> items = coll.iterator();
+		try {
+			CompletableFuture<Batch> next = encodeBatch(items);
+			while (next != null) {
+				final Batch batch = next.join();
+				// serialize the next batch while this one is written
+				next = items.hasNext() ? encodeBatch(items) : null;
+				writeBatch(batch);
+			}
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		} catch (UncheckedIOException e) {
+			e.getCause().printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		commit(event, coll.size());
+		return true;
+	}
+	
+	/**
+	 * items of addAll serialized together
+	 */
+	private static final class Batch {
+		
+		final byte[][] records;
+		final int[] flags;
+		final int[] hashes;
+		
+		Batch(int count) {
+			records = new byte[count][];
+			flags = new int[count];
+			hashes = new int[count];
+		}
+	}
+	
+	/**
+	 * take the next batch of items from the iterator and start serializing them
+	 * in parallel on the fork-join pool
+	 * 
+	 * @param items iterator over the items to add
+	 * @return future for the serialized batch
+	 */
+	private CompletableFuture<Batch> encodeBatch(Iterator<? extends E> items) {
+		
+		final ArrayList<E> chunk = new ArrayList<E>(BATCH_SIZE);
+		while (chunk.size() < BATCH_SIZE && items.hasNext()) {
+			chunk.add(items.next());
+		}
+		
+		return CompletableFuture.supplyAsync(() -> {
+			final Batch batch = new Batch(chunk.size());
+			IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+				final E item = chunk.get(i);
+				try {
+					final Compressor.Packed entry = encode(item);
+					batch.records[i] = entry.bytes;
+					batch.flags[i] = entry.flags;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				batch.hashes[i] = Objects.hashCode(item);
+			});
+			return batch;
+		}, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * assign file positions to a serialized batch in order, encrypt the records in parallel
+	 * and append them with one gathering write
+	 * 
+	 * @param batch serialized items
+	 * @throws IOException
+	 */
+	private void writeBatch(Batch batch) throws IOException {
+		
+		lockWrites();
+		try {
+			changed();
+			appendBatch(batch);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	private void appendBatch(Batch batch) throws IOException {
+		
+		saveDictionary();
+		final int count = batch.records.length;
+		final long start = file.length();
+		final long[] positions = new long[count];
+		final int[] sizes = new int[count];
+		final long firstSequence = sequence;
+		final int firstSlot = nextSlot;
+		
+		long position = start;
+		for (int i = 0; i < count; i++) {
+			positions[i] = position;
+			sizes[i] = batch.records[i] != null ? batch.records[i].length : Index.NULL_SIZE;
+			position += Record.length(sizes[i]);
+		}
+		sequence += count;
+		nextSlot += count;
+		
+		final byte[][] headers = new byte[count][];
+		IntStream.range(0, count).parallel().forEach(i -> {
+			final byte[] record = batch.records[i];
+			if (record != null) {
+				final long started = stats.time();
+				cipher.transform(record, 0, record.length, firstSequence + i);
+				stats.ciphered(started);
+			}
+			headers[i] = Record.header(sizes[i], batch.flags[i], firstSlot + i, batch.hashes[i], firstSequence + i, record);
+		});
+		
+		final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>(3 * count);
+		for (int i = 0; i < count; i++) {
+			buffers.add(ByteBuffer.wrap(headers[i]));
+			if (batch.records[i] != null) {
+				buffers.add(ByteBuffer.wrap(batch.records[i]));
+			}
+			final int slack = Record.slack(sizes[i]);
+			if (slack > 0) {
+				buffers.add(ByteBuffer.wrap(Record.zeros(slack), 0, slack));
+			}
+		}
+		
+		final long started = stats.time();
+		final long written = file.append(buffers.toArray(new ByteBuffer[buffers.size()]));
+		stats.wrote(position - start, started);
+		if (written != start) {
+			throw new IOException("addAll: backing file changed during the write");
+		}
+		
+		final long stamp = indexLock.writeLock();
+		try {
+			for (int i = 0; i < count; i++) {
+				index.add(index.size(), positions[i], sizes[i], batch.hashes[i]);
+			}
+		} finally {
+			indexLock.unlockWrite(stamp);
+		}
+		liveBytes += position - start;
+	}
+	
+	/**
+	 * retain only the items from the collection in this collection
+	 * 
+	 * @param coll items to keep
+	 * @return true if the collection was changed
+	 */
+	public boolean retainAll(Collection<?> coll) {
+		
+		boolean result = false;
+		
+		for (Iterator<E> iter = this.iterator(); iter.hasNext();) {
+			E item = iter.next();
+			if (!coll.contains(item)) {
+				iter.remove();
+				result = true;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Return true if this collections contains all of the objects in the argument
+	 * 
+	 * @param coll collection to compare to
+	 * @return true if this collection contains all items in the argument
+	 */
+	public boolean containsAll(Collection<?> coll) {
+		
+		for (Object o : coll) {
+			if (!contains(o)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+/**
+ * Remove all objects in the collection from this collection.
+ * 
+ * @param col collection to remove
+ * @return true if any object was removed
+ */
+	public boolean removeAll(Collection<?> col) {
+		boolean result = false;
+		
+		for (Object o : col) {
+			result |= remove(o);
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Hashcode for this collection object
+	 * compute hashcode without having to read each object file
+	 * since the hashcodes are stored in the object
+	 * 
+	 * @return integer hashcode for collection
+	 */
+    public int hashCode() {
+        return index.hashCode();
+    }
+  
+    
+    /**
+     * implement equals
+     * 
+     * @param Object o object to compare to
+     * @return true if this collection has the same elements as the argument
+     */
+    public boolean equals(Object o) {
+    	
+    	if (o == this) {
+    		return true;
+    	}
+    	if (!(o instanceof List)) {
+    		return false;
+    	}
+    	final List<?> other = (List<?>) o;
+    	if (other.size() != size()) {
+    		return false;
+    	}
+    	if (o instanceof FileBackedArrayList && o.hashCode() != hashCode()) {
+    		// the hashes are in the indexes, so this is checked without reading 
+    		return false;
+    	}
+    	
+    	// here if he the sizes and hashcodes are equal, so the objects are probably equal
+    	// but we check each object, reading both in sequence.
+    	final Iterator<E> mine = iterator();
+    	final Iterator<?> theirs = other.iterator();
+    	while (mine.hasNext() && theirs.hasNext()) {
+    		if (!Objects.equals(mine.next(), theirs.next())) {
+    			return false;
+    		}
+    	}
+    	return !(mine.hasNext() || theirs.hasNext());
+    }
+    
+    private String outOfBoundsMsg(int index) {
+        return "Out of bounds Index: "+index+", Size: "+size();
+    }
+    
+    /*
+     * (non-Javadoc)
+     * try to clean up file if trash-collected. Windows has bugs affecting
+     * deleting temporary files
+     * 
+     * @see java.lang.Object#finalize()
+     */
+    protected void finalize() {
+    	
+    	if (index != null) index.clear();
+    	if (file != null) {
+    		try {
+    			file.close();
+    		} catch (IOException e) {
+    			// nothing to do while being collected
+    		}
+    	}
+    	if (temporary && tempFile != null && tempFile.exists()) {
+    		tempFile.delete();
+    	}
+    }
+
+	/**
+	 * iterators read runs of records that are next to each other in the file 
+	 * with one large read. With prefetch the next run is read on a background 
+	 * thread while the caller works on the current one.
+	 * 
+	 * @param prefetch true to read ahead in the background
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+	
+	@Override
+	public Iterator<E> iterator() {
+		Iterator<E> iter = new Iterator<E>() {
+			
+			private int index = 0;
+			private int lastReturned = -1;
+			private final RunReader reader = new RunReader(prefetch, Integer.MAX_VALUE);
+
+			@Override
+			public boolean hasNext() {
+				return index < size();
+			}
+
+			@Override
+			public E next() {
+				if (index >= size()) {
+					throw new NoSuchElementException();
+				}
+				lastReturned = index;
+				E result = reader.get(index++);
+				return result;
+			}
+			
+			@Override
+			public void remove() {
+				if (lastReturned < 0) {
+					throw new IllegalStateException();
+				}
+				FileBackedArrayList.this.remove(lastReturned);
+				index = lastReturned;
+				lastReturned = -1;
+			}
+			
+		};
+		
+		return iter;
+	}
+	
+	/**
+	 * spliterator over ranges of the index. Splits divide the range where the
+	 * records divide the file in half if the records are in order in the file,
+	 * and each split reads its own runs of records, so a parallel stream reads 
+	 * the file with all of its threads.
+	 * 
+	 * @return Spliterator over the items
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		return new RecordSpliterator(0, size());
+	}
+	
+	@Override
+	public void forEach(Consumer<? super E> action) {
+		
+		for (E item : this) {
+			action.accept(item);
+		}
+	}
+	
+	private final class RecordSpliterator implements Spliterator<E> {
+		
+		/**
+		 * smallest range that is split
+		 */
+		private static final int MIN_SPLIT = 1024;
+		
+		private int from;
+		private final int to;
+		private RunReader reader = null;
+		
+		RecordSpliterator(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super E> action) {
+			
+			if (from >= to) {
+				return false;
+			}
+			action.accept(reader().get(from++));
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super E> action) {
+			
+			final RunReader runs = reader();
+			while (from < to) {
+				action.accept(runs.get(from++));
+			}
+		}
+		
+		@Override
+		public Spliterator<E> trySplit() {
+			
+			if (to - from < MIN_SPLIT || reader != null) {
+				return null;
+			}
+			final int split = splitPoint();
+			final Spliterator<E> prefix = new RecordSpliterator(from, split);
+			from = split;
+			return prefix;
+		}
+		
+		/**
+		 * find the index where the records of the range divide the file 
+		 * in half, or the middle of the range if the records are not in order
+		 */
+		private int splitPoint() {
+			
+			final int middle = (from + to) >>> 1;
+			final long first = index.getPosition(from);
+			final long last = index.getPosition(to - 1);
+			if (last <= first) {
+				return middle;
+			}
+			
+			final long half = first + (last - first) / 2;
+			int low = from + 1;
+			int high = to - 1;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (index.getPosition(mid) < half) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			// stay near the middle, so one split is not much larger than the other
+			return Math.max(from + (to - from) / 4, Math.min(low, to - (to - from) / 4));
+		}
+		
+		@Override
+		public long estimateSize() {
+			return to - from;
+		}
+		
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+		
+		private RunReader reader() {
+			
+			if (reader == null) {
+				reader = new RunReader(false, to);
+			}
+			return reader;
+		}
+	}
+	
+	/**
+	 * reads items for a sequential scan. Records that are next to each other in 
+	 * the file, as items added in order are, are read as one run of up to
+	 * READ_AHEAD_SIZE bytes, and the items are decoded from the run. A run 
+	 * is not used after records are moved in the file.
+	 */
+	private final class RunReader {
+		
+		private final boolean background;
+		private final int limit; // runs do not go past this index
+		private byte[] run = null;
+		private long runStart = 0;
+		private long runRelocations = 0; // relocation count when the run was read
+		
+		// the run after the current one, being read in the background
+		private Future<byte[]> next = null;
+		private long nextStart = 0;
+		private int nextEnd = 0;
+		private long nextRelocations = 0;
+		private int runBytes = 0; // length of the run found by runEnd
+		
+		RunReader(boolean background, int limit) {
+			this.background = background;
+			this.limit = limit;
+		}
+		
+		private int end() {
+			return Math.min(limit, size());
+		}
+		
+		/**
+		 * get the item at an index, reading a new run if it is not in the current one
+		 * 
+		 * @param indx integer index
+		 * @return E item at that index
+		 */
+		E get(int indx) {
+			
+			try {
+				final long stamp = recordLock.tryOptimisticRead();
+				if (stamp != 0) {
+					final Location at = locate(indx);
+					if (at.size == Index.NULL_SIZE) {
+						return null;
+					}
+					try {
+						if (!covers(at.position, at.size)) {
+							load(indx, at);
+						}
+					} catch (IOException e) {
+						if (recordLock.validate(stamp)) {
+							throw e;
+						}
+					}
+					if (recordLock.validate(stamp)) {
+						return decode(cipher, run, (int) (at.position - runStart), at.size);
+					}
+				}
+				
+				// records were moved while the run was read
+				final long locked = recordLock.readLock();
+				try {
+					final Location at = locate(indx);
+					if (at.size == Index.NULL_SIZE) {
+						return null;
+					}
+					run = null;
+					load(indx, at);
+					return decode(cipher, run, (int) (at.position - runStart), at.size);
+				} finally {
+					recordLock.unlockRead(locked);
+				}
+				
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return null;
+		}
+		
+		/**
+		 * check if the current run holds a record, and was read after the 
+		 * last time records were moved
+		 */
+		private boolean covers(long position, int size) {
+			
+			return run != null && runRelocations == relocations 
+					&& position >= runStart && position + Record.length(size) <= runStart + run.length;
+		}
+		
+		/**
+		 * make the run starting with the record at an index the current run
+		 */
+		private void load(int indx, Location at) throws IOException, InterruptedException, ExecutionException {
+			
+			final long moves = relocations;
+			final int end;
+			if (next != null && nextStart == at.position && nextRelocations == moves) {
+				run = next.get();
+				end = nextEnd;
+			} else {
+				if (next != null) {
+					next.cancel(false);
+				}
+				end = runEnd(indx, at);
+				run = readRun(at.position, runBytes);
+			}
+			runStart = at.position;
+			runRelocations = moves;
+			next = null;
+			
+			if (background && end < end()) {
+				final Location following;
+				try {
+					following = locate(end);
+				} catch (IndexOutOfBoundsException e) {
+					return; // items were removed, the next run is read when it is needed
+				}
+				nextStart = following.position;
+				nextEnd = runEnd(end, following);
+				nextRelocations = moves;
+				final int length = runBytes;
+				final long start = nextStart;
+				next = IoThreads.executor().submit(() -> readRun(start, length));
+			}
+		}
+		
+		/**
+		 * find the index after the last record of the run starting with the record
+		 * of index 'first', and the length of the run in runBytes. The index is read
+		 * with an optimistic read of the index lock, and read again with the read 
+		 * lock if it was changed at the same time, like locate does.
+		 */
+		private int runEnd(int first, Location at) {
+			
+			long stamp = indexLock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					final int result = scanRun(first, at);
+					if (indexLock.validate(stamp)) {
+						return result;
+					}
+				} catch (IndexOutOfBoundsException e) {
+					// the index arrays were replaced while they were read
+				}
+			}
+			
+			stamp = indexLock.readLock();
+			try {
+				return scanRun(first, at);
+			} finally {
+				indexLock.unlockRead(stamp);
+			}
+		}
+		
+		/**
+		 * one pass over the index for runEnd, finding the end of the run and its length
+		 */
+		private int scanRun(int first, Location at) {
+			
+			final int count = end();
+			final long start = at.position;
+			long end = start + Record.length(at.size);
+			final long limit = start + READ_AHEAD_SIZE;
+			int i = first + 1;
+			for (; i < count; i++) {
+				final int size = index.getSize(i);
+				if (index.getPosition(i) != end || end + Record.length(size) > limit) {
+					break;
+				}
+				end += Record.length(size);
+			}
+			runBytes = (int) (end - start);
+			return i;
+		}
+		
+		private byte[] readRun(long position, int length) throws IOException {
+			
+			final byte[] bytes = new byte[length];
+			final long started = stats.time();
+			file.read(position, bytes, 0, length);
+			stats.read(length, started);
+			return bytes;
+		}
+	}
+	
+	
+	
 }
\ No newline at end of file
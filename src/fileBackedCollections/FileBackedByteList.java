@@ -0,0 +1,64 @@
+package fileBackedCollections;
+/**
+ * a list of byte arrays kept in a file as they are, for blobs that are passed
+ * on without being looked at. By default the file is memory mapped and the
+ * records are not protected, so getBuffer returns a read only view of the mapped
+ * file with no copy, and add(ByteBuffer) writes straight from the buffer of the
+ * caller, with no array made on the heap either way.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class FileBackedByteList extends FileBackedArrayList<byte[]> {
+
+	private static final long serialVersionUID = 6121302472716011187L;
+
+	/**
+	 * create a list in a memory mapped temporary file, with the records not protected
+	 */
+	public FileBackedByteList() {
+		this(StorageType.MEMORY_MAPPED, Protection.NONE);
+	}
+
+	/**
+	 * create a list in a temporary file, using the given kind of storage engine
+	 * and protection for the records. The arrays are only read with no copy from
+	 * a memory mapped file with no protection.
+	 *
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 */
+	public FileBackedByteList(StorageType storageType, Protection protection) {
+		super(Codecs.BYTES, storageType, protection);
+	}
+
+	/**
+	 * open a list stored in a named file, which is kept when the list is closed
+	 *
+	 * @param file backing file
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 * @throws IOException if the file has protected records but no checkpoint with
+	 * their key, the checkpoint is for other protection, or the file can not be opened
+	 */
+	public FileBackedByteList(File file, StorageType storageType, Protection protection) throws IOException {
+		super(file, Codecs.BYTES, storageType, protection);
+	}
+
+	/**
+	 * add the bytes remaining in a buffer as an array after the last one, written
+	 * to the file straight from the buffer. The position of the buffer is not changed.
+	 *
+	 * @param bytes buffer holding the array from its position to its limit
+	 * @return true
+	 */
+	public boolean add(ByteBuffer bytes) {
+
+		addBytes(bytes, 0);
+		return true;
+	}
+}
@@ -0,0 +1,122 @@
+package fileBackedCollections;
+/**
+ * a list of doubles kept in a file. Each element takes 8 bytes of the file, the
+ * bits of the double at 8 times its index after a header, so there is nothing in
+ * memory for each element, and a list of a billion doubles uses no more memory
+ * than an empty one. The values are read and written unboxed with getDouble and
+ * setDouble, in bulk with get(double[], int), or as a DoubleStream, and straight
+ * from the mapped memory when the file is memory mapped.
+ *
+ * The values are stored as they are, with no protection. Inserting or removing
+ * an element before the end moves the elements after it in the file.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+public class FileBackedDoubleList extends FixedWidthList<Double> {
+
+	/**
+	 * create a list in a memory mapped temporary file
+	 */
+	public FileBackedDoubleList() {
+		this(StorageType.MEMORY_MAPPED);
+	}
+
+	/**
+	 * create a list in a temporary file, using the given kind of storage engine
+	 *
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedDoubleList(StorageType storageType) {
+		super(Double.BYTES, storageType);
+	}
+
+	/**
+	 * open a list stored in a named file, which is kept when the list is closed.
+	 * The file holds the count of the elements in a header, written with each
+	 * change to a memory mapped file, and otherwise when the list is changed
+	 * other than by adding to the end, flushed or closed.
+	 *
+	 * @param file backing file
+	 * @param storageType storage engine to use
+	 * @throws IOException if the file can not be opened, is not a file of doubles,
+	 * or is shorter than its count
+	 */
+	public FileBackedDoubleList(File file, StorageType storageType) throws IOException {
+		super(file, Double.BYTES, storageType);
+	}
+
+	/**
+	 * read an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @return double value of the element
+	 */
+	public double getDouble(int index) {
+		return Double.longBitsToDouble(readLong(index));
+	}
+
+	/**
+	 * replace an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @param value new value of the element
+	 */
+	public void setDouble(int index, double value) {
+		write(index, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * add an element to the end without boxing it
+	 *
+	 * @param value value of the element
+	 */
+	public void addDouble(double value) {
+		append(Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * add elements to the end of the list
+	 *
+	 * @param values values of the elements, in order
+	 */
+	public void addAll(double[] values) {
+		appendAll(values.length, (buffer, from, count) -> buffer.asDoubleBuffer().put(values, from, count));
+	}
+
+	/**
+	 * read consecutive elements into an array
+	 *
+	 * @param dst array to fill, its length is the number of elements read
+	 * @param from index of the first element to read
+	 */
+	public void get(double[] dst, int from) {
+		read(from, dst.length, (block, done) -> block.asDoubleBuffer().get(dst, done, block.remaining() / Double.BYTES));
+	}
+
+	/**
+	 * a stream of the elements, read from the file as the stream is consumed. The
+	 * stream splits by index, so it can be read in parallel.
+	 *
+	 * @return DoubleStream of the elements
+	 */
+	public DoubleStream doubleStream() {
+		return IntStream.range(0, size()).mapToDouble(this::getDouble);
+	}
+
+	@Override
+	public Double get(int index) {
+		return getDouble(index);
+	}
+
+	@Override
+	long bits(Double element) {
+		final double value = element;
+		return Double.doubleToRawLongBits(value);
+	}
+}
@@ -1,158 +1,841 @@
-package fileBackedCollections;
-/**
- *  FileBackedHashMap replaces an HashMap with a method that allows
- *  storing a larger collection than can hold in memory.
- *  
- *  Matthew Clark  2021
- * 
- * 
- */
-
-import java.io.Serializable;
-import java.util.AbstractMap;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
-
-public class FileBackedHashMap<K,V extends Serializable> extends HashMap<K, V> 
- implements Serializable {
-
-	/**
-	 * serial version id
-	 */
-	private static final long serialVersionUID = -5655605924486711518L;
-	/**
-	 *  the index is held in memory, while the data is stored
-	 * in the FileBackedAbstractList. This hashmap stores the connection
-	 * between the key and which index of the file backed array it 
-	 * corresponds to.
-	*/
-	private HashMap<K, Integer> index = new HashMap<K, Integer>();
-	
-	// store for the values of the hash map, the index of the hash entries
-	// is stored as the value in the "index" hashmap.
-	private FileBackedArrayList<V> storage = new FileBackedArrayList<V>();
-	/**
-	 * hashmaps can store items with a null key.  this is a special case
-	 * bucket
-	 */
-	V nullValue = null;  // value for null key.
-	/**
-	 * put item into hashmap.  either replace an existing value or
-	 * add a new value for the key
-	 * 
-	 * @Param key K key for hash
-	 * @param value V object for item.
-	 * 
-	 */
-	public V put(K key, V value) {
-		
-		if (key == null) {   // special case store in the special bucket
-			nullValue = value;
-			
-		} else if (index.containsKey(key)) {
-			int storageIndex = index.get(key);
-			storage.set(storageIndex, value);
-			
-		} else {
-			int storageIndex = storage.size(); // last array index
-			index.put(key, storageIndex);
-			storage.add(storageIndex, value);
-		}
-
-		return value;
-	}
-
-	/**
-	 * get object from hashmap
-	 * 
-	 * @param Object key - key for hashmap
-	 * @return V object from hashmap
-	 */
-	public V get(Object key) {
-		
-		if (key == null) return nullValue; // get from special bucket
-		
-		final Integer oid = index.get(key);
-		if (oid == null) {
-			return null;
-		}
-		return (V) storage.get(oid);
-	}
-	
-	/**
-	 * check existence of this key
-	 * @param key Object key to check
-	 * @return boolean true if the object is in the map
-	 */
-	public boolean containsKey(Object key) {
-		return index.containsKey(key);
-		
-	}
-	
-	/**
-	 * check existence of value in the map, for any key
-	 * the value may be under multiple keys.
-	 * 
-	 * @param value  value to check for
-	 * @return true if the value is in the map
-	 */
-	public boolean containsValue(Object value) {
-		return storage.contains(value);
-	}
-	
-	/**
-	 * This returns a file backed set of the values of the hashmap.
-	 * 
-	 */
-	public Set<V> values() {
-
-		final FileBackedSet<V> result = new FileBackedSet<V>();
-		for (V value : storage) {
-			result.add(value);
-		}
-		return result;
-	}
-	
-	/**
-	 * @override
-	 * returns the keyset for this hashmap
-	 * @return set of keys
-	 */
-	public Set<K> keySet() {
-		return index.keySet();
-	}
-	
-	
-	public Set<java.util.Map.Entry<K, V>> entrySet() {
-		
-		HashSet<Entry<K,V>> result = new HashSet<Entry<K,V>>();
-		for (K key : index.keySet()) {
-			Entry<K,V> map = new AbstractMap.SimpleEntry<K, V>(key, get(key));
-			result.add(map);
-		}
-		return result;
-	}
-	
- 	public void putAll(Map<? extends K,? extends V> m) {
- 		for (java.util.Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
- 			put(entry.getKey(), entry.getValue());
- 		}
- 	}
- 	
- 	public V remove(Object key) {
- 		V result = get(key);
- 		index.remove(key);
- 		return result;
- 	}
- 	
- 	/**
- 	 * return length of storage file
- 	 * @return long file size
- 	 */
- 	public long fileSize() {
- 		return storage.fileSize();
- 	}
- }
+package fileBackedCollections;
+/**
+ *  FileBackedHashMap replaces an HashMap with a method that allows
+ *  storing a larger collection than can hold in memory.
+ *  
+ *  Matthew Clark  2021
+ * 
+ * 
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+
+public class FileBackedHashMap<K,V extends Serializable> extends HashMap<K, V> 
+ implements Serializable, Closeable {
+
+	/**
+	 * serial version id
+	 */
+	private static final long serialVersionUID = -5655605924486711518L;
+	/**
+	 *  the keys are held in a file of hash pages, and the values are stored
+	 * in the FileBackedArrayList. The key index stores the connection
+	 * between the key and which index of the file backed array it 
+	 * corresponds to. Only the directory of the pages is held in memory.
+	*/
+	private KeyIndex<K> index;
+	
+	// store for the values of the hash map, the index of the hash entries
+	// is stored with the key in the "index".
+	private FileBackedArrayList<V> storage;
+	
+	// indexes of the storage left by removed keys, used again by new keys
+	private final BitSet freeSlots = new BitSet();
+	
+	// puts made with putAsync, run in order
+	private final transient AsyncWrites asyncWrites = new AsyncWrites();
+	
+	// held by put, putAll, remove and clear, so a put made with putAsync on an
+	// I/O thread does not take the same free index as a change made by the caller
+	private final transient ReentrantLock changeLock = new ReentrantLock();
+	
+	/**
+	 * hashmaps can store items with a null key.  this is a special case
+	 * bucket
+	 */
+	V nullValue = null;  // value for null key.
+	boolean hasNullKey = false;
+	
+	/**
+	 * number of keys forEach reads before reading their values
+	 */
+	private static final int FOREACH_BATCH = 4096;
+	
+	public FileBackedHashMap() {
+		this(StorageType.RANDOM_ACCESS);
+	}
+	
+	/**
+	 * create a map using the given kind of storage engine for the backing file
+	 * 
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedHashMap(StorageType storageType) {
+		this(Codecs.<V>generic(), storageType);
+	}
+	
+	/**
+	 * create a map storing the values with a codec
+	 * 
+	 * @param valueCodec converts the values to and from bytes
+	 */
+	public FileBackedHashMap(Codec<V> valueCodec) {
+		this(valueCodec, StorageType.RANDOM_ACCESS);
+	}
+	
+	/**
+	 * create a map storing the values with a codec, using the given kind of
+	 * storage engine for the backing file
+	 * 
+	 * @param valueCodec converts the values to and from bytes
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedHashMap(Codec<V> valueCodec, StorageType storageType) {
+		this(valueCodec, storageType, Protection.AES);
+	}
+	
+	/**
+	 * create a map storing the values with a codec, using the given kind of
+	 * storage engine for the backing file and protection for the records
+	 * 
+	 * @param valueCodec converts the values to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 */
+	public FileBackedHashMap(Codec<V> valueCodec, StorageType storageType, Protection protection) {
+		this(defaultKeyCodec(), valueCodec, storageType, protection);
+	}
+	
+	/**
+	 * create a map storing the keys and the values with codecs. Keys are 
+	 * compared by their bytes, and with equals when two keys with the same
+	 * hash are encoded differently.
+	 * 
+	 * @param keyCodec converts the keys to and from bytes
+	 * @param valueCodec converts the values to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 */
+	public FileBackedHashMap(Codec<K> keyCodec, Codec<V> valueCodec, StorageType storageType, Protection protection) {
+		
+		storage = new FileBackedArrayList<V>(valueCodec, storageType, protection);
+		try {
+			index = new KeyIndex<K>(keyCodec, storageType, protection, storage.getStats());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * keys are encoded like the values when there is no codec for them, so
+	 * they must be Serializable
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K> Codec<K> defaultKeyCodec() {
+		return (Codec<K>) (Codec<?>) Codecs.<Serializable>generic();
+	}
+	
+	/**
+	 * put item into hashmap.  either replace an existing value or
+	 * add a new value for the key
+	 * 
+	 * @Param key K key for hash
+	 * @param value V object for item.
+	 * 
+	 */
+	public V put(K key, V value) {
+		
+		changeLock.lock();
+		try {
+			if (key == null) {   // special case store in the special bucket
+				nullValue = value;
+				hasNullKey = true;
+				return value;
+			}
+			
+			final AddEvent event = new AddEvent();
+			event.begin();
+			// a new key takes a removed key's index, or the next array index
+			final int free = freeSlots.nextSetBit(0);
+			final int storageIndex = free >= 0 ? free : storage.size();
+			try {
+				final int existing = index.putIfAbsent(key, storageIndex);
+				if (existing != -1) {
+					storage.set(existing, value);
+				} else if (free >= 0) {
+					freeSlots.clear(free);
+					storage.set(storageIndex, value);
+				} else {
+					storage.add(value);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			
+			event.end();
+			if (event.shouldCommit()) {
+				event.collection = getClass().getSimpleName();
+				event.count = 1;
+				event.commit();
+			}
+			return value;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+
+	/**
+	 * get object from hashmap
+	 * 
+	 * @param Object key - key for hashmap
+	 * @return V object from hashmap
+	 */
+	public V get(Object key) {
+		
+		if (key == null) return nullValue; // get from special bucket
+		
+		final GetEvent event = new GetEvent();
+		event.begin();
+		final int oid = slotOf(key);
+		final V result = oid == -1 ? null : (V) storage.get(oid);
+		event.end();
+		if (event.shouldCommit()) {
+			event.collection = getClass().getSimpleName();
+			event.index = oid;
+			event.commit();
+		}
+		return result;
+	}
+	
+	/**
+	 * index of the value of a key in the storage
+	 * 
+	 * @return int index, or -1 if the key is not in the map
+	 */
+	private int slotOf(Object key) {
+		
+		try {
+			return index.get(key);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+	
+	/**
+	 * check existence of this key
+	 * @param key Object key to check
+	 * @return boolean true if the object is in the map
+	 */
+	public boolean containsKey(Object key) {
+		return key == null ? hasNullKey : slotOf(key) != -1;
+		
+	}
+	
+	/**
+	 * number of keys in the map
+	 * 
+	 * @return int count
+	 */
+	public int size() {
+		return index.size() + (hasNullKey ? 1 : 0);
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	/**
+	 * check existence of value in the map, for any key
+	 * the value may be under multiple keys.
+	 * 
+	 * @param value  value to check for
+	 * @return true if the value is in the map
+	 */
+	public boolean containsValue(Object value) {
+		
+		if (hasNullKey && (value == null ? nullValue == null : value.equals(nullValue))) {
+			return true;
+		}
+		if (value != null) {
+			// indexes of removed keys hold null
+			return storage.contains(value);
+		}
+		for (V item : values()) {
+			if (item == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * returns a view of the values of the hashmap. Its iterator reads the 
+	 * storage in the order of the file and decodes each value as it is
+	 * returned, so iterating the values holds only one value in memory.
+	 * Values can not be removed through the iterator, as their keys are
+	 * not known.
+	 * 
+	 */
+	public Collection<V> values() {
+		
+		return new AbstractCollection<V>() {
+			
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+			
+			@Override
+			public int size() {
+				return FileBackedHashMap.this.size();
+			}
+			
+			@Override
+			public boolean contains(Object o) {
+				return containsValue(o);
+			}
+			
+			@Override
+			public void clear() {
+				FileBackedHashMap.this.clear();
+			}
+		};
+	}
+	
+	/**
+	 * @override
+	 * returns a view of the keys of this hashmap. Its iterator reads the key
+	 * index a page at a time.
+	 * @return set of keys
+	 */
+	public Set<K> keySet() {
+		
+		return new AbstractSet<K>() {
+			
+			@Override
+			public Iterator<K> iterator() {
+				
+				return new KeyIterator<K>() {
+					@Override
+					K element(K key, int slot) {
+						return key;
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return FileBackedHashMap.this.size();
+			}
+			
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+			
+			@Override
+			public boolean remove(Object o) {
+				
+				if (!containsKey(o)) {
+					return false;
+				}
+				FileBackedHashMap.this.remove(o);
+				return true;
+			}
+			
+			@Override
+			public void clear() {
+				FileBackedHashMap.this.clear();
+			}
+		};
+	}
+	
+	/**
+	 * returns a view of the entries of this hashmap. The value of an entry is
+	 * read from the storage when it is asked for.
+	 * @return set of entries
+	 */
+	public Set<java.util.Map.Entry<K, V>> entrySet() {
+		
+		return new AbstractSet<Entry<K, V>>() {
+			
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				
+				return new KeyIterator<Entry<K, V>>() {
+					@Override
+					Entry<K, V> element(K key, int slot) {
+						return new LazyEntry(key, slot);
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return FileBackedHashMap.this.size();
+			}
+			
+			@Override
+			public boolean contains(Object o) {
+				
+				if (!(o instanceof Map.Entry)) {
+					return false;
+				}
+				final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+				return containsKey(entry.getKey()) && Objects.equals(get(entry.getKey()), entry.getValue());
+			}
+			
+			@Override
+			public boolean remove(Object o) {
+				
+				if (!contains(o)) {
+					return false;
+				}
+				FileBackedHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+				return true;
+			}
+			
+			@Override
+			public void clear() {
+				FileBackedHashMap.this.clear();
+			}
+		};
+	}
+	
+	/**
+	 * call an action with each key and its value. The keys are read from the
+	 * key index in batches, and the values of each batch are read in the order
+	 * of the storage, so only a batch of keys is held in memory.
+	 * 
+	 * @param action called with each key and value
+	 */
+	@Override
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		
+		if (hasNullKey) {
+			action.accept(null, nullValue);
+		}
+		try {
+			final KeyIndex<K>.Cursor cursor = index.cursor();
+			final ArrayList<K> keys = new ArrayList<K>();
+			final long[] batch = new long[FOREACH_BATCH]; // storage index, and the key
+			boolean more = true;
+			while (more) {
+				keys.clear();
+				int count = 0;
+				while (count < FOREACH_BATCH && (more = cursor.next())) {
+					batch[count] = (long) cursor.slot() << 32 | count;
+					keys.add(cursor.key());
+					count++;
+				}
+				Arrays.sort(batch, 0, count);
+				for (int i = 0; i < count; i++) {
+					action.accept(keys.get((int) batch[i]), storage.get((int) (batch[i] >>> 32)));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * iterates the keys from the key index, the null key first
+	 */
+	private abstract class KeyIterator<T> implements Iterator<T> {
+		
+		private final KeyIndex<K>.Cursor cursor = index.cursor();
+		private boolean nullKey = hasNullKey;
+		private boolean ready = false;
+		private boolean more = false;
+		private boolean removable = false;
+		private K last = null;
+		
+		/**
+		 * element returned for a key
+		 * 
+		 * @param key key
+		 * @param slot index of the value in the storage, -1 for the null key
+		 */
+		abstract T element(K key, int slot);
+		
+		@Override
+		public boolean hasNext() {
+			
+			if (nullKey) {
+				return true;
+			}
+			if (!ready) {
+				try {
+					more = cursor.next();
+				} catch (IOException e) {
+					e.printStackTrace();
+					more = false;
+				}
+				ready = true;
+			}
+			return more;
+		}
+		
+		@Override
+		public T next() {
+			
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			removable = true;
+			if (nullKey) {
+				nullKey = false;
+				last = null;
+				return element(null, -1);
+			}
+			ready = false;
+			last = cursor.key();
+			return element(last, cursor.slot());
+		}
+		
+		@Override
+		public void remove() {
+			
+			if (!removable) {
+				throw new IllegalStateException();
+			}
+			removable = false;
+			FileBackedHashMap.this.remove(last);
+		}
+	}
+	
+	/**
+	 * iterates the values in the order of the storage, skipping the indexes
+	 * of removed keys
+	 */
+	private final class ValueIterator implements Iterator<V> {
+		
+		private final Iterator<V> values = storage.iterator();
+		private int position = 0; // storage index of the next value
+		private boolean nullKey = hasNullKey;
+		private boolean ready = false;
+		private V value = null;
+		
+		@Override
+		public boolean hasNext() {
+			
+			if (nullKey) {
+				return true;
+			}
+			while (!ready && values.hasNext()) {
+				final V item = values.next();
+				if (!freeSlots.get(position++)) {
+					value = item;
+					ready = true;
+				}
+			}
+			return ready;
+		}
+		
+		@Override
+		public V next() {
+			
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (nullKey) {
+				nullKey = false;
+				return nullValue;
+			}
+			ready = false;
+			return value;
+		}
+	}
+	
+	/**
+	 * entry whose value is read when it is first asked for
+	 */
+	private final class LazyEntry implements Map.Entry<K, V> {
+		
+		private final K key;
+		private final int slot;
+		private boolean read = false;
+		private V value = null;
+		
+		LazyEntry(K key, int slot) {
+			this.key = key;
+			this.slot = slot;
+		}
+		
+		@Override
+		public K getKey() {
+			return key;
+		}
+		
+		@Override
+		public V getValue() {
+			
+			if (!read) {
+				value = slot < 0 ? nullValue : storage.get(slot);
+				read = true;
+			}
+			return value;
+		}
+		
+		@Override
+		public V setValue(V newValue) {
+			
+			final V old = getValue();
+			put(key, newValue);
+			value = newValue;
+			return old;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return Objects.equals(key, entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+		}
+		
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+	
+ 	/**
+ 	 * put all the entries of the argument into this map. The values for new keys are 
+ 	 * added to the storage together, so they are serialized in parallel.
+ 	 * 
+ 	 * @param m map to copy
+ 	 */
+ 	public void putAll(Map<? extends K,? extends V> m) {
+ 		
+ 		changeLock.lock();
+ 		try {
+ 			final ArrayList<V> newValues = new ArrayList<V>();
+ 			final int first = storage.size();
+ 			try {
+ 				for (java.util.Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+ 					final K key = entry.getKey();
+ 					if (key == null || !freeSlots.isEmpty()) {
+ 						put(key, entry.getValue());
+ 						continue;
+ 					}
+ 					final int existing = index.putIfAbsent(key, first + newValues.size());
+ 					if (existing != -1) {
+ 						storage.set(existing, entry.getValue());
+ 					} else {
+ 						newValues.add(entry.getValue());
+ 					}
+ 				}
+ 			} catch (IOException e) {
+ 				e.printStackTrace();
+ 			}
+ 			storage.addAll(newValues);
+ 		} finally {
+ 			changeLock.unlock();
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * remove a key. The record of its value is released, and its index in
+ 	 * the storage is given to the next new key.
+ 	 * 
+ 	 * @param key key to remove
+ 	 * @return V value of the key, or null if it was not in the map
+ 	 */
+ 	public V remove(Object key) {
+ 		
+ 		changeLock.lock();
+ 		try {
+ 			if (key == null) {
+ 				final V result = nullValue;
+ 				nullValue = null;
+ 				hasNullKey = false;
+ 				return result;
+ 			}
+ 			final int slot = index.remove(key);
+ 			if (slot == -1) {
+ 				return null;
+ 			}
+ 			final V result = storage.set(slot, null);
+ 			freeSlots.set(slot);
+ 			return result;
+ 		} catch (IOException e) {
+ 			e.printStackTrace();
+ 			return null;
+ 		} finally {
+ 			changeLock.unlock();
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * remove all the keys and values
+ 	 */
+ 	public void clear() {
+ 		
+ 		changeLock.lock();
+ 		try {
+ 			try {
+ 				index.clear();
+ 			} catch (IOException e) {
+ 				e.printStackTrace();
+ 			}
+ 			storage.clear();
+ 			freeSlots.clear();
+ 			nullValue = null;
+ 			hasNullKey = false;
+ 		} finally {
+ 			changeLock.unlock();
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * keep recently read pages of the key index in memory. A lookup reads one
+ 	 * page, so a map whose pages all fit in the cache reads only its values.
+ 	 * 
+ 	 * @param maxPages maximum number of 4 KB pages in the cache
+ 	 */
+ 	public void setKeyCache(int maxPages) {
+ 		index.setCache(maxPages);
+ 	}
+ 	
+ 	/**
+ 	 * close the map and delete its files. The map may not be used after it
+ 	 * is closed.
+ 	 * 
+ 	 * @throws IOException
+ 	 */
+ 	@Override
+ 	public void close() throws IOException {
+ 		
+ 		storage.close();
+ 		index.close();
+ 	}
+ 	
+ 	/**
+ 	 * get the value of a key on the I/O threads, without waiting for it
+ 	 * 
+ 	 * @param key key of the value
+ 	 * @return CompletableFuture completed with the value, or null if the key is not in the map
+ 	 */
+ 	public CompletableFuture<V> getAsync(Object key) {
+ 		return CompletableFuture.supplyAsync(() -> get(key), IoThreads.executor());
+ 	}
+ 	
+ 	/**
+ 	 * put a value without waiting for it to be written. The puts made with putAsync
+ 	 * run on the I/O threads one at a time, in the order they were made. They hold
+ 	 * the same lock as put and remove, so the caller may go on changing the map
+ 	 * without waiting; a put of the same key made before the future completes may
+ 	 * run before or after this one.
+ 	 * 
+ 	 * @param key key of the value
+ 	 * @param value value to store
+ 	 * @return CompletableFuture completed with the result of the put when it is made
+ 	 */
+ 	public CompletableFuture<V> putAsync(K key, V value) {
+ 		return asyncWrites.submit(CompletableFuture.completedFuture(null), ignored -> put(key, value));
+ 	}
+ 	
+ 	/**
+ 	 * the counters and timers of the map, for the values and the pages of keys
+ 	 * 
+ 	 * @return CollectionStats of the map, which can be registered as an MBean
+ 	 */
+ 	public CollectionStats getStats() {
+ 		return storage.getStats();
+ 	}
+ 	
+ 	/**
+ 	 * keep recently read values in memory, see FileBackedArrayList.setCache
+ 	 * 
+ 	 * @param maxEntries maximum number of values in the cache, 0 to disable the cache
+ 	 * @param maxBytes maximum total size of the records of the values in the cache
+ 	 */
+ 	public void setCache(int maxEntries, long maxBytes) {
+ 		storage.setCache(maxEntries, maxBytes);
+ 	}
+ 	
+ 	/**
+ 	 * number of reads served from the cache
+ 	 * 
+ 	 * @return long count of cache hits
+ 	 */
+ 	public long getCacheHits() {
+ 		return storage.getCacheHits();
+ 	}
+ 	
+ 	/**
+ 	 * number of reads that were not in the cache
+ 	 * 
+ 	 * @return long count of cache misses
+ 	 */
+ 	public long getCacheMisses() {
+ 		return storage.getCacheMisses();
+ 	}
+ 	
+ 	/**
+ 	 * write values that are still buffered in memory to the backing file
+ 	 */
+ 	public void flush() {
+ 		storage.flush();
+ 	}
+ 	
+ 	/**
+ 	 * return length of storage file
+ 	 * @return long file size
+ 	 */
+ 	public long fileSize() {
+ 		return storage.fileSize();
+ 	}
+ 	
+ 	/**
+ 	 * compact the storage file, reclaiming the space of replaced values
+ 	 */
+ 	public void compact() {
+ 		storage.compact();
+ 	}
+ 	
+ 	/**
+ 	 * compact the storage file in the background when replaced values use more 
+ 	 * than a fraction of it
+ 	 * 
+ 	 * @param garbageRatio fraction of the file, or 0 to only compact when compact is called
+ 	 */
+ 	public void setCompactionThreshold(double garbageRatio) {
+ 		storage.setCompactionThreshold(garbageRatio);
+ 	}
+ 	
+ 	/**
+ 	 * store the values compressed when they are at least a size
+ 	 * 
+ 	 * @param minSize size in bytes of the smallest serialized value to compress, 0 for none
+ 	 */
+ 	public void setCompression(int minSize) {
+ 		storage.setCompression(minSize);
+ 	}
+ 	
+ 	/**
+ 	 * bytes of the storage file used by replaced values
+ 	 * @return long count of bytes
+ 	 */
+ 	public long getDeadBytes() {
+ 		return storage.getDeadBytes();
+ 	}
+ }
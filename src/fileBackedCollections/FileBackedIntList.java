@@ -0,0 +1,121 @@
+package fileBackedCollections;
+/**
+ * a list of ints kept in a file. Each element takes 4 bytes of the file, at
+ * 4 times its index after a header, so there is nothing in memory for each
+ * element, and a list of a billion ints uses no more memory than an empty one.
+ * The values are read and written unboxed with getInt and setInt, in bulk with
+ * get(int[], int), or as an IntStream, and straight from the mapped memory when
+ * the file is memory mapped.
+ *
+ * The values are stored as they are, with no protection. Inserting or removing
+ * an element before the end moves the elements after it in the file.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+public class FileBackedIntList extends FixedWidthList<Integer> {
+
+	/**
+	 * create a list in a memory mapped temporary file
+	 */
+	public FileBackedIntList() {
+		this(StorageType.MEMORY_MAPPED);
+	}
+
+	/**
+	 * create a list in a temporary file, using the given kind of storage engine
+	 *
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedIntList(StorageType storageType) {
+		super(Integer.BYTES, storageType);
+	}
+
+	/**
+	 * open a list stored in a named file, which is kept when the list is closed.
+	 * The file holds the count of the elements in a header, written with each
+	 * change to a memory mapped file, and otherwise when the list is changed
+	 * other than by adding to the end, flushed or closed.
+	 *
+	 * @param file backing file
+	 * @param storageType storage engine to use
+	 * @throws IOException if the file can not be opened, is not a file of ints,
+	 * or is shorter than its count
+	 */
+	public FileBackedIntList(File file, StorageType storageType) throws IOException {
+		super(file, Integer.BYTES, storageType);
+	}
+
+	/**
+	 * read an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @return int value of the element
+	 */
+	public int getInt(int index) {
+		return readInt(index);
+	}
+
+	/**
+	 * replace an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @param value new value of the element
+	 */
+	public void setInt(int index, int value) {
+		write(index, value);
+	}
+
+	/**
+	 * add an element to the end without boxing it
+	 *
+	 * @param value value of the element
+	 */
+	public void addInt(int value) {
+		append(value);
+	}
+
+	/**
+	 * add elements to the end of the list
+	 *
+	 * @param values values of the elements, in order
+	 */
+	public void addAll(int[] values) {
+		appendAll(values.length, (buffer, from, count) -> buffer.asIntBuffer().put(values, from, count));
+	}
+
+	/**
+	 * read consecutive elements into an array
+	 *
+	 * @param dst array to fill, its length is the number of elements read
+	 * @param from index of the first element to read
+	 */
+	public void get(int[] dst, int from) {
+		read(from, dst.length, (block, done) -> block.asIntBuffer().get(dst, done, block.remaining() / Integer.BYTES));
+	}
+
+	/**
+	 * a stream of the elements, read from the file as the stream is consumed. The
+	 * stream splits by index, so it can be read in parallel.
+	 *
+	 * @return IntStream of the elements
+	 */
+	public IntStream intStream() {
+		return IntStream.range(0, size()).map(this::getInt);
+	}
+
+	@Override
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	@Override
+	long bits(Integer element) {
+		final int value = element;
+		return value;
+	}
+}
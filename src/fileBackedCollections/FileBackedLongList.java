@@ -0,0 +1,122 @@
+package fileBackedCollections;
+/**
+ * a list of longs kept in a file. Each element takes 8 bytes of the file, at
+ * 8 times its index after a header, so there is nothing in memory for each
+ * element, and a list of a billion longs uses no more memory than an empty one.
+ * The values are read and written unboxed with getLong and setLong, in bulk with
+ * get(long[], int), or as a LongStream, and straight from the mapped memory when
+ * the file is memory mapped.
+ *
+ * The values are stored as they are, with no protection. Inserting or removing
+ * an element before the end moves the elements after it in the file.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+public class FileBackedLongList extends FixedWidthList<Long> {
+
+	/**
+	 * create a list in a memory mapped temporary file
+	 */
+	public FileBackedLongList() {
+		this(StorageType.MEMORY_MAPPED);
+	}
+
+	/**
+	 * create a list in a temporary file, using the given kind of storage engine
+	 *
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedLongList(StorageType storageType) {
+		super(Long.BYTES, storageType);
+	}
+
+	/**
+	 * open a list stored in a named file, which is kept when the list is closed.
+	 * The file holds the count of the elements in a header, written with each
+	 * change to a memory mapped file, and otherwise when the list is changed
+	 * other than by adding to the end, flushed or closed.
+	 *
+	 * @param file backing file
+	 * @param storageType storage engine to use
+	 * @throws IOException if the file can not be opened, is not a file of longs,
+	 * or is shorter than its count
+	 */
+	public FileBackedLongList(File file, StorageType storageType) throws IOException {
+		super(file, Long.BYTES, storageType);
+	}
+
+	/**
+	 * read an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @return long value of the element
+	 */
+	public long getLong(int index) {
+		return readLong(index);
+	}
+
+	/**
+	 * replace an element without boxing it
+	 *
+	 * @param index index of the element
+	 * @param value new value of the element
+	 */
+	public void setLong(int index, long value) {
+		write(index, value);
+	}
+
+	/**
+	 * add an element to the end without boxing it
+	 *
+	 * @param value value of the element
+	 */
+	public void addLong(long value) {
+		append(value);
+	}
+
+	/**
+	 * add elements to the end of the list
+	 *
+	 * @param values values of the elements, in order
+	 */
+	public void addAll(long[] values) {
+		appendAll(values.length, (buffer, from, count) -> buffer.asLongBuffer().put(values, from, count));
+	}
+
+	/**
+	 * read consecutive elements into an array
+	 *
+	 * @param dst array to fill, its length is the number of elements read
+	 * @param from index of the first element to read
+	 */
+	public void get(long[] dst, int from) {
+		read(from, dst.length, (block, done) -> block.asLongBuffer().get(dst, done, block.remaining() / Long.BYTES));
+	}
+
+	/**
+	 * a stream of the elements, read from the file as the stream is consumed. The
+	 * stream splits by index, so it can be read in parallel.
+	 *
+	 * @return LongStream of the elements
+	 */
+	public LongStream longStream() {
+		return IntStream.range(0, size()).mapToLong(this::getLong);
+	}
+
+	@Override
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	@Override
+	long bits(Long element) {
+		final long value = element;
+		return value;
+	}
+}
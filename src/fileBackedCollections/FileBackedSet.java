@@ -1,29 +1,311 @@
-package fileBackedCollections;
-/**
- *  FileBackedSet replaces an Set with a method that allows
- *  storing a larger collection than can hold in memory.
- *  
- *  Matthew Clark  2021
- * 
- * 
- */
-
-import java.io.Serializable;
-import java.util.Set;
-
-public class FileBackedSet<E extends Serializable> extends FileBackedArrayList<E>
-	implements Set<E>, Serializable {
-
-	private static final long serialVersionUID = -6302000297128005981L;
-
-	/**
-	 * implement add function to check to insure that the item is unique
-	 */
-	public boolean add(E o)  {
-		if (contains(o)) {
-			return false;
-		}
-		
-		return super.add(o);
-	}
-}
\ No newline at end of file
+package fileBackedCollections;
+/**
+ *  FileBackedSet replaces an Set with a method that allows
+ *  storing a larger collection than can hold in memory.
+ *  
+ *  The slots holding the items are found with an in-memory hash table of the 
+ *  item hashes, so only items with the same hash as the argument are read
+ *  from the file by add, contains and remove.
+ *  
+ *  Matthew Clark  2021
+ * 
+ * 
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FileBackedSet<E extends Serializable> extends FileBackedArrayList<E>
+	implements Set<E>, Serializable {
+
+	private static final long serialVersionUID = -6302000297128005981L;
+	
+	// hash table from the item hash to the slots holding items with the hash
+	private SlotTable slots = new SlotTable();
+	
+	// held while the hash table is used, so an add made with addAsync on an
+	// I/O thread is checked and added as one step with the caller's changes
+	private final transient ReentrantLock changeLock = new ReentrantLock();
+
+	public FileBackedSet() {
+		super();
+	}
+	
+	/**
+	 * create a set using the given kind of storage engine for the backing file
+	 * 
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedSet(StorageType storageType) {
+		super(storageType);
+	}
+	
+	/**
+	 * create a set storing the items with a codec
+	 * 
+	 * @param codec converts the items to and from bytes
+	 */
+	public FileBackedSet(Codec<E> codec) {
+		super(codec);
+	}
+	
+	/**
+	 * create a set storing the items with a codec, using the given kind of
+	 * storage engine for the backing file
+	 * 
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 */
+	public FileBackedSet(Codec<E> codec, StorageType storageType) {
+		super(codec, storageType);
+	}
+	
+	/**
+	 * create a set storing the items with a codec, using the given kind of
+	 * storage engine for the backing file and protection for the records
+	 * 
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 */
+	public FileBackedSet(Codec<E> codec, StorageType storageType, Protection protection) {
+		super(codec, storageType, protection);
+	}
+	
+	/**
+	 * open a set stored in a named file, which is kept when the set is closed. 
+	 * If the file was checkpointed, the set is opened again from the checkpoint.
+	 * 
+	 * @param file backing file
+	 * @throws IOException if the file has records but no checkpoint, or can not be opened
+	 */
+	public FileBackedSet(File file) throws IOException {
+		this(file, Codecs.<E>generic(), StorageType.RANDOM_ACCESS, Protection.AES);
+	}
+	
+	/**
+	 * open a set stored in a named file, which is kept when the set is closed. 
+	 * If the file was checkpointed, the set is opened again from the checkpoint,
+	 * and the hash table is built from the hashes in the index.
+	 * 
+	 * @param file backing file
+	 * @param codec converts the items to and from bytes
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the file are protected
+	 * @throws IOException if the file has records but no checkpoint, or can not be opened
+	 */
+	public FileBackedSet(File file, Codec<E> codec, StorageType storageType, Protection protection) throws IOException {
+		super(file, codec, storageType, protection);
+		rebuildSlots();
+	}
+
+	/**
+	 * implement add function to check to insure that the item is unique
+	 */
+	public boolean add(E o)  {
+		
+		changeLock.lock();
+		try {
+			if (contains(o)) {
+				return false;
+			}
+			
+			super.add(size(), o);
+			slots.insert(Objects.hashCode(o), size() - 1);
+			return true;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * add an item without waiting for it, if it is not already in the set. The
+	 * item is checked and added on the I/O threads after the adds made with
+	 * addAsync before it.
+	 * 
+	 * @param item item to add
+	 * @return CompletableFuture completed when the item is in the set
+	 */
+	@Override
+	public CompletableFuture<Void> addAsync(E item) {
+		
+		return asyncWrites.submit(CompletableFuture.completedFuture(null), ignored -> {
+			add(item);
+			return null;
+		});
+	}
+	
+	/**
+	 * add the items that are not already in the set, one at a time
+	 * since each must be checked against the items before it.
+	 * 
+	 * @param coll collection to add
+	 * @return true if the set was changed
+	 */
+	public boolean addAll(Collection<? extends E> coll) {
+		
+		boolean result = false;
+		for (E item : coll) {
+			result |= add(item);
+		}
+		return result;
+	}
+	
+	/**
+	 * add the item at the specified index if it is not already in the set
+	 * 
+	 * @param indx integer index location
+	 * @param o item to add
+	 */
+	public void add(int indx, E o) {
+		
+		changeLock.lock();
+		try {
+			if (contains(o)) {
+				return;
+			}
+			
+			super.add(indx, o);
+			if (indx == size() - 1) {
+				slots.insert(Objects.hashCode(o), indx);
+			} else {
+				// the following items have moved
+				rebuildSlots();
+			}
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * replace the item at the index
+	 * 
+	 * @param indx integer index to set
+	 * @param item item to store
+	 * @return item replaced at the index location
+	 * @throws IllegalArgumentException if the item is in the set at another index
+	 */
+	public E set(int indx, E item) {
+		
+		changeLock.lock();
+		try {
+			final int at = indexOf(item);
+			if (at != -1 && at != indx) {
+				throw new IllegalArgumentException("set: item is already in the set at " + at);
+			}
+			
+			final int oldHash = hashAt(indx);
+			final E result = super.set(indx, item);
+			slots.remove(oldHash, indx);
+			slots.insert(Objects.hashCode(item), indx);
+			return result;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * find the slot holding the object using the hash table
+	 * 
+	 * @param o object to find
+	 * @return integer index, or -1 if the object is not in the set
+	 */
+	public int indexOf(Object o) {
+		
+		changeLock.lock();
+		try {
+			return slots.find(Objects.hashCode(o), slot -> Objects.equals(get(slot), o));
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+	
+	/**
+	 * remove the object from the set. The last item in the set
+	 * is moved to the slot of the removed item.
+	 * 
+	 * @param o object to remove
+	 * @return true if the object was removed
+	 */
+	public boolean remove(Object o) {
+		
+		changeLock.lock();
+		try {
+			final int indx = indexOf(o);
+			if (indx == -1) {
+				return false;
+			}
+			removeSlot(indx);
+			return true;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * remove the item at an index. The last item in the set
+	 * is moved to the slot of the removed item.
+	 * 
+	 * @param indx index of item to remove
+	 * @return E item removed
+	 */
+	public E remove(int indx) {
+		
+		changeLock.lock();
+		try {
+			final E result = get(indx);
+			removeSlot(indx);
+			return result;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	@Override
+	public void clear() {
+		
+		changeLock.lock();
+		try {
+			super.clear();
+			slots.clear();
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * remove a slot from the hash table and the collection
+	 * 
+	 * @param indx slot to remove
+	 */
+	private void removeSlot(int indx) {
+		
+		final int last = size() - 1;
+		slots.remove(hashAt(indx), indx);
+		if (indx != last) {
+			slots.move(hashAt(last), last, indx);
+		}
+		removeBySwap(indx);
+	}
+	
+	/**
+	 * create the hash table from the hashes in the index
+	 */
+	private void rebuildSlots() {
+		
+		slots.clear();
+		for (int i = 0; i < size(); i++) {
+			slots.insert(hashAt(i), i);
+		}
+	}
+}
@@ -0,0 +1,1658 @@
+package fileBackedCollections;
+/**
+ *  FileBackedTreeMap replaces a TreeMap with a sorted map whose keys and
+ *  values are stored in files, for ordered lookups and range scans over more
+ *  keys than fit in memory.
+ *
+ *  The keys are kept in a B+tree whose nodes are records of a
+ *  FileBackedArrayList, so they are protected and cached like the items of
+ *  any collection. A node holds the encoded keys; an internal node holds the
+ *  record numbers of its children, and a leaf holds the index of the value of
+ *  each key in a second list, with the record numbers of the leaves before and
+ *  after it, so ranges are read by following the leaves. Internal nodes are
+ *  few and are all kept in memory, so a lookup reads at most one leaf and the
+ *  value. A node is split when its record is larger than NODE_SIZE; removed
+ *  keys leave their nodes smaller, and nodes are not merged.
+ *
+ *  Like TreeMap the map is not synchronized, and keys may not be null.
+ *
+ *  Matthew Clark  2021
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+public class FileBackedTreeMap<K, V extends Serializable> extends AbstractMap<K, V>
+	implements NavigableMap<K, V>, Closeable {
+
+	/**
+	 * largest record of a node before it is split
+	 */
+	static final int NODE_SIZE = 4096;
+
+	/**
+	 * default number of leaves kept in memory
+	 */
+	static final int LEAF_CACHE = 256;
+
+	/**
+	 * nodes written by a bulk load are filled to this share of NODE_SIZE,
+	 * leaving room for keys added later
+	 */
+	private static final double FILL = 0.9;
+
+	/**
+	 * values a bulk load adds to the storage at a time
+	 */
+	private static final int BATCH = 4096;
+
+	private static final int NONE = -1;
+	private static final int LEAF_HEADER = 13; // flag, count, previous and next leaf
+	private static final int INTERNAL_HEADER = 9; // flag, count and first child
+
+	private final Codec<K> keyCodec;
+	private final Comparator<? super K> comparator;
+
+	// records of the nodes of the tree, and the values
+	private final FileBackedArrayList<byte[]> nodes;
+	private final FileBackedArrayList<V> storage;
+
+	// indexes of the storage left by removed keys, used again by new keys
+	private final BitSet freeSlots = new BitSet();
+
+	private final HashMap<Integer, Node<K>> internalNodes = new HashMap<Integer, Node<K>>();
+	private LinkedHashMap<Integer, Node<K>> leaves = leafCache(LEAF_CACHE);
+
+	private int root = NONE;
+	private int size = 0;
+
+	// the whole map, as a range with no bounds
+	private final Range whole = new Range(true, null, false, true, null, false, false);
+
+	/**
+	 * create a map ordered by the natural order of the keys
+	 */
+	public FileBackedTreeMap() {
+		this((Comparator<? super K>) null);
+	}
+
+	/**
+	 * create a map ordered by a comparator
+	 *
+	 * @param comparator orders the keys, or null for their natural order
+	 */
+	public FileBackedTreeMap(Comparator<? super K> comparator) {
+		this(defaultCodec(), defaultCodec(), comparator, StorageType.RANDOM_ACCESS, Protection.AES);
+	}
+
+	/**
+	 * create a map holding the entries of a sorted map, in the same order.
+	 * The entries are bulk loaded.
+	 *
+	 * @param m map to copy
+	 */
+	public FileBackedTreeMap(SortedMap<K, ? extends V> m) {
+
+		this(m.comparator());
+		bulkLoad(m.entrySet().iterator());
+	}
+
+	/**
+	 * create a map ordered by the natural order of the keys, storing the keys
+	 * and the values with codecs
+	 *
+	 * @param keyCodec converts the keys to and from bytes
+	 * @param valueCodec converts the values to and from bytes
+	 */
+	public FileBackedTreeMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+		this(keyCodec, valueCodec, null, StorageType.RANDOM_ACCESS, Protection.AES);
+	}
+
+	/**
+	 * create a map storing the keys and the values with codecs, using the given
+	 * kind of storage engine for the backing files and protection for the records
+	 *
+	 * @param keyCodec converts the keys to and from bytes
+	 * @param valueCodec converts the values to and from bytes
+	 * @param comparator orders the keys, or null for their natural order
+	 * @param storageType storage engine to use
+	 * @param protection how the records in the files are protected
+	 */
+	public FileBackedTreeMap(Codec<K> keyCodec, Codec<V> valueCodec, Comparator<? super K> comparator,
+			StorageType storageType, Protection protection) {
+
+		this.keyCodec = keyCodec;
+		this.comparator = comparator;
+		nodes = new FileBackedArrayList<byte[]>(Codecs.BYTES, storageType, protection);
+		storage = new FileBackedArrayList<V>(valueCodec, storageType, protection);
+		nodes.useStats(storage.getStats());
+		root = newNode(true).id;
+	}
+
+	/**
+	 * objects are encoded with Java serialization when there is no codec for
+	 * them, so they must be Serializable
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Codec<T> defaultCodec() {
+		return (Codec<T>) (Codec<?>) Codecs.<Serializable>generic();
+	}
+
+	private static <K> LinkedHashMap<Integer, Node<K>> leafCache(final int maxLeaves) {
+
+		return new LinkedHashMap<Integer, Node<K>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Node<K>> eldest) {
+				return size() > maxLeaves;
+			}
+		};
+	}
+
+	/**
+	 * a node of the tree, decoded from its record
+	 */
+	private static final class Node<K> {
+
+		final int id; // index of the record of the node
+		final boolean leaf;
+		final ArrayList<K> keys = new ArrayList<K>();
+		final ArrayList<byte[]> keyBytes = new ArrayList<byte[]>();
+		int[] refs = new int[8]; // leaf: indexes of the values, internal: children, one more than the keys
+		int previous = NONE; // leaves before and after a leaf
+		int next = NONE;
+		int bytes; // size of the record
+
+		Node(int id, boolean leaf) {
+			this.id = id;
+			this.leaf = leaf;
+			this.bytes = leaf ? LEAF_HEADER : INTERNAL_HEADER;
+		}
+
+		int count() {
+			return keys.size();
+		}
+
+		/**
+		 * add a key, with the index of its value in a leaf or the child after
+		 * it in an internal node
+		 */
+		void insert(int position, K key, byte[] encoded, int ref) {
+
+			final int refPosition = leaf ? position : position + 1;
+			final int refCount = leaf ? count() : count() + 1;
+			if (refCount == refs.length) {
+				refs = Arrays.copyOf(refs, refs.length * 2);
+			}
+			System.arraycopy(refs, refPosition, refs, refPosition + 1, refCount - refPosition);
+			refs[refPosition] = ref;
+			keys.add(position, key);
+			keyBytes.add(position, encoded);
+			bytes += entrySize(encoded);
+		}
+
+		/**
+		 * remove a key from a leaf
+		 */
+		void remove(int position) {
+
+			System.arraycopy(refs, position + 1, refs, position, count() - position - 1);
+			keys.remove(position);
+			bytes -= entrySize(keyBytes.remove(position));
+		}
+
+		/**
+		 * move the keys from a position on to an empty node
+		 */
+		void moveTo(Node<K> other, int from) {
+
+			final int count = count();
+			for (int i = from; i < count; i++) {
+				other.keys.add(keys.get(i));
+				other.keyBytes.add(keyBytes.get(i));
+				other.bytes += entrySize(keyBytes.get(i));
+			}
+			if (leaf) {
+				other.refs = Arrays.copyOfRange(refs, from, Math.max(from + 8, count));
+			} else {
+				other.refs = Arrays.copyOfRange(refs, from, Math.max(from + 8, count + 1));
+			}
+			for (int i = count - 1; i >= from; i--) {
+				keys.remove(i);
+				bytes -= entrySize(keyBytes.remove(i));
+			}
+		}
+
+		static int entrySize(byte[] encoded) {
+			return 2 * Integer.BYTES + encoded.length;
+		}
+	}
+
+	/**
+	 * a key found in a leaf
+	 */
+	private static final class Found<K> {
+
+		final Node<K> leaf;
+		final int position;
+
+		Found(Node<K> leaf, int position) {
+			this.leaf = leaf;
+			this.position = position;
+		}
+
+		K key() {
+			return leaf.keys.get(position);
+		}
+
+		int slot() {
+			return leaf.refs[position];
+		}
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* records of the nodes                                          */
+
+	private byte[] encode(Node<K> node) {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(node.bytes);
+		buffer.put((byte) (node.leaf ? 1 : 0));
+		buffer.putInt(node.count());
+		if (node.leaf) {
+			buffer.putInt(node.previous);
+			buffer.putInt(node.next);
+		} else {
+			buffer.putInt(node.refs[0]);
+		}
+		for (int i = 0; i < node.count(); i++) {
+			final byte[] encoded = node.keyBytes.get(i);
+			buffer.putInt(encoded.length);
+			buffer.put(encoded);
+			buffer.putInt(node.refs[node.leaf ? i : i + 1]);
+		}
+		return buffer.array();
+	}
+
+	private Node<K> decode(int id, byte[] record) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		final Node<K> node = new Node<K>(id, buffer.get() == 1);
+		final int count = buffer.getInt();
+		node.refs = new int[Math.max(8, count + 1)];
+		if (node.leaf) {
+			node.previous = buffer.getInt();
+			node.next = buffer.getInt();
+		} else {
+			node.refs[0] = buffer.getInt();
+		}
+		for (int i = 0; i < count; i++) {
+			final int length = buffer.getInt();
+			final byte[] encoded = Arrays.copyOfRange(record, buffer.position(), buffer.position() + length);
+			buffer.position(buffer.position() + length);
+			node.keys.add(keyCodec.decode(encoded, 0, length));
+			node.keyBytes.add(encoded);
+			node.refs[node.leaf ? i : i + 1] = buffer.getInt();
+		}
+		node.bytes = record.length;
+		return node;
+	}
+
+	/**
+	 * get a node, from memory if it is there
+	 *
+	 * @param id index of the record of the node
+	 * @return Node
+	 */
+	private Node<K> node(int id) {
+
+		Node<K> node = internalNodes.get(id);
+		if (node == null) {
+			node = leaves.get(id);
+		}
+		if (node == null) {
+			final byte[] record = nodes.get(id);
+			if (record == null) {
+				throw new IllegalStateException("node " + id + " of the tree could not be read");
+			}
+			try {
+				node = decode(id, record);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			cache(node);
+		}
+		return node;
+	}
+
+	private void cache(Node<K> node) {
+
+		if (node.leaf) {
+			leaves.put(node.id, node);
+		} else {
+			internalNodes.put(node.id, node);
+		}
+	}
+
+	private void write(Node<K> node) {
+
+		nodes.replace(node.id, encode(node));
+		cache(node);
+	}
+
+	/**
+	 * create an empty node at the end of the records
+	 */
+	private Node<K> newNode(boolean leaf) {
+
+		final Node<K> node = new Node<K>(nodes.size(), leaf);
+		nodes.add(encode(node));
+		cache(node);
+		return node;
+	}
+
+	private byte[] encodeKey(K key) {
+
+		try {
+			return keyCodec.encode(key);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* searching the tree                                            */
+
+	@SuppressWarnings("unchecked")
+	private int compare(Object a, Object b) {
+		return comparator != null ? comparator.compare((K) a, (K) b) : ((Comparable<Object>) a).compareTo(b);
+	}
+
+	/**
+	 * find the first key of a node that is at least a key, or greater than it
+	 *
+	 * @param inclusive true for the first key greater than or equal to the key,
+	 * false for the first key greater than it
+	 * @return int position, the count of keys if there is none
+	 */
+	private int search(Node<K> node, Object key, boolean inclusive) {
+
+		int low = 0;
+		int high = node.count();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int c = compare(node.keys.get(middle), key);
+			if (c < 0 || (c == 0 && !inclusive)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * find the leaf a key belongs in
+	 */
+	private Node<K> findLeaf(Object key) {
+
+		Node<K> node = node(root);
+		while (!node.leaf) {
+			node = node(node.refs[search(node, key, false)]);
+		}
+		return node;
+	}
+
+	private Found<K> find(Object key) {
+
+		final Node<K> leaf = findLeaf(key);
+		final int position = search(leaf, key, true);
+		if (position < leaf.count() && compare(leaf.keys.get(position), key) == 0) {
+			return new Found<K>(leaf, position);
+		}
+		return null;
+	}
+
+	/**
+	 * the key at a position, or the first key after it in the next leaves
+	 */
+	private Found<K> forward(Node<K> leaf, int position) {
+
+		while (position >= leaf.count()) {
+			if (leaf.next == NONE) {
+				return null;
+			}
+			leaf = node(leaf.next);
+			position = 0;
+		}
+		return new Found<K>(leaf, position);
+	}
+
+	/**
+	 * the key at a position, or the last key before it in the previous leaves
+	 */
+	private Found<K> backward(Node<K> leaf, int position) {
+
+		while (position < 0) {
+			if (leaf.previous == NONE) {
+				return null;
+			}
+			leaf = node(leaf.previous);
+			position = leaf.count() - 1;
+		}
+		return new Found<K>(leaf, position);
+	}
+
+	private Found<K> first() {
+
+		Node<K> node = node(root);
+		while (!node.leaf) {
+			node = node(node.refs[0]);
+		}
+		return forward(node, 0);
+	}
+
+	private Found<K> last() {
+
+		Node<K> node = node(root);
+		while (!node.leaf) {
+			node = node(node.refs[node.count()]);
+		}
+		return backward(node, node.count() - 1);
+	}
+
+	/**
+	 * the least key greater than or equal to a key, or greater than it
+	 */
+	private Found<K> ceiling(Object key, boolean inclusive) {
+
+		final Node<K> leaf = findLeaf(key);
+		return forward(leaf, search(leaf, key, inclusive));
+	}
+
+	/**
+	 * the greatest key less than or equal to a key, or less than it
+	 */
+	private Found<K> floor(Object key, boolean inclusive) {
+
+		final Node<K> leaf = findLeaf(key);
+		return backward(leaf, search(leaf, key, !inclusive) - 1);
+	}
+
+	private V valueAt(int slot) {
+		return storage.get(slot);
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* changing the tree                                             */
+
+	/**
+	 * get the value of a key
+	 *
+	 * @param key key to look for
+	 * @return V value, or null if the key is not in the map
+	 */
+	@Override
+	public V get(Object key) {
+
+		final Found<K> found = find(Objects.requireNonNull(key));
+		return found == null ? null : valueAt(found.slot());
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(Objects.requireNonNull(key)) != null;
+	}
+
+	/**
+	 * put a value for a key, replacing the value the key has
+	 *
+	 * @param key key, not null
+	 * @param value value
+	 * @return V the value the key had, or null if it was not in the map
+	 */
+	@Override
+	public V put(K key, V value) {
+
+		Objects.requireNonNull(key);
+
+		// the nodes from the root to the leaf, and the child taken in each
+		final ArrayList<Node<K>> path = new ArrayList<Node<K>>();
+		final ArrayList<Integer> children = new ArrayList<Integer>();
+		Node<K> node = node(root);
+		while (!node.leaf) {
+			final int child = search(node, key, false);
+			path.add(node);
+			children.add(child);
+			node = node(node.refs[child]);
+		}
+
+		final int position = search(node, key, true);
+		if (position < node.count() && compare(node.keys.get(position), key) == 0) {
+			return storage.set(node.refs[position], value);
+		}
+
+		// a new key takes a removed key's index, or the next array index
+		final int free = freeSlots.nextSetBit(0);
+		final int slot;
+		if (free >= 0) {
+			freeSlots.clear(free);
+			storage.replace(free, value);
+			slot = free;
+		} else {
+			slot = storage.size();
+			storage.add(value);
+		}
+		node.insert(position, key, encodeKey(key), slot);
+		size++;
+
+		if (node.bytes <= NODE_SIZE || node.count() < 2) {
+			write(node);
+			return null;
+		}
+
+		// split the leaf, and the internal nodes above it that become too large
+		final Node<K> right = newNode(true);
+		node.moveTo(right, node.count() / 2);
+		right.previous = node.id;
+		right.next = node.next;
+		if (node.next != NONE) {
+			final Node<K> after = node(node.next);
+			after.previous = right.id;
+			write(after);
+		}
+		node.next = right.id;
+		write(node);
+		write(right);
+
+		K separator = right.keys.get(0);
+		byte[] encoded = right.keyBytes.get(0);
+		int added = right.id;
+		for (int level = path.size() - 1; level >= 0; level--) {
+			final Node<K> parent = path.get(level);
+			parent.insert(children.get(level), separator, encoded, added);
+			if (parent.bytes <= NODE_SIZE || parent.count() < 3) {
+				write(parent);
+				return null;
+			}
+
+			// the middle key moves up to the level above
+			final int middle = parent.count() / 2;
+			final Node<K> sibling = newNode(false);
+			separator = parent.keys.get(middle);
+			encoded = parent.keyBytes.get(middle);
+			parent.moveTo(sibling, middle + 1);
+			parent.keys.remove(middle);
+			parent.bytes -= Node.entrySize(parent.keyBytes.remove(middle));
+			write(parent);
+			write(sibling);
+			added = sibling.id;
+		}
+
+		// the root was split
+		final Node<K> top = newNode(false);
+		top.refs[0] = root;
+		top.insert(0, separator, encoded, added);
+		write(top);
+		root = top.id;
+		return null;
+	}
+
+	/**
+	 * remove a key. The record of its value is released, and its index in
+	 * the storage is given to the next new key.
+	 *
+	 * @param key key to remove
+	 * @return V value of the key, or null if it was not in the map
+	 */
+	@Override
+	public V remove(Object key) {
+
+		final Found<K> found = find(Objects.requireNonNull(key));
+		if (found == null) {
+			return null;
+		}
+		final int slot = found.slot();
+		found.leaf.remove(found.position);
+		write(found.leaf);
+		size--;
+
+		final V result = storage.set(slot, null);
+		freeSlots.set(slot);
+		return result;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * remove all the keys and values
+	 */
+	@Override
+	public void clear() {
+
+		nodes.clear();
+		storage.clear();
+		freeSlots.clear();
+		internalNodes.clear();
+		leaves.clear();
+		size = 0;
+		root = newNode(true).id;
+	}
+
+	/**
+	 * put all the entries of a map. The entries of a sorted map with the same
+	 * order are bulk loaded into an empty map.
+	 *
+	 * @param m map to copy
+	 */
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+
+		if (size == 0 && m instanceof SortedMap && Objects.equals(((SortedMap<?, ?>) m).comparator(), comparator)) {
+			bulkLoad(m.entrySet().iterator());
+		} else {
+			super.putAll(m);
+		}
+	}
+
+	/**
+	 * fill an empty map from entries in ascending order of their keys. The
+	 * leaves are written one after the other, nearly full, and the values are
+	 * added to the storage in batches, then the internal nodes are built a
+	 * level at a time from the first key of each node below.
+	 *
+	 * @param sorted entries in ascending order of their keys, with no key twice
+	 * @throws IllegalStateException if the map is not empty
+	 * @throws IllegalArgumentException if the keys are not in ascending order
+	 */
+	public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted) {
+
+		if (size != 0) {
+			throw new IllegalStateException("bulkLoad: the map is not empty");
+		}
+		clear();
+		final int limit = (int) (NODE_SIZE * FILL);
+		final Level<K> level = new Level<K>();
+		final ArrayList<V> values = new ArrayList<V>();
+
+		Node<K> leaf = node(root);
+		K previous = null;
+		while (sorted.hasNext()) {
+			final Map.Entry<? extends K, ? extends V> entry = sorted.next();
+			final K key = Objects.requireNonNull(entry.getKey());
+			if (previous != null && compare(previous, key) >= 0) {
+				throw new IllegalArgumentException("bulkLoad: keys are not in ascending order at " + key);
+			}
+			final byte[] encoded = encodeKey(key);
+
+			if (leaf.count() > 0 && leaf.bytes + Node.entrySize(encoded) > limit) {
+				// the next leaf is the next record
+				leaf.next = nodes.size();
+				write(leaf);
+				level.add(leaf.keys.get(0), leaf.keyBytes.get(0), leaf.id);
+				final Node<K> next = newNode(true);
+				next.previous = leaf.id;
+				leaf = next;
+			}
+			leaf.insert(leaf.count(), key, encoded, size++);
+			values.add(entry.getValue());
+			if (values.size() == BATCH) {
+				storage.addAll(values);
+				values.clear();
+			}
+			previous = key;
+		}
+		storage.addAll(values);
+		write(leaf);
+		if (leaf.count() == 0) {
+			return;
+		}
+		level.add(leaf.keys.get(0), leaf.keyBytes.get(0), leaf.id);
+
+		Level<K> below = level;
+		while (below.count > 1) {
+			final Level<K> above = new Level<K>();
+			Node<K> parent = null;
+			for (int i = 0; i < below.count; i++) {
+				if (parent != null && parent.count() > 0 && parent.bytes + Node.entrySize(below.keyBytes.get(i)) > limit) {
+					write(parent);
+					parent = null;
+				}
+				if (parent == null) {
+					parent = newNode(false);
+					parent.refs[0] = below.ids[i];
+					above.add(below.keys.get(i), below.keyBytes.get(i), parent.id);
+				} else {
+					parent.insert(parent.count(), below.keys.get(i), below.keyBytes.get(i), below.ids[i]);
+				}
+			}
+			write(parent);
+			below = above;
+		}
+		root = below.ids[0];
+	}
+
+	/**
+	 * the nodes of one level of a bulk load, with their first keys
+	 */
+	private static final class Level<K> {
+
+		final ArrayList<K> keys = new ArrayList<K>();
+		final ArrayList<byte[]> keyBytes = new ArrayList<byte[]>();
+		int[] ids = new int[64];
+		int count = 0;
+
+		void add(K key, byte[] encoded, int id) {
+
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			keys.add(key);
+			keyBytes.add(encoded);
+			ids[count++] = id;
+		}
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* the NavigableMap methods, on the range of the whole map       */
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return whole.lowerEntry(key);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return whole.lowerKey(key);
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return whole.floorEntry(key);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return whole.floorKey(key);
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return whole.ceilingEntry(key);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return whole.ceilingKey(key);
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return whole.higherEntry(key);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return whole.higherKey(key);
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return whole.firstEntry();
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return whole.lastEntry();
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		return whole.pollFirstEntry();
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		return whole.pollLastEntry();
+	}
+
+	@Override
+	public K firstKey() {
+		return whole.firstKey();
+	}
+
+	@Override
+	public K lastKey() {
+		return whole.lastKey();
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return whole.descendingMap();
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return whole.navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return whole.descendingKeySet();
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return whole.navigableKeySet();
+	}
+
+	/**
+	 * view of the entries in the order of the keys. The iterator follows the
+	 * leaves, and the value of an entry is read when it is asked for.
+	 */
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return whole.entrySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return whole.subMap(fromKey, fromInclusive, toKey, toInclusive);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return whole.headMap(toKey, inclusive);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return whole.tailMap(fromKey, inclusive);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return whole.subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return whole.headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return whole.tailMap(fromKey, true);
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* settings of the files                                         */
+
+	/**
+	 * keep recently read values in memory, see FileBackedArrayList.setCache
+	 *
+	 * @param maxEntries maximum number of values in the cache, 0 to disable the cache
+	 * @param maxBytes maximum total size of the records of the values in the cache
+	 */
+	public void setCache(int maxEntries, long maxBytes) {
+		storage.setCache(maxEntries, maxBytes);
+	}
+
+	/**
+	 * keep recently read leaves in memory. Internal nodes are always kept.
+	 *
+	 * @param maxLeaves maximum number of leaves held
+	 */
+	public void setNodeCache(int maxLeaves) {
+
+		final LinkedHashMap<Integer, Node<K>> cache = leafCache(Math.max(1, maxLeaves));
+		cache.putAll(leaves);
+		leaves = cache;
+	}
+
+	/**
+	 * write nodes and values that are still buffered in memory to the backing files
+	 */
+	public void flush() {
+
+		nodes.flush();
+		storage.flush();
+	}
+
+	/**
+	 * return the length of the backing files
+	 * @return long file size of the nodes and the values
+	 */
+	public long fileSize() {
+		return nodes.fileSize() + storage.fileSize();
+	}
+
+	/**
+	 * the counters and timers of the map, for the nodes and the values
+	 *
+	 * @return CollectionStats of the map, which can be registered as an MBean
+	 */
+	public CollectionStats getStats() {
+		return storage.getStats();
+	}
+
+	/**
+	 * close the map and delete its files. The map may not be used after it
+	 * is closed.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+
+		nodes.close();
+		storage.close();
+	}
+
+
+	/* ------------------------------------------------------------ */
+	/* ranges of the map                                             */
+
+	/**
+	 * entry whose value is read when it is first asked for
+	 */
+	private final class LazyEntry implements Map.Entry<K, V> {
+
+		private final K key;
+		private final int slot;
+		private boolean read = false;
+		private V value = null;
+
+		LazyEntry(K key, int slot) {
+			this.key = key;
+			this.slot = slot;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+
+			if (!read) {
+				value = valueAt(slot);
+				read = true;
+			}
+			return value;
+		}
+
+		@Override
+		public V setValue(V newValue) {
+
+			final V old = getValue();
+			put(key, newValue);
+			value = newValue;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return Objects.equals(key, entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+
+	/**
+	 * the keys between two bounds, in ascending or descending order. The whole
+	 * map is the range with no bounds; the bounds are in the order of the map
+	 * whichever way the range is read.
+	 */
+	private final class Range extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+		private final boolean fromStart; // no low bound
+		private final K low;
+		private final boolean lowInclusive;
+		private final boolean toEnd; // no high bound
+		private final K high;
+		private final boolean highInclusive;
+		private final boolean descending;
+
+		Range(boolean fromStart, K low, boolean lowInclusive, boolean toEnd, K high, boolean highInclusive, boolean descending) {
+
+			if (!fromStart && !toEnd && compare(low, high) > 0) {
+				throw new IllegalArgumentException("fromKey > toKey");
+			}
+			this.fromStart = fromStart;
+			this.low = low;
+			this.lowInclusive = lowInclusive;
+			this.toEnd = toEnd;
+			this.high = high;
+			this.highInclusive = highInclusive;
+			this.descending = descending;
+		}
+
+		private boolean tooLow(Object key) {
+
+			if (fromStart) {
+				return false;
+			}
+			final int c = compare(key, low);
+			return c < 0 || (c == 0 && !lowInclusive);
+		}
+
+		private boolean tooHigh(Object key) {
+
+			if (toEnd) {
+				return false;
+			}
+			final int c = compare(key, high);
+			return c > 0 || (c == 0 && !highInclusive);
+		}
+
+		private boolean inRange(Object key) {
+			return !tooLow(key) && !tooHigh(key);
+		}
+
+		/**
+		 * check a bound of a range made from this one, which may be an
+		 * exclusive bound of this range if it is exclusive too
+		 */
+		private void checkBound(Object key, boolean inclusive) {
+
+			final boolean inside = inclusive ? inRange(key)
+					: (fromStart || compare(key, low) >= 0) && (toEnd || compare(key, high) <= 0);
+			if (!inside) {
+				throw new IllegalArgumentException("key out of range");
+			}
+		}
+
+		// positions in the order of the map
+
+		private Found<K> lowest() {
+
+			final Found<K> found = fromStart ? first() : ceiling(low, lowInclusive);
+			return found == null || tooHigh(found.key()) ? null : found;
+		}
+
+		private Found<K> highest() {
+
+			final Found<K> found = toEnd ? last() : floor(high, highInclusive);
+			return found == null || tooLow(found.key()) ? null : found;
+		}
+
+		private Found<K> above(Object key, boolean inclusive) {
+
+			if (tooLow(key)) {
+				return lowest();
+			}
+			final Found<K> found = ceiling(key, inclusive);
+			return found == null || tooHigh(found.key()) ? null : found;
+		}
+
+		private Found<K> below(Object key, boolean inclusive) {
+
+			if (tooHigh(key)) {
+				return highest();
+			}
+			final Found<K> found = floor(key, inclusive);
+			return found == null || tooLow(found.key()) ? null : found;
+		}
+
+		// positions in the order of the range
+
+		private Found<K> firstFound() {
+			return descending ? highest() : lowest();
+		}
+
+		private Found<K> lastFound() {
+			return descending ? lowest() : highest();
+		}
+
+		private Found<K> after(Object key, boolean inclusive) {
+			return descending ? below(key, inclusive) : above(key, inclusive);
+		}
+
+		private Found<K> before(Object key, boolean inclusive) {
+			return descending ? above(key, inclusive) : below(key, inclusive);
+		}
+
+		private Found<K> step(Found<K> found) {
+
+			final Found<K> next = descending ? backward(found.leaf, found.position - 1) : forward(found.leaf, found.position + 1);
+			return next == null || !inRange(next.key()) ? null : next;
+		}
+
+		private Entry<K, V> entry(Found<K> found) {
+			return found == null ? null : new AbstractMap.SimpleImmutableEntry<K, V>(found.key(), valueAt(found.slot()));
+		}
+
+		private K key(Found<K> found) {
+			return found == null ? null : found.key();
+		}
+
+		private K keyOrThrow(Found<K> found) {
+
+			if (found == null) {
+				throw new NoSuchElementException();
+			}
+			return found.key();
+		}
+
+		// Map
+
+		@Override
+		public V get(Object key) {
+			return inRange(Objects.requireNonNull(key)) ? FileBackedTreeMap.this.get(key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return inRange(Objects.requireNonNull(key)) && FileBackedTreeMap.this.containsKey(key);
+		}
+
+		@Override
+		public V put(K key, V value) {
+
+			if (!inRange(Objects.requireNonNull(key))) {
+				throw new IllegalArgumentException("key out of range");
+			}
+			return FileBackedTreeMap.this.put(key, value);
+		}
+
+		@Override
+		public V remove(Object key) {
+			return inRange(Objects.requireNonNull(key)) ? FileBackedTreeMap.this.remove(key) : null;
+		}
+
+		@Override
+		public int size() {
+
+			if (fromStart && toEnd) {
+				return size;
+			}
+			int count = 0;
+			for (Found<K> found = lowest(); found != null; found = nextInRange(found)) {
+				count++;
+			}
+			return count;
+		}
+
+		private Found<K> nextInRange(Found<K> found) {
+
+			final Found<K> next = forward(found.leaf, found.position + 1);
+			return next == null || tooHigh(next.key()) ? null : next;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return lowest() == null;
+		}
+
+		@Override
+		public void clear() {
+
+			if (fromStart && toEnd) {
+				FileBackedTreeMap.this.clear();
+				return;
+			}
+			final Iterator<Entry<K, V>> entries = new EntryIterator();
+			while (entries.hasNext()) {
+				entries.next();
+				entries.remove();
+			}
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+
+			return new AbstractSet<Entry<K, V>>() {
+
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return Range.this.size();
+				}
+
+				@Override
+				public boolean isEmpty() {
+					return Range.this.isEmpty();
+				}
+
+				@Override
+				public boolean contains(Object o) {
+
+					if (!(o instanceof Map.Entry)) {
+						return false;
+					}
+					final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+					return containsKey(entry.getKey()) && Objects.equals(get(entry.getKey()), entry.getValue());
+				}
+
+				@Override
+				public boolean remove(Object o) {
+
+					if (!contains(o)) {
+						return false;
+					}
+					Range.this.remove(((Map.Entry<?, ?>) o).getKey());
+					return true;
+				}
+
+				@Override
+				public void clear() {
+					Range.this.clear();
+				}
+			};
+		}
+
+		/**
+		 * follows the leaves through the range
+		 */
+		private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+			private Found<K> next = firstFound();
+			private K last = null;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry<K, V> next() {
+
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				final Found<K> found = next;
+				last = found.key();
+				next = step(found);
+				return new LazyEntry(last, found.slot());
+			}
+
+			@Override
+			public void remove() {
+
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				FileBackedTreeMap.this.remove(last);
+				// the keys after it in its leaf have moved
+				next = next == null ? null : after(last, false);
+				last = null;
+			}
+		}
+
+		// NavigableMap
+
+		@Override
+		public Comparator<? super K> comparator() {
+
+			if (!descending) {
+				return comparator;
+			}
+			return comparator == null ? Collections.<K>reverseOrder() : Collections.reverseOrder(comparator);
+		}
+
+		@Override
+		public Entry<K, V> lowerEntry(K key) {
+			return entry(before(key, false));
+		}
+
+		@Override
+		public K lowerKey(K key) {
+			return key(before(key, false));
+		}
+
+		@Override
+		public Entry<K, V> floorEntry(K key) {
+			return entry(before(key, true));
+		}
+
+		@Override
+		public K floorKey(K key) {
+			return key(before(key, true));
+		}
+
+		@Override
+		public Entry<K, V> ceilingEntry(K key) {
+			return entry(after(key, true));
+		}
+
+		@Override
+		public K ceilingKey(K key) {
+			return key(after(key, true));
+		}
+
+		@Override
+		public Entry<K, V> higherEntry(K key) {
+			return entry(after(key, false));
+		}
+
+		@Override
+		public K higherKey(K key) {
+			return key(after(key, false));
+		}
+
+		@Override
+		public Entry<K, V> firstEntry() {
+			return entry(firstFound());
+		}
+
+		@Override
+		public Entry<K, V> lastEntry() {
+			return entry(lastFound());
+		}
+
+		@Override
+		public Entry<K, V> pollFirstEntry() {
+
+			final Entry<K, V> entry = firstEntry();
+			if (entry != null) {
+				FileBackedTreeMap.this.remove(entry.getKey());
+			}
+			return entry;
+		}
+
+		@Override
+		public Entry<K, V> pollLastEntry() {
+
+			final Entry<K, V> entry = lastEntry();
+			if (entry != null) {
+				FileBackedTreeMap.this.remove(entry.getKey());
+			}
+			return entry;
+		}
+
+		@Override
+		public K firstKey() {
+			return keyOrThrow(firstFound());
+		}
+
+		@Override
+		public K lastKey() {
+			return keyOrThrow(lastFound());
+		}
+
+		@Override
+		public Range descendingMap() {
+			return new Range(fromStart, low, lowInclusive, toEnd, high, highInclusive, !descending);
+		}
+
+		@Override
+		public NavigableSet<K> navigableKeySet() {
+			return new KeySet(this);
+		}
+
+		@Override
+		public NavigableSet<K> descendingKeySet() {
+			return new KeySet(descendingMap());
+		}
+
+		@Override
+		public Set<K> keySet() {
+			return navigableKeySet();
+		}
+
+		/**
+		 * a range inside this one, with bounds in the order of the map
+		 */
+		private Range range(boolean newFromStart, K newLow, boolean newLowInclusive,
+				boolean newToEnd, K newHigh, boolean newHighInclusive) {
+
+			if (!newFromStart) {
+				checkBound(Objects.requireNonNull(newLow), newLowInclusive);
+			}
+			if (!newToEnd) {
+				checkBound(Objects.requireNonNull(newHigh), newHighInclusive);
+			}
+			return new Range(newFromStart, newLow, newLowInclusive, newToEnd, newHigh, newHighInclusive, descending);
+		}
+
+		@Override
+		public Range subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+
+			if (descending) {
+				return range(false, toKey, toInclusive, false, fromKey, fromInclusive);
+			}
+			return range(false, fromKey, fromInclusive, false, toKey, toInclusive);
+		}
+
+		@Override
+		public Range headMap(K toKey, boolean inclusive) {
+
+			if (descending) {
+				return range(false, toKey, inclusive, toEnd, high, highInclusive);
+			}
+			return range(fromStart, low, lowInclusive, false, toKey, inclusive);
+		}
+
+		@Override
+		public Range tailMap(K fromKey, boolean inclusive) {
+
+			if (descending) {
+				return range(fromStart, low, lowInclusive, false, fromKey, inclusive);
+			}
+			return range(false, fromKey, inclusive, toEnd, high, highInclusive);
+		}
+
+		@Override
+		public SortedMap<K, V> subMap(K fromKey, K toKey) {
+			return subMap(fromKey, true, toKey, false);
+		}
+
+		@Override
+		public SortedMap<K, V> headMap(K toKey) {
+			return headMap(toKey, false);
+		}
+
+		@Override
+		public SortedMap<K, V> tailMap(K fromKey) {
+			return tailMap(fromKey, true);
+		}
+	}
+
+	/**
+	 * the keys of a range. Iterating the keys does not read the values.
+	 */
+	private final class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+
+		private final Range range;
+
+		KeySet(Range range) {
+			this.range = range;
+		}
+
+		@Override
+		public Iterator<K> iterator() {
+
+			final Iterator<Entry<K, V>> entries = range.entrySet().iterator();
+			return new Iterator<K>() {
+
+				@Override
+				public boolean hasNext() {
+					return entries.hasNext();
+				}
+
+				@Override
+				public K next() {
+					return entries.next().getKey();
+				}
+
+				@Override
+				public void remove() {
+					entries.remove();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<K> descendingIterator() {
+			return descendingSet().iterator();
+		}
+
+		@Override
+		public int size() {
+			return range.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return range.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return range.containsKey(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+
+			if (!range.containsKey(o)) {
+				return false;
+			}
+			range.remove(o);
+			return true;
+		}
+
+		@Override
+		public void clear() {
+			range.clear();
+		}
+
+		@Override
+		public Comparator<? super K> comparator() {
+			return range.comparator();
+		}
+
+		@Override
+		public K first() {
+			return range.firstKey();
+		}
+
+		@Override
+		public K last() {
+			return range.lastKey();
+		}
+
+		@Override
+		public K lower(K e) {
+			return range.lowerKey(e);
+		}
+
+		@Override
+		public K floor(K e) {
+			return range.floorKey(e);
+		}
+
+		@Override
+		public K ceiling(K e) {
+			return range.ceilingKey(e);
+		}
+
+		@Override
+		public K higher(K e) {
+			return range.higherKey(e);
+		}
+
+		@Override
+		public K pollFirst() {
+
+			final Entry<K, V> entry = range.pollFirstEntry();
+			return entry == null ? null : entry.getKey();
+		}
+
+		@Override
+		public K pollLast() {
+
+			final Entry<K, V> entry = range.pollLastEntry();
+			return entry == null ? null : entry.getKey();
+		}
+
+		@Override
+		public NavigableSet<K> descendingSet() {
+			return new KeySet(range.descendingMap());
+		}
+
+		@Override
+		public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+			return new KeySet(range.subMap(fromElement, fromInclusive, toElement, toInclusive));
+		}
+
+		@Override
+		public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+			return new KeySet(range.headMap(toElement, inclusive));
+		}
+
+		@Override
+		public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+			return new KeySet(range.tailMap(fromElement, inclusive));
+		}
+
+		@Override
+		public SortedSet<K> subSet(K fromElement, K toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> headSet(K toElement) {
+			return headSet(toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> tailSet(K fromElement) {
+			return tailSet(fromElement, true);
+		}
+	}
+}
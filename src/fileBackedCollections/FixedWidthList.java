@@ -0,0 +1,240 @@
+package fileBackedCollections;
+/**
+ * the part of the lists of primitive values that does not depend on the type of
+ * the values: the boxed methods of List, the size, and flushing and closing the
+ * file. A subclass converts its values to the bits stored in a FixedWidthStorage,
+ * and adds the methods that read and write them unboxed.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.function.ObjIntConsumer;
+
+abstract class FixedWidthList<E> extends AbstractList<E> implements RandomAccess, Closeable {
+
+	/**
+	 * bytes of values copied at a time when an array of values is added, 1 MB
+	 */
+	private static final int BATCH_BYTES = 1 << 20;
+
+	/**
+	 * puts values of an array into a buffer, for adding them in batches
+	 */
+	interface Batch {
+		void put(ByteBuffer buffer, int from, int count);
+	}
+
+	private final FixedWidthStorage storage;
+	private final int width;
+
+	/**
+	 * create a list in a temporary file
+	 *
+	 * @param width bytes in each value, 4 or 8
+	 * @param storageType storage engine to use
+	 */
+	FixedWidthList(int width, StorageType storageType) {
+
+		this.width = width;
+		try {
+			storage = new FixedWidthStorage(null, width, storageType);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * open a list stored in a named file
+	 *
+	 * @param file backing file
+	 * @param width bytes in each value, 4 or 8
+	 * @param storageType storage engine to use
+	 * @throws IOException
+	 */
+	FixedWidthList(File file, int width, StorageType storageType) throws IOException {
+
+		this.width = width;
+		storage = new FixedWidthStorage(file, width, storageType);
+	}
+
+	/**
+	 * the bits stored for an element, only the low 4 bytes are stored for a 4 byte value
+	 *
+	 * @param element element, not null
+	 * @return long bits of the element
+	 */
+	abstract long bits(E element);
+
+	/**
+	 * read the bits of an element that takes 8 bytes
+	 */
+	final long readLong(int index) {
+		try {
+			return storage.readLong(index);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * read the bits of an element that takes 4 bytes
+	 */
+	final int readInt(int index) {
+		try {
+			return storage.readInt(index);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * overwrite the bits of an element
+	 */
+	final void write(int index, long bits) {
+		try {
+			storage.write(index, bits);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * add the bits of an element to the end
+	 */
+	final void append(long bits) {
+		try {
+			storage.append(bits);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		modCount++;
+	}
+
+	/**
+	 * add the values of an array to the end, a batch at a time
+	 *
+	 * @param length number of values in the array
+	 * @param batch puts the values of a batch into the buffer
+	 */
+	final void appendAll(int length, Batch batch) {
+
+		final int perBatch = BATCH_BYTES / width;
+		final ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, perBatch) * width);
+		try {
+			for (int i = 0; i < length; i += perBatch) {
+				final int count = Math.min(length - i, perBatch);
+				buffer.clear();
+				batch.put(buffer, i, count);
+				buffer.limit(count * width);
+				storage.append(buffer);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		modCount++;
+	}
+
+	/**
+	 * pass the bytes of consecutive elements to a consumer, a block at a time
+	 *
+	 * @param from index of the first element
+	 * @param count number of elements
+	 * @param consumer gets each block and the number of elements before it
+	 */
+	final void read(int from, int count, ObjIntConsumer<ByteBuffer> consumer) {
+		try {
+			storage.read(from, count, consumer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public E set(int index, E element) {
+
+		final E old = get(index);
+		write(index, bits(element));
+		return old;
+	}
+
+	@Override
+	public boolean add(E element) {
+
+		append(bits(element));
+		return true;
+	}
+
+	@Override
+	public void add(int index, E element) {
+
+		final long bits = bits(element);
+		try {
+			storage.insert(index, bits);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		modCount++;
+	}
+
+	@Override
+	public E remove(int index) {
+
+		final E old = get(index);
+		try {
+			storage.delete(index);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		try {
+			storage.clear();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return storage.size();
+	}
+
+	/**
+	 * write the count and any buffered values to the file
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		storage.flush();
+	}
+
+	/**
+	 * @return long size of the backing file in bytes
+	 */
+	public long fileSize() {
+		return storage.fileSize();
+	}
+
+	/**
+	 * close the list. A named file is kept, a temporary file is deleted. The list
+	 * may not be used after it is closed.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+}
@@ -0,0 +1,493 @@
+package fileBackedCollections;
+/**
+ * backing file of a list of primitive values that all take the same number of
+ * bytes. Element i is stored at HEADER_SIZE + i * width, so there is no index and 
+ * the list uses the same memory whatever its size. The file starts with a header:
+ *
+ *   0  int   magic number
+ *   4  int   width of the values
+ *   8  long  count of the values
+ *
+ * The length of the file is not the count, as a memory mapped file grows a whole
+ * segment at a time. The count is written with each change to a mapped file, and
+ * for a file that is not mapped, whose appends are buffered, with each change but
+ * appends and when the list is flushed or closed. Values after the count are cut
+ * off when the file is opened.
+ *
+ * The values are stored as they are, big endian, with no record headers and no
+ * protection. Reads take no lock; changes are made under a lock, and the size
+ * is raised only after an appended value is written.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+
+final class FixedWidthStorage {
+
+	/**
+	 * bytes copied at a time by bulk reads from a file that is not mapped, and by moves, 64 KB
+	 */
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private static final int MAGIC = 0x46424657; // FBFW
+	private static final int COUNT = 8; // position of the count in the header
+	static final int HEADER_SIZE = 16;
+
+	private final int width;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final byte[] scratch = new byte[Long.BYTES]; // guarded by writeLock
+	private final Backing backing;
+	private final Cleaner.Cleanable cleanable;
+	private volatile Storage file; // null once closed
+	private volatile MappedStorage mapped; // the same storage when it is mapped, for reads with no copy
+
+	/**
+	 * the storage and the count of values, which are closed and saved by close(), or
+	 * by the cleaner if the list is collected without being closed. It holds no 
+	 * reference to the list.
+	 */
+	private static final class Backing implements Runnable {
+
+		private final Storage storage;
+		private final File temporary; // deleted when closed, null for a named file
+		volatile int size;
+		boolean saved = true; // the header holds the size, guarded by writeLock
+
+		Backing(Storage storage, File temporary, int size) {
+			this.storage = storage;
+			this.temporary = temporary;
+			this.size = size;
+		}
+
+		/**
+		 * write the count in the header, after the values it counts
+		 */
+		void save() throws IOException {
+
+			storage.flush();
+			storage.write(COUNT, ByteBuffer.allocate(Long.BYTES).putLong(size).array(), 0, Long.BYTES);
+			saved = true;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				if (temporary == null && !saved) {
+					save();
+				}
+				storage.close();
+			} catch (IOException e) {
+				// the temporary file is deleted all the same
+			}
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * open the backing file of a list
+	 *
+	 * @param backingFile file to keep the values in, or null for a temporary file
+	 * @param width bytes in each value, 4 or 8
+	 * @param storageType storage engine to use
+	 * @throws IOException if the file can not be opened, has no header for values
+	 * of the width, or is shorter than its count of values
+	 */
+	FixedWidthStorage(File backingFile, int width, StorageType storageType) throws IOException {
+
+		this.width = width;
+		final boolean temporary = backingFile == null;
+		if (temporary) {
+			backingFile = File.createTempFile("filebackedcollection", "bin", null);
+			backingFile.deleteOnExit();
+		}
+		final Storage storage = storageType.open(backingFile);
+		int count = 0;
+		try {
+			final long length = storage.length();
+			if (length == 0) {
+				final byte[] header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(width).putLong(0).array();
+				storage.append(header, 0, HEADER_SIZE);
+			} else {
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				if (length >= HEADER_SIZE) {
+					storage.read(0, header.array(), 0, HEADER_SIZE);
+				}
+				if (length < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != width) {
+					throw new IOException("not a file of " + width + " byte values " + backingFile);
+				}
+				final long stored = header.getLong(COUNT);
+				if (stored < 0 || stored > Integer.MAX_VALUE || HEADER_SIZE + stored * width > length) {
+					throw new IOException(backingFile + " is shorter than its count of " + stored + " values");
+				}
+				count = (int) stored;
+				// values appended after the count was last written, and the unused end of a mapped segment
+				storage.truncate(HEADER_SIZE + stored * width);
+			}
+		} catch (IOException e) {
+			storage.close();
+			throw e;
+		}
+		file = storage;
+		if (storage instanceof MappedStorage) {
+			mapped = (MappedStorage) storage;
+		}
+		backing = new Backing(storage, temporary ? backingFile : null, count);
+		cleanable = IoThreads.cleaner().register(this, backing);
+	}
+
+	int size() {
+		return backing.size;
+	}
+
+	/**
+	 * read the value of an element that takes 8 bytes
+	 *
+	 * @param index index of the element
+	 * @return long bits of the element
+	 * @throws IOException
+	 */
+	long readLong(int index) throws IOException {
+
+		Objects.checkIndex(index, backing.size);
+		final long position = HEADER_SIZE + (long) index * Long.BYTES;
+		final MappedStorage m = mapped;
+		if (m != null) {
+			return m.getLong(position);
+		}
+		final byte[] bytes = new byte[Long.BYTES];
+		open().read(position, bytes, 0, Long.BYTES);
+		return ByteBuffer.wrap(bytes).getLong();
+	}
+
+	/**
+	 * read the value of an element that takes 4 bytes
+	 *
+	 * @param index index of the element
+	 * @return int bits of the element
+	 * @throws IOException
+	 */
+	int readInt(int index) throws IOException {
+
+		Objects.checkIndex(index, backing.size);
+		final long position = HEADER_SIZE + (long) index * Integer.BYTES;
+		final MappedStorage m = mapped;
+		if (m != null) {
+			return m.getInt(position);
+		}
+		final byte[] bytes = new byte[Integer.BYTES];
+		open().read(position, bytes, 0, Integer.BYTES);
+		return ByteBuffer.wrap(bytes).getInt();
+	}
+
+	/**
+	 * overwrite the value of an element, its low 'width' bytes when it takes 4 bytes
+	 *
+	 * @param index index of the element
+	 * @param value bits of the element
+	 * @throws IOException
+	 */
+	void write(int index, long value) throws IOException {
+
+		writeLock.lock();
+		try {
+			Objects.checkIndex(index, backing.size);
+			put(position(index), value);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * add an element to the end
+	 *
+	 * @param value bits of the element
+	 * @throws IOException
+	 */
+	void append(long value) throws IOException {
+
+		writeLock.lock();
+		try {
+			checkCapacity(1);
+			encode(value, scratch, 0);
+			open().append(scratch, 0, width);
+			backing.size++;
+			appended();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * add elements to the end, from the bytes remaining in a buffer
+	 *
+	 * @param values buffer holding whole elements, in the byte order of the file
+	 * @throws IOException
+	 */
+	void append(ByteBuffer values) throws IOException {
+
+		final int count = values.remaining() / width;
+		writeLock.lock();
+		try {
+			checkCapacity(count);
+			open().append(new ByteBuffer[] {values});
+			backing.size += count;
+			appended();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * insert an element, moving the elements from the index up by one
+	 *
+	 * @param index index of the new element
+	 * @param value bits of the element
+	 * @throws IOException
+	 */
+	void insert(int index, long value) throws IOException {
+
+		writeLock.lock();
+		try {
+			final int size = backing.size;
+			Objects.checkIndex(index, size + 1);
+			checkCapacity(1);
+			encode(0, scratch, 0);
+			open().append(scratch, 0, width);
+			move(index, index + 1, size - index);
+			put(position(index), value);
+			backing.size = size + 1;
+			backing.save();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * remove an element, moving the elements after it down by one
+	 *
+	 * @param index index of the element
+	 * @throws IOException
+	 */
+	void delete(int index) throws IOException {
+
+		writeLock.lock();
+		try {
+			final int size = backing.size;
+			Objects.checkIndex(index, size);
+			move(index + 1, index, size - index - 1);
+			backing.size = size - 1;
+			// the count is lowered before the file, so it never counts a value that is cut off
+			backing.save();
+			open().truncate(position(size - 1));
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * remove all the elements
+	 *
+	 * @throws IOException
+	 */
+	void clear() throws IOException {
+
+		writeLock.lock();
+		try {
+			open();
+			backing.size = 0;
+			backing.save();
+			file.truncate(HEADER_SIZE);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * pass the bytes of a range of elements to a consumer, a block at a time. From a
+	 * mapped file the blocks are read only views of the mapped memory, otherwise
+	 * they are read into a buffer that is reused for each block.
+	 *
+	 * @param from index of the first element
+	 * @param count number of elements
+	 * @param consumer gets each block, holding whole elements, and the number of
+	 * elements before it in the range
+	 * @throws IOException
+	 */
+	void read(int from, int count, ObjIntConsumer<ByteBuffer> consumer) throws IOException {
+
+		Objects.checkFromIndexSize(from, count, backing.size);
+		long position = position(from);
+		final long end = position + (long) count * width;
+		int done = 0;
+		final MappedStorage m = mapped;
+		if (m != null) {
+			while (position < end) {
+				final ByteBuffer block = m.slice(position, (int) Math.min(end - position, Integer.MAX_VALUE & -width));
+				final int length = block.remaining();
+				consumer.accept(block, done);
+				position += length;
+				done += length / width;
+			}
+			return;
+		}
+		final Storage f = open();
+		final byte[] bytes = new byte[(int) Math.min(end - position, BLOCK_SIZE)];
+		while (position < end) {
+			final int length = (int) Math.min(end - position, bytes.length);
+			f.read(position, bytes, 0, length);
+			consumer.accept(ByteBuffer.wrap(bytes, 0, length), done);
+			position += length;
+			done += length / width;
+		}
+	}
+
+	/**
+	 * write the count and any buffered bytes to the file
+	 *
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+
+		writeLock.lock();
+		try {
+			final Storage f = open();
+			if (!backing.saved) {
+				backing.save();
+			}
+			f.flush();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @return long size of the backing file in bytes
+	 */
+	long fileSize() {
+		return HEADER_SIZE + (long) backing.size * width;
+	}
+
+	/**
+	 * close the backing file, and delete it if it is temporary
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+
+		writeLock.lock();
+		try {
+			if (file == null) {
+				return;
+			}
+			// errors writing the data are thrown, errors closing the file are not
+			file.flush();
+			if (backing.temporary == null && !backing.saved) {
+				backing.save();
+			}
+			mapped = null;
+			file = null;
+			cleanable.clean();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * the count changed with an append. It is written at once to a mapped file,
+	 * and when the list is flushed or closed otherwise, so appends stay buffered.
+	 */
+	private void appended() throws IOException {
+
+		final MappedStorage m = mapped;
+		if (m != null) {
+			m.putLong(COUNT, backing.size);
+		} else {
+			backing.saved = false;
+		}
+	}
+
+	/**
+	 * position of an element in the file
+	 */
+	private long position(int index) {
+		return HEADER_SIZE + (long) index * width;
+	}
+
+	/**
+	 * overwrite the value at a position
+	 */
+	private void put(long position, long value) throws IOException {
+
+		final MappedStorage m = mapped;
+		if (m != null) {
+			if (width == Long.BYTES) {
+				m.putLong(position, value);
+			} else {
+				m.putInt(position, (int) value);
+			}
+			return;
+		}
+		encode(value, scratch, 0);
+		open().write(position, scratch, 0, width);
+	}
+
+	/**
+	 * copy the bytes of elements to another index, from the end when they move up
+	 * so the elements are not written over before they are copied
+	 */
+	private void move(int from, int to, int count) throws IOException {
+
+		final long length = (long) count * width;
+		final int block = (int) Math.min(length, BLOCK_SIZE);
+		final byte[] bytes = new byte[block];
+		final long source = position(from);
+		final long target = position(to);
+		final Storage f = open();
+		long done = 0;
+		while (done < length) {
+			final int n = (int) Math.min(block, length - done);
+			final long offset = from < to ? length - done - n : done;
+			f.read(source + offset, bytes, 0, n);
+			f.write(target + offset, bytes, 0, n);
+			done += n;
+		}
+	}
+
+	/**
+	 * the storage, if the list is not closed
+	 */
+	private Storage open() throws IOException {
+
+		final Storage f = file;
+		if (f == null) {
+			throw new IOException("list is closed");
+		}
+		return f;
+	}
+
+	private void checkCapacity(int count) {
+
+		if ((long) backing.size + count > Integer.MAX_VALUE) {
+			throw new IllegalStateException("list is full");
+		}
+	}
+
+	private void encode(long value, byte[] bytes, int offset) {
+
+		if (width == Long.BYTES) {
+			ByteBuffer.wrap(bytes, offset, Long.BYTES).putLong(value);
+		} else {
+			ByteBuffer.wrap(bytes, offset, Integer.BYTES).putInt((int) value);
+		}
+	}
+}
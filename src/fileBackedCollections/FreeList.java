@@ -0,0 +1,80 @@
+package fileBackedCollections;
+/**
+ * holes in the backing file left by records of removed and replaced items,
+ * kept by the size of the slot. Slots are rounded to size classes, so a new
+ * record is put in a hole of the same size and holes are never split.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.util.HashMap;
+
+final class FreeList {
+
+	/**
+	 * positions of the holes of one size
+	 */
+	private static final class Holes {
+
+		long[] positions = new long[8];
+		int count = 0;
+	}
+
+	private final HashMap<Integer, Holes> holes = new HashMap<Integer, Holes>();
+	private long bytes = 0;
+
+	/**
+	 * add a hole
+	 *
+	 * @param position position of the slot in the file
+	 * @param length size of the slot in bytes
+	 */
+	void free(long position, int length) {
+
+		Holes list = holes.get(length);
+		if (list == null) {
+			list = new Holes();
+			holes.put(length, list);
+		} else if (list.count == list.positions.length) {
+			final long[] grown = new long[list.count * 2];
+			System.arraycopy(list.positions, 0, grown, 0, list.count);
+			list.positions = grown;
+		}
+		list.positions[list.count++] = position;
+		bytes += length;
+	}
+
+	/**
+	 * take a hole of a size
+	 *
+	 * @param length size of the slot in bytes
+	 * @return long position of the hole, or -1 if there is no hole of that size
+	 */
+	long allocate(int length) {
+
+		final Holes list = holes.get(length);
+		if (list == null || list.count == 0) {
+			return -1;
+		}
+		bytes -= length;
+		return list.positions[--list.count];
+	}
+
+	/**
+	 * forget all holes
+	 */
+	void clear() {
+
+		holes.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * total size of the holes
+	 *
+	 * @return long count of bytes
+	 */
+	long bytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,33 @@
+package fileBackedCollections;
+/**
+ * flight recorder event of a get from a file backed collection that took longer
+ * than the threshold, 10 ms unless the recording sets another
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("fileBackedCollections.Get")
+@Label("File Backed Get")
+@Description("A get from a file backed collection that took longer than the threshold")
+@Category("File Backed Collections")
+@Threshold("10 ms")
+@StackTrace(true)
+final class GetEvent extends jdk.jfr.Event {
+
+	@Label("Collection")
+	String collection;
+
+	@Label("File")
+	String file;
+
+	@Label("Index")
+	@Description("index of the item, or slot of the value in a map, -1 if there is none")
+	int index;
+}
@@ -0,0 +1,402 @@
+package fileBackedCollections;
+/**
+ * index for the objects held in the filebackedarraylist system. The starting 
+ * positions, sizes and hashes of the objects in the file are held in parallel 
+ * primitive arrays, so each entry costs a few bytes of memory instead of an 
+ * object, and scans over the hashes run over contiguous memory.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+class Index implements Serializable {
+
+	private static final long serialVersionUID = 3712024395817230215L;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int CHUNK_SIZE = 1 << 20; // bytes of a column written or read at a time
+	
+	/**
+	 * size of the entry for a null object, whose record has no item bytes
+	 */
+	static final int NULL_SIZE = -1;
+
+	private long[] positions = new long[INITIAL_CAPACITY];
+	private int[] sizes = new int[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private int count = 0;
+	private int renumbered = 0; // number of changes that moved entries to other numbers
+
+	/**
+	 * number of entries in the index
+	 * 
+	 * @return integer count of entries
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * get the file position of the object
+	 * 
+	 * @param i entry number
+	 * @return long offset into file
+	 */
+	long getPosition(int i) {
+		return positions[i];
+	}
+
+	/**
+	 * return size of object
+	 * 
+	 * @param i entry number
+	 * @return integer size in bytes, or NULL_SIZE for a null object
+	 */
+	int getSize(int i) {
+		return sizes[i];
+	}
+
+	/**
+	 * get the object hash
+	 * 
+	 * @param i entry number
+	 * @return int hash of object
+	 */
+	int getHash(int i) {
+		return hashes[i];
+	}
+
+	/**
+	 * insert an entry, moving the entries after it up by one
+	 * 
+	 * @param i entry number
+	 * @param position position in file
+	 * @param size size of object in bytes
+	 * @param hash hash of the object
+	 */
+	void add(int i, long position, int size, int hash) {
+
+		if (count == positions.length) {
+			grow();
+		}
+		if (i < count) {
+			renumbered++;
+			final int moved = count - i;
+			System.arraycopy(positions, i, positions, i + 1, moved);
+			System.arraycopy(sizes, i, sizes, i + 1, moved);
+			System.arraycopy(hashes, i, hashes, i + 1, moved);
+		}
+		count++;
+		set(i, position, size, hash);
+	}
+
+	/**
+	 * replace an entry
+	 * 
+	 * @param i entry number
+	 * @param position position in file
+	 * @param size size of object in bytes
+	 * @param hash hash of the object
+	 */
+	void set(int i, long position, int size, int hash) {
+		
+		positions[i] = position;
+		sizes[i] = size;
+		hashes[i] = hash;
+	}
+
+	/**
+	 * change the position of an entry, when its record is moved in the file
+	 * 
+	 * @param i entry number
+	 * @param position position in file
+	 */
+	void setPosition(int i, long position) {
+		positions[i] = position;
+	}
+
+	/**
+	 * remove an entry, moving the entries after it down by one
+	 * 
+	 * @param i entry number
+	 */
+	void remove(int i) {
+
+		renumbered++;
+		final int moved = count - i - 1;
+		if (moved > 0) {
+			System.arraycopy(positions, i + 1, positions, i, moved);
+			System.arraycopy(sizes, i + 1, sizes, i, moved);
+			System.arraycopy(hashes, i + 1, hashes, i, moved);
+		}
+		count--;
+	}
+
+	/**
+	 * remove an entry by moving the last entry into its place. This does not
+	 * keep the order of the entries, but does not need to move the others.
+	 * 
+	 * @param i entry number
+	 */
+	void removeBySwap(int i) {
+		
+		renumbered++;
+		final int last = count - 1;
+		if (i != last) {
+			set(i, positions[last], sizes[last], hashes[last]);
+		}
+		count--;
+	}
+
+	/**
+	 * remove all entries and release the memory
+	 */
+	void clear() {
+		
+		positions = new long[INITIAL_CAPACITY];
+		sizes = new int[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		count = 0;
+		renumbered++;
+	}
+
+	/**
+	 * count of the changes that gave entries other numbers: inserts before the last
+	 * entry, removes and clears. Entry numbers taken from the index are still valid
+	 * while the count does not change.
+	 * 
+	 * @return int count of changes
+	 */
+	int renumbered() {
+		return renumbered;
+	}
+
+	/**
+	 * entries of the records in a range of the file, in the order of their positions
+	 */
+	static final class Order {
+		
+		final int[] entries;
+		final long[] positions;
+		
+		Order(int size) {
+			entries = new int[size];
+			positions = new long[size];
+		}
+		
+		int size() {
+			return entries.length;
+		}
+	}
+
+	/**
+	 * find the entries of the records starting from the first record at or after 
+	 * a position, up to 'span' bytes after that record, sorted by position.
+	 * 
+	 * @param from position in file
+	 * @param span number of bytes of the file to include
+	 * @return Order of the entries, empty if there are no records after 'from'
+	 */
+	Order orderByPosition(long from, long span) {
+		
+		long first = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			if (positions[i] >= from && positions[i] < first) {
+				first = positions[i];
+			}
+		}
+		if (first == Long.MAX_VALUE) {
+			return new Order(0);
+		}
+		
+		final long end = first + span;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (positions[i] >= first && positions[i] < end) {
+				n++;
+			}
+		}
+		final Order order = new Order(n);
+		n = 0;
+		for (int i = 0; i < count; i++) {
+			if (positions[i] >= first && positions[i] < end) {
+				order.entries[n] = i;
+				order.positions[n] = positions[i];
+				n++;
+			}
+		}
+		sort(order.positions, order.entries, 0, n - 1);
+		return order;
+	}
+
+	/**
+	 * sort the keys, and the values with them, between two indices inclusive
+	 */
+	private static void sort(long[] keys, int[] values, int low, int high) {
+		
+		while (high - low > 16) {
+			// median of three as the pivot, so records already in order split evenly
+			final int mid = (low + high) >>> 1;
+			if (keys[mid] < keys[low]) swap(keys, values, mid, low);
+			if (keys[high] < keys[low]) swap(keys, values, high, low);
+			if (keys[high] < keys[mid]) swap(keys, values, high, mid);
+			final long pivot = keys[mid];
+			
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (keys[i] < pivot) i++;
+				while (keys[j] > pivot) j--;
+				if (i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+			// recurse into the smaller part, so the stack stays shallow
+			if (j - low < high - i) {
+				sort(keys, values, low, j);
+				low = i;
+			} else {
+				sort(keys, values, i, high);
+				high = j;
+			}
+		}
+		
+		for (int i = low + 1; i <= high; i++) {
+			final long key = keys[i];
+			final int value = values[i];
+			int j = i - 1;
+			while (j >= low && keys[j] > key) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			values[j + 1] = value;
+		}
+	}
+
+	private static void swap(long[] keys, int[] values, int i, int j) {
+		
+		final long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		final int value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	/**
+	 * find the next entry with a hash
+	 * 
+	 * @param hash hash to find
+	 * @param from first entry to check
+	 * @return int entry number, or -1 if there are no more entries with the hash
+	 */
+	int nextHash(int hash, int from) {
+		
+		final int[] h = hashes;
+		for (int i = from; i < count; i++) {
+			if (h[i] == hash) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * hash of the entries, computed from the hashes of the objects in the 
+	 * same way as List.hashCode
+	 * 
+	 * @return integer hash
+	 */
+	public int hashCode() {
+		
+		final int[] h = hashes;
+		int hashCode = 1;
+		for (int i = 0; i < count; i++) {
+			hashCode = 31 * hashCode + h[i];
+		}
+		return hashCode;
+	}
+
+	/**
+	 * write the entries to a channel as three columns, the positions, sizes and 
+	 * hashes, in little endian order
+	 * 
+	 * @param channel channel to write to
+	 * @param checksum checksum updated with the bytes written
+	 * @throws IOException
+	 */
+	void write(FileChannel channel, Checksum checksum) throws IOException {
+		
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < count; ) {
+			final int n = Math.min(count - i, CHUNK_SIZE / Long.BYTES);
+			buffer.clear();
+			buffer.asLongBuffer().put(positions, i, n);
+			buffer.limit(n * Long.BYTES);
+			Checkpoint.drain(channel, buffer, checksum);
+			i += n;
+		}
+		for (int[] column : new int[][] { sizes, hashes }) {
+			for (int i = 0; i < count; ) {
+				final int n = Math.min(count - i, CHUNK_SIZE / Integer.BYTES);
+				buffer.clear();
+				buffer.asIntBuffer().put(column, i, n);
+				buffer.limit(n * Integer.BYTES);
+				Checkpoint.drain(channel, buffer, checksum);
+				i += n;
+			}
+		}
+	}
+
+	/**
+	 * read entries written by write
+	 * 
+	 * @param channel channel to read from
+	 * @param count number of entries
+	 * @param checksum checksum updated with the bytes read
+	 * @return Index holding the entries
+	 * @throws IOException
+	 */
+	static Index read(FileChannel channel, int count, Checksum checksum) throws IOException {
+		
+		final Index index = new Index();
+		final int capacity = Math.max(count, INITIAL_CAPACITY);
+		index.positions = new long[capacity];
+		index.sizes = new int[capacity];
+		index.hashes = new int[capacity];
+		
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < count; ) {
+			final int n = Math.min(count - i, CHUNK_SIZE / Long.BYTES);
+			Checkpoint.fill(channel, buffer, n * Long.BYTES, checksum);
+			buffer.asLongBuffer().get(index.positions, i, n);
+			i += n;
+		}
+		for (int[] column : new int[][] { index.sizes, index.hashes }) {
+			for (int i = 0; i < count; ) {
+				final int n = Math.min(count - i, CHUNK_SIZE / Integer.BYTES);
+				Checkpoint.fill(channel, buffer, n * Integer.BYTES, checksum);
+				buffer.asIntBuffer().get(column, i, n);
+				i += n;
+			}
+		}
+		index.count = count;
+		return index;
+	}
+
+	private void grow() {
+		
+		final int capacity = positions.length + (positions.length >> 1);
+		positions = Arrays.copyOf(positions, capacity);
+		sizes = Arrays.copyOf(sizes, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+	}
+}
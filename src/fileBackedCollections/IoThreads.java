@@ -0,0 +1,48 @@
+package fileBackedCollections;
+/**
+ * threads for reading the backing files in the background, so the calling 
+ * thread can work on data already read. Reads block, so they are not run on 
+ * the fork-join pool used for computation. A cleaner thread closes the files
+ * of collections that are garbage collected without being closed.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class IoThreads {
+
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	private static final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+		final Thread thread = new Thread(task, "filebackedcollection-io-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final Cleaner cleaner = Cleaner.create(task -> new Thread(task, "filebackedcollection-cleaner"));
+
+	private IoThreads() {
+	}
+
+	/**
+	 * executor for background reads
+	 * 
+	 * @return ExecutorService with daemon threads
+	 */
+	static ExecutorService executor() {
+		return executor;
+	}
+
+	/**
+	 * cleaner for the files of collections that are not closed
+	 * 
+	 * @return Cleaner with a daemon thread
+	 */
+	static Cleaner cleaner() {
+		return cleaner;
+	}
+}
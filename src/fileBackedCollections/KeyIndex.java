@@ -0,0 +1,658 @@
+package fileBackedCollections;
+/**
+ * the keys of a FileBackedHashMap, kept in a file of fixed size pages by
+ * extendible hashing. Only the directory, the page number for each value of the
+ * low bits of the hash, is held in memory; a page holds the keys whose hashes
+ * share its low bits, and is split in two on the next bit when it is full. A
+ * lookup reads one page, and the pages read most often are kept in a cache.
+ *
+ * Each page is encrypted with its own sequence number, and an entry holds the
+ * hash of the key, the slot of its value and the encoded key. Keys longer than
+ * MAX_INLINE_KEY are stored in a list beside the pages, and the entry holds the
+ * index of the key in that list.
+ *
+ *   page:  0  long  sequence number
+ *          8  int   next page of the chain, when the page can not be split
+ *         12  int   depth, the number of low bits of the hash the keys share
+ *         16  int   count of entries
+ *         20  int   end of the entries
+ *
+ *   entry: 0  int   hash of the key
+ *          4  int   slot of the value
+ *          8  int   length of the key bytes, or -1 - index of a long key
+ *         12        key bytes
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+
+final class KeyIndex<K> {
+
+	/**
+	 * size of a page in bytes
+	 */
+	static final int PAGE_SIZE = 4096;
+
+	/**
+	 * longest key stored in a page
+	 */
+	static final int MAX_INLINE_KEY = 1024;
+
+	/**
+	 * default number of pages in the cache, 4 MB
+	 */
+	static final int CACHE_PAGES = 1024;
+
+	/**
+	 * pages this deep are chained instead of split, which limits the directory
+	 * to 2^24 pages when many keys have the same hash
+	 */
+	private static final int MAX_DEPTH = 24;
+
+	private static final int HEADER_SIZE = 24;
+	private static final int ENTRY_SIZE = 12; // entry without the key bytes
+	private static final int NONE = -1;
+
+	private final Codec<K> codec;
+	private final StorageType storageType;
+	private final Protection protection;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private File tempFile = null;
+	private Storage file = null;
+	private Cleaner.Cleanable pageFile = null; // closes and deletes the file of pages
+	private RecordCipher cipher = null;
+	private volatile ReadCache<byte[]> cache = new ReadCache<byte[]>(CACHE_PAGES, (long) CACHE_PAGES * PAGE_SIZE);
+	private FileBackedArrayList<byte[]> longKeys = null;
+	private final CollectionStats stats; // stats of the map the keys are in
+
+	private int[] directory = new int[] { 0 };
+	private int depth = 0; // low bits of the hash that select the page
+	private int pageCount = 0;
+	private long sequence = 0; // sequence number of the next page written
+	private int count = 0;
+
+	/**
+	 * create an empty index in a temporary file
+	 *
+	 * @param codec converts the keys to and from bytes
+	 * @param storageType storage engine for the file of pages
+	 * @param protection how the pages are protected
+	 * @param stats counts the pages read and written
+	 * @throws IOException
+	 */
+	KeyIndex(Codec<K> codec, StorageType storageType, Protection protection, CollectionStats stats) throws IOException {
+
+		this.codec = codec;
+		this.storageType = storageType;
+		this.protection = protection;
+		this.stats = stats;
+
+		tempFile = File.createTempFile("filebackedcollection", "keys", null);
+		tempFile.deleteOnExit();
+		file = storageType.open(tempFile);
+		pageFile = IoThreads.cleaner().register(this, new PageFile(file, tempFile));
+		cipher = protection.newCipher();
+		write(0, newPage(0));
+	}
+
+	/**
+	 * closes and deletes the file of pages, when the index is closed or when it is
+	 * collected without being closed. It holds no reference to the index.
+	 */
+	private static final class PageFile implements Runnable {
+
+		private final Storage file;
+		private final File tempFile;
+
+		PageFile(Storage file, File tempFile) {
+			this.file = file;
+			this.tempFile = tempFile;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				file.close();
+			} catch (IOException e) {
+				// the file is deleted all the same
+			}
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * spread the hash code of a key, so its low bits select the page
+	 *
+	 * @param key key, not null
+	 * @return int hash
+	 */
+	static int hash(Object key) {
+
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * number of keys
+	 *
+	 * @return int count
+	 */
+	int size() {
+
+		lock.readLock().lock();
+		try {
+			return count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * find the slot of the value of a key
+	 *
+	 * @param key key to look for, not null
+	 * @return int slot, or -1 if the key is not in the index
+	 * @throws IOException
+	 */
+	int get(Object key) throws IOException {
+
+		final byte[] bytes = encode(key);
+		if (bytes == null) {
+			return NONE;
+		}
+		final int hash = hash(key);
+		lock.readLock().lock();
+		try {
+			final long found = find(hash, bytes, key);
+			return found == NONE ? NONE : ByteBuffer.wrap(page((int) (found >>> 32))).getInt((int) found + 4);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * add a key if it is not in the index
+	 *
+	 * @param key key to add, not null
+	 * @param slot slot of the value of the key
+	 * @return int slot of the key already in the index, or -1 if the key was added
+	 * @throws IOException
+	 */
+	int putIfAbsent(K key, int slot) throws IOException {
+
+		final byte[] bytes = codec.encode(key);
+		final int hash = hash(key);
+		lock.writeLock().lock();
+		try {
+			final long found = find(hash, bytes, key);
+			if (found != NONE) {
+				return ByteBuffer.wrap(page((int) (found >>> 32))).getInt((int) found + 4);
+			}
+			insert(hash, bytes, slot);
+			count++;
+			return NONE;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * remove a key
+	 *
+	 * @param key key to remove, not null
+	 * @return int slot of the value of the key, or -1 if the key was not in the index
+	 * @throws IOException
+	 */
+	int remove(Object key) throws IOException {
+
+		final byte[] bytes = encode(key);
+		if (bytes == null) {
+			return NONE;
+		}
+		final int hash = hash(key);
+		lock.writeLock().lock();
+		try {
+			final long found = find(hash, bytes, key);
+			if (found == NONE) {
+				return NONE;
+			}
+			final int number = (int) (found >>> 32);
+			final int offset = (int) found;
+			final byte[] page = page(number);
+			final ByteBuffer buffer = ByteBuffer.wrap(page);
+			final int slot = buffer.getInt(offset + 4);
+			final int length = buffer.getInt(offset + 8);
+			if (length < 0) {
+				longKeys.set(-1 - length, null);
+			}
+
+			final int size = ENTRY_SIZE + Math.max(0, length);
+			final int end = buffer.getInt(20);
+			System.arraycopy(page, offset + size, page, offset, end - offset - size);
+			Arrays.fill(page, end - size, end, (byte) 0);
+			buffer.putInt(16, buffer.getInt(16) - 1);
+			buffer.putInt(20, end - size);
+			write(number, page);
+			count--;
+			return slot;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * remove all keys
+	 *
+	 * @throws IOException
+	 */
+	void clear() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			file.truncate(0);
+			cache.clear();
+			if (longKeys != null) {
+				longKeys.clear();
+			}
+			directory = new int[] { 0 };
+			depth = 0;
+			pageCount = 0;
+			count = 0;
+			write(0, newPage(0));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * call an action with each key and the slot of its value, in the order of
+	 * the pages in the file
+	 *
+	 * @param action called with the key and the slot
+	 * @throws IOException
+	 */
+	void forEach(ObjIntConsumer<? super K> action) throws IOException {
+
+		final Cursor cursor = new Cursor();
+		while (cursor.next()) {
+			action.accept(cursor.key(), cursor.slot());
+		}
+	}
+
+	/**
+	 * start reading the entries from the first page
+	 *
+	 * @return Cursor before the first entry
+	 */
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * reads the entries in the order of the pages in the file. Each page is
+	 * copied before its keys are decoded, so only the keys of one page are held
+	 * at a time, and the index may be changed between pages, though keys moved
+	 * by a change may then be missed or seen twice.
+	 */
+	final class Cursor {
+
+		private int number = 0; // next page to read
+		private final ArrayList<K> keys = new ArrayList<K>();
+		private int[] slots = new int[64];
+		private int next = 0;
+		private K key = null;
+		private int slot = NONE;
+
+		/**
+		 * move to the next entry
+		 *
+		 * @return true if there is an entry, false at the end of the pages
+		 * @throws IOException
+		 */
+		boolean next() throws IOException {
+
+			while (next == keys.size()) {
+				if (!load()) {
+					key = null;
+					slot = NONE;
+					return false;
+				}
+			}
+			key = keys.get(next);
+			slot = slots[next];
+			next++;
+			return true;
+		}
+
+		K key() {
+			return key;
+		}
+
+		int slot() {
+			return slot;
+		}
+
+		/**
+		 * decode the entries of the next page
+		 *
+		 * @return false if there are no more pages
+		 */
+		private boolean load() throws IOException {
+
+			final byte[] page;
+			lock.readLock().lock();
+			try {
+				if (number >= pageCount) {
+					return false;
+				}
+				page = page(number++).clone();
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			keys.clear();
+			next = 0;
+			final ByteBuffer buffer = ByteBuffer.wrap(page);
+			final int end = buffer.getInt(20);
+			int offset = HEADER_SIZE;
+			while (offset < end) {
+				final int length = buffer.getInt(offset + 8);
+				final K decoded;
+				if (length >= 0) {
+					decoded = codec.decode(page, offset + ENTRY_SIZE, length);
+				} else {
+					final byte[] bytes = longKey(-1 - length);
+					if (bytes == null) {
+						// removed since the page was copied
+						offset += ENTRY_SIZE;
+						continue;
+					}
+					decoded = codec.decode(bytes, 0, bytes.length);
+				}
+				if (keys.size() == slots.length) {
+					slots = Arrays.copyOf(slots, slots.length * 2);
+				}
+				slots[keys.size()] = buffer.getInt(offset + 4);
+				keys.add(decoded);
+				offset += ENTRY_SIZE + Math.max(0, length);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * keep recently read pages in memory
+	 *
+	 * @param maxPages maximum number of pages in the cache
+	 */
+	void setCache(int maxPages) {
+		cache = new ReadCache<byte[]>(Math.max(1, maxPages), (long) Math.max(1, maxPages) * PAGE_SIZE);
+	}
+
+	/**
+	 * size of the file of pages and the long keys
+	 *
+	 * @return long count of bytes
+	 */
+	long fileSize() {
+
+		lock.readLock().lock();
+		try {
+			return (long) pageCount * PAGE_SIZE + (longKeys != null ? longKeys.fileSize() : 0);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * close and delete the file of pages
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			if (file == null) {
+				return;
+			}
+			file = null;
+			pageFile.clean();
+			cache.clear();
+			if (longKeys != null) {
+				longKeys.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * encode a key that may not be of the type of the codec
+	 *
+	 * @return byte array, or null if the codec can not encode the key
+	 */
+	@SuppressWarnings("unchecked")
+	private byte[] encode(Object key) throws IOException {
+
+		try {
+			return codec.encode((K) key);
+		} catch (ClassCastException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * find the entry of a key
+	 *
+	 * @return long page number in the high word and offset of the entry in the
+	 * low word, or -1 if the key is not in the index
+	 */
+	private long find(int hash, byte[] bytes, Object key) throws IOException {
+
+		int number = directory[hash & (directory.length - 1)];
+		while (number != NONE) {
+			final byte[] page = page(number);
+			final ByteBuffer buffer = ByteBuffer.wrap(page);
+			final int end = buffer.getInt(20);
+			int offset = HEADER_SIZE;
+			while (offset < end) {
+				final int length = buffer.getInt(offset + 8);
+				if (buffer.getInt(offset) == hash && matches(page, offset, length, bytes, key)) {
+					return (long) number << 32 | offset;
+				}
+				offset += ENTRY_SIZE + Math.max(0, length);
+			}
+			number = buffer.getInt(8);
+		}
+		return NONE;
+	}
+
+	/**
+	 * check if an entry with the same hash holds a key. Equal keys are nearly
+	 * always encoded the same way, the key is only decoded when they are not.
+	 */
+	private boolean matches(byte[] page, int offset, int length, byte[] bytes, Object key) throws IOException {
+
+		if (length >= 0) {
+			return Arrays.equals(page, offset + ENTRY_SIZE, offset + ENTRY_SIZE + length, bytes, 0, bytes.length)
+					|| key.equals(codec.decode(page, offset + ENTRY_SIZE, length));
+		}
+		final byte[] stored = longKey(-1 - length);
+		return Arrays.equals(stored, bytes) || key.equals(codec.decode(stored, 0, stored.length));
+	}
+
+	private byte[] longKey(int index) {
+		return longKeys.get(index);
+	}
+
+	/**
+	 * add an entry to the page its hash selects, splitting the page until it
+	 * has room
+	 */
+	private void insert(int hash, byte[] bytes, int slot) throws IOException {
+
+		int length = bytes.length;
+		if (length > MAX_INLINE_KEY) {
+			if (longKeys == null) {
+				longKeys = new FileBackedArrayList<byte[]>(Codecs.BYTES, storageType, protection);
+				longKeys.useStats(stats);
+			}
+			longKeys.add(bytes);
+			length = -longKeys.size();
+		}
+		final int size = ENTRY_SIZE + Math.max(0, length);
+
+		while (true) {
+			int number = directory[hash & (directory.length - 1)];
+			byte[] page = page(number);
+			final int pageDepth = ByteBuffer.wrap(page).getInt(12);
+			if (PAGE_SIZE - ByteBuffer.wrap(page).getInt(20) < size && pageDepth < MAX_DEPTH) {
+				split(number, page);
+				continue;
+			}
+
+			// a page at the deepest level has a chain of pages
+			while (PAGE_SIZE - ByteBuffer.wrap(page).getInt(20) < size) {
+				final int next = ByteBuffer.wrap(page).getInt(8);
+				if (next == NONE) {
+					ByteBuffer.wrap(page).putInt(8, pageCount);
+					write(number, page);
+					number = pageCount;
+					page = newPage(pageDepth);
+				} else {
+					number = next;
+					page = page(next);
+				}
+			}
+
+			final ByteBuffer buffer = ByteBuffer.wrap(page);
+			final int end = buffer.getInt(20);
+			buffer.putInt(end, hash);
+			buffer.putInt(end + 4, slot);
+			buffer.putInt(end + 8, length);
+			if (length >= 0) {
+				System.arraycopy(bytes, 0, page, end + ENTRY_SIZE, length);
+			}
+			buffer.putInt(16, buffer.getInt(16) + 1);
+			buffer.putInt(20, end + size);
+			write(number, page);
+			return;
+		}
+	}
+
+	/**
+	 * split a page on the next bit of the hash, doubling the directory if the
+	 * page is as deep as the directory
+	 */
+	private void split(int number, byte[] page) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(page);
+		final int pageDepth = buffer.getInt(12);
+		if (pageDepth == depth) {
+			final int[] doubled = Arrays.copyOf(directory, directory.length * 2);
+			System.arraycopy(directory, 0, doubled, directory.length, directory.length);
+			directory = doubled;
+			depth++;
+		}
+
+		final byte[] low = newPage(pageDepth + 1);
+		final byte[] high = newPage(pageDepth + 1);
+		final ByteBuffer lowBuffer = ByteBuffer.wrap(low);
+		final ByteBuffer highBuffer = ByteBuffer.wrap(high);
+		final int end = buffer.getInt(20);
+		int offset = HEADER_SIZE;
+		while (offset < end) {
+			final int size = ENTRY_SIZE + Math.max(0, buffer.getInt(offset + 8));
+			final ByteBuffer target = (buffer.getInt(offset) >>> pageDepth & 1) == 0 ? lowBuffer : highBuffer;
+			final int targetEnd = target.getInt(20);
+			System.arraycopy(page, offset, target.array(), targetEnd, size);
+			target.putInt(16, target.getInt(16) + 1);
+			target.putInt(20, targetEnd + size);
+			offset += size;
+		}
+
+		final int highNumber = pageCount;
+		write(number, low);
+		write(highNumber, high);
+		for (int i = 0; i < directory.length; i++) {
+			if (directory[i] == number && (i >>> pageDepth & 1) == 1) {
+				directory[i] = highNumber;
+			}
+		}
+	}
+
+	private static byte[] newPage(int pageDepth) {
+
+		final byte[] page = new byte[PAGE_SIZE];
+		final ByteBuffer buffer = ByteBuffer.wrap(page);
+		buffer.putInt(8, NONE);
+		buffer.putInt(12, pageDepth);
+		buffer.putInt(20, HEADER_SIZE);
+		return page;
+	}
+
+	/**
+	 * read a page, from the cache if it is there
+	 *
+	 * @param number page number
+	 * @return byte array of the decrypted page
+	 */
+	private byte[] page(int number) throws IOException {
+
+		final ReadCache<byte[]> pages = cache;
+		byte[] page = pages.get(number);
+		if (page == null) {
+			page = new byte[PAGE_SIZE];
+			final long started = stats.time();
+			file.read((long) number * PAGE_SIZE, page, 0, PAGE_SIZE);
+			stats.read(PAGE_SIZE, started);
+			final long decrypting = stats.time();
+			cipher.transform(page, Long.BYTES, PAGE_SIZE - Long.BYTES, ByteBuffer.wrap(page).getLong(0));
+			stats.ciphered(decrypting);
+			pages.put(number, page, PAGE_SIZE);
+		}
+		return page;
+	}
+
+	/**
+	 * write a page with a new sequence number, appending it if it is a new page
+	 *
+	 * @param number page number
+	 * @param page decrypted page, kept in the cache
+	 */
+	private void write(int number, byte[] page) throws IOException {
+
+		final long nonce = sequence++;
+		ByteBuffer.wrap(page).putLong(0, nonce);
+		final byte[] record = page.clone();
+		final long started = stats.time();
+		cipher.transform(record, Long.BYTES, PAGE_SIZE - Long.BYTES, nonce);
+		final long encrypted = stats.ciphered(started);
+		if (number == pageCount) {
+			file.append(record, 0, PAGE_SIZE);
+			pageCount++;
+		} else {
+			file.write((long) number * PAGE_SIZE, record, 0, PAGE_SIZE);
+		}
+		stats.wrote(PAGE_SIZE, encrypted);
+		// the cache keeps an old copy of the page if it is only put again
+		final ReadCache<byte[]> pages = cache;
+		pages.remove(number);
+		pages.put(number, page, PAGE_SIZE);
+	}
+}
@@ -0,0 +1,65 @@
+package fileBackedCollections;
+/**
+ * protection in the style of the original file backed collections, combining 
+ * each record with bytes from java.util.Random. This is a medium level encryption
+ * designed to make the data stored in the file non-obvious to thwart simple 
+ * inspection. Each record is seeded from a key for the backing file and the nonce
+ * of the record, where the original scheme used a seed kept with each entry, so 
+ * it can not read bytes written by the original scheme; those were only ever in
+ * temporary files.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+
+class LegacyCipher implements RecordCipher {
+
+	// random key for the backing file, combined with the nonce to seed each record
+	private final long masterSeed;
+	
+	/**
+	 * create a cipher with a new random key
+	 */
+	LegacyCipher() {
+		masterSeed = new SecureRandom().nextLong();
+	}
+	
+	/**
+	 * create a cipher with a saved key
+	 * 
+	 * @param key key returned by key()
+	 */
+	LegacyCipher(byte[] key) {
+		
+		if (key.length != Long.BYTES) {
+			throw new IllegalArgumentException("LegacyCipher: key must be " + Long.BYTES + " bytes");
+		}
+		masterSeed = ByteBuffer.wrap(key).getLong();
+	}
+	
+	@Override
+	public byte[] key() {
+		return ByteBuffer.allocate(Long.BYTES).putLong(masterSeed).array();
+	}
+
+	/**
+	 * XOR the data with the same bytes Random.nextBytes would produce for the seed,
+	 * without the shared Random and the array of random bytes.
+	 */
+	@Override
+	public void transform(byte[] data, int offset, int length, long nonce) {
+
+		final Random random = new Random(masterSeed ^ (nonce * 0x9E3779B97F4A7C15L));
+		final int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			int rnd = random.nextInt();
+			for (int n = Math.min(end - i, Integer.BYTES); n-- > 0; rnd >>= Byte.SIZE) {
+				data[i++] ^= (byte) rnd;
+			}
+		}
+	}
+}
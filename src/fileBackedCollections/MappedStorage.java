@@ -0,0 +1,400 @@
+package fileBackedCollections;
+/**
+ * storage engine that maps the backing file into memory as a list of fixed size
+ * segments. Reads and appends are copies to and from the mapped memory, so there 
+ * are no system calls except when a new segment is mapped. 
+ * 
+ * The file grows a whole segment at a time, and is truncated to the length of
+ * the stored data when the storage is closed. Until then the bytes after the
+ * stored data are still in the file, so truncate zeroes the bytes it discards,
+ * and a file that was not closed holds nothing but zeros after its data.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+class MappedStorage implements Storage {
+
+	/**
+	 * size of each mapped segment, 64 MB
+	 */
+	static final int SEGMENT_BITS = 26;
+	static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/**
+	 * bytes zeroed at a time by truncate, a page
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ReentrantLock lock = new ReentrantLock(); // guards appends, writes and the mapping
+	
+	// replaced with a larger copy when a segment is added, so readers
+	// always see a complete array
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private volatile long tail;
+
+	MappedStorage(File backingFile) throws IOException {
+		
+		file = new RandomAccessFile(backingFile, "rw");
+		channel = file.getChannel();
+		tail = channel.size();
+		try {
+			ensureCapacity(tail);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * map segments until the storage holds at least 'capacity' bytes
+	 * 
+	 * @param capacity number of bytes needed
+	 * @throws IOException
+	 */
+	private void ensureCapacity(long capacity) throws IOException {
+
+		final int needed = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_BITS);
+		MappedByteBuffer[] current = segments;
+		if (needed <= current.length) {
+			return;
+		}
+
+		final MappedByteBuffer[] grown = new MappedByteBuffer[needed];
+		System.arraycopy(current, 0, grown, 0, current.length);
+		for (int i = current.length; i < needed; i++) {
+			grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, 
+					(long) i << SEGMENT_BITS, SEGMENT_SIZE);
+		}
+		segments = grown;
+	}
+
+	@Override
+	public long append(byte[] bytes, int offset, int length) throws IOException {
+
+		lock.lock();
+		try {
+			if (segments == null) {
+				throw new IOException("storage is closed");
+			}
+			final long position = tail;
+			ensureCapacity(position + length);
+			
+			final MappedByteBuffer[] segs = segments;
+			long pos = position;
+			int off = offset;
+			int remaining = length;
+			while (remaining > 0) {
+				final int segOffset = (int) (pos & SEGMENT_MASK);
+				final int count = Math.min(remaining, SEGMENT_SIZE - segOffset);
+				segs[(int) (pos >>> SEGMENT_BITS)].put(segOffset, bytes, off, count);
+				pos += count;
+				off += count;
+				remaining -= count;
+			}
+			tail = pos;
+			return position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long append(ByteBuffer[] buffers) throws IOException {
+
+		lock.lock();
+		try {
+			final long position = tail;
+			for (ByteBuffer buffer : buffers) {
+				final int length = buffer.remaining();
+				if (buffer.hasArray()) {
+					append(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				} else {
+					append(buffer);
+				}
+				buffer.position(buffer.limit());
+			}
+			return position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * append the bytes remaining in a buffer that has no array, such as a direct
+	 * or mapped buffer, copying them straight into the mapped memory. The position 
+	 * of the buffer is not changed.
+	 */
+	private void append(ByteBuffer buffer) throws IOException {
+
+		if (segments == null) {
+			throw new IOException("storage is closed");
+		}
+		final int length = buffer.remaining();
+		ensureCapacity(tail + length);
+
+		final MappedByteBuffer[] segs = segments;
+		long pos = tail;
+		int off = buffer.position();
+		int remaining = length;
+		while (remaining > 0) {
+			final int segOffset = (int) (pos & SEGMENT_MASK);
+			final int count = Math.min(remaining, SEGMENT_SIZE - segOffset);
+			segs[(int) (pos >>> SEGMENT_BITS)].put(segOffset, buffer, off, count);
+			pos += count;
+			off += count;
+			remaining -= count;
+		}
+		tail = pos;
+	}
+
+	@Override
+	public void read(long position, byte[] bytes, int offset, int length) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + length > tail) {
+			throw new IOException("read past end of storage " + (position + length));
+		}
+		
+		long pos = position;
+		int off = offset;
+		int remaining = length;
+		while (remaining > 0) {
+			final int segOffset = (int) (pos & SEGMENT_MASK);
+			final int count = Math.min(remaining, SEGMENT_SIZE - segOffset);
+			segs[(int) (pos >>> SEGMENT_BITS)].get(segOffset, bytes, off, count);
+			pos += count;
+			off += count;
+			remaining -= count;
+		}
+	}
+
+	@Override
+	public void write(long position, byte[] bytes, int offset, int length) throws IOException {
+
+		lock.lock();
+		try {
+			final MappedByteBuffer[] segs = segments;
+			if (segs == null) {
+				throw new IOException("storage is closed");
+			}
+			if (position + length > tail) {
+				throw new IOException("write past end of storage " + (position + length));
+			}
+			
+			long pos = position;
+			int off = offset;
+			int remaining = length;
+			while (remaining > 0) {
+				final int segOffset = (int) (pos & SEGMENT_MASK);
+				final int count = Math.min(remaining, SEGMENT_SIZE - segOffset);
+				segs[(int) (pos >>> SEGMENT_BITS)].put(segOffset, bytes, off, count);
+				pos += count;
+				off += count;
+				remaining -= count;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * read a long from the mapped memory with no copy. The long may not cross the 
+	 * end of a segment, which is true of any long at a position that is a multiple of 8.
+	 * 
+	 * @param position position in the storage
+	 * @return long stored at the position
+	 * @throws IOException
+	 */
+	long getLong(long position) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + Long.BYTES > tail) {
+			throw new IOException("read past end of storage " + (position + Long.BYTES));
+		}
+		return segs[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * read an int from the mapped memory with no copy, at a position that is a multiple of 4
+	 * 
+	 * @param position position in the storage
+	 * @return int stored at the position
+	 * @throws IOException
+	 */
+	int getInt(long position) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + Integer.BYTES > tail) {
+			throw new IOException("read past end of storage " + (position + Integer.BYTES));
+		}
+		return segs[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * overwrite a long that is already stored, at a position that is a multiple of 8
+	 * 
+	 * @param position position in the storage
+	 * @param value long to store
+	 * @throws IOException
+	 */
+	void putLong(long position, long value) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + Long.BYTES > tail) {
+			throw new IOException("write past end of storage " + (position + Long.BYTES));
+		}
+		segs[(int) (position >>> SEGMENT_BITS)].putLong((int) (position & SEGMENT_MASK), value);
+	}
+
+	/**
+	 * overwrite an int that is already stored, at a position that is a multiple of 4
+	 * 
+	 * @param position position in the storage
+	 * @param value int to store
+	 * @throws IOException
+	 */
+	void putInt(long position, int value) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + Integer.BYTES > tail) {
+			throw new IOException("write past end of storage " + (position + Integer.BYTES));
+		}
+		segs[(int) (position >>> SEGMENT_BITS)].putInt((int) (position & SEGMENT_MASK), value);
+	}
+
+	/**
+	 * a read only view of stored bytes in the mapped memory, with no copy. The
+	 * view ends at the end of the segment holding the position if the bytes cross it.
+	 * 
+	 * @param position position in the storage
+	 * @param length number of bytes wanted
+	 * @return ByteBuffer holding the bytes from the position, up to 'length' of them
+	 * @throws IOException
+	 */
+	ByteBuffer slice(long position, int length) throws IOException {
+
+		final MappedByteBuffer[] segs = segments;
+		if (segs == null) {
+			throw new IOException("storage is closed");
+		}
+		if (position + length > tail) {
+			throw new IOException("read past end of storage " + (position + length));
+		}
+		final int segOffset = (int) (position & SEGMENT_MASK);
+		final int count = Math.min(length, SEGMENT_SIZE - segOffset);
+		return segs[(int) (position >>> SEGMENT_BITS)].slice(segOffset, count).asReadOnlyBuffer();
+	}
+
+	/**
+	 * the mapped segments are kept, and the file is truncated when the storage is 
+	 * closed. The discarded bytes are zeroed, skipping pages that are already zero
+	 * so the unused end of a segment is not written.
+	 */
+	@Override
+	public void truncate(long length) throws IOException {
+
+		lock.lock();
+		try {
+			final MappedByteBuffer[] segs = segments;
+			if (segs == null) {
+				throw new IOException("storage is closed");
+			}
+			final ByteBuffer zeros = ByteBuffer.wrap(Record.zeros(PAGE_SIZE), 0, PAGE_SIZE);
+			long pos = length;
+			while (pos < tail) {
+				final int segOffset = (int) (pos & SEGMENT_MASK);
+				final int count = (int) Math.min(tail - pos, PAGE_SIZE - (segOffset & (PAGE_SIZE - 1)));
+				final MappedByteBuffer seg = segs[(int) (pos >>> SEGMENT_BITS)];
+				if (seg.slice(segOffset, count).mismatch(zeros.slice(0, count)) != -1) {
+					seg.put(segOffset, zeros, 0, count);
+				}
+				pos += count;
+			}
+			if (length < tail) {
+				tail = length;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long length() {
+		return tail;
+	}
+
+	/**
+	 * appends are copied straight into the mapped memory, so nothing is buffered
+	 */
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void force() throws IOException {
+
+		lock.lock();
+		try {
+			final MappedByteBuffer[] segs = segments;
+			if (segs == null) {
+				throw new IOException("storage is closed");
+			}
+			final int used = (int) ((tail + SEGMENT_MASK) >>> SEGMENT_BITS);
+			for (int i = 0; i < used; i++) {
+				segs[i].force();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * drop the mappings and truncate the file to the stored data. The mapped memory 
+	 * is released when the buffers are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		lock.lock();
+		try {
+			if (segments == null) {
+				return;
+			}
+			segments = null;
+			try {
+				channel.truncate(tail);
+			} catch (IOException e) {
+				// some platforms do not allow truncating a file that is still mapped
+			}
+			file.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
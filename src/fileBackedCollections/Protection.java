@@ -0,0 +1,60 @@
+package fileBackedCollections;
+/**
+ * the ways the records in the backing file can be protected from inspection
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+public enum Protection {
+
+	/**
+	 * store the records as they are, with no cost to read and write
+	 */
+	NONE,
+
+	/**
+	 * encrypt the records with AES in counter mode, using a random key for each collection
+	 */
+	AES,
+
+	/**
+	 * an XOR with bytes of java.util.Random seeded for each record, as cheap and as
+	 * weak as the original scheme, but not able to read bytes written by it
+	 */
+	LEGACY;
+
+	/**
+	 * create the cipher for a collection
+	 * 
+	 * @return RecordCipher for this kind of protection
+	 */
+	RecordCipher newCipher() {
+
+		switch (this) {
+		case AES:
+			return new AesCipher();
+		case LEGACY:
+			return new LegacyCipher();
+		default:
+			return RecordCipher.NONE;
+		}
+	}
+	
+	/**
+	 * create the cipher for a collection opened again, with its saved key
+	 * 
+	 * @param key key of the cipher the collection was written with
+	 * @return RecordCipher for this kind of protection
+	 */
+	RecordCipher newCipher(byte[] key) {
+		
+		switch (this) {
+		case AES:
+			return new AesCipher(key);
+		case LEGACY:
+			return new LegacyCipher(key);
+		default:
+			return RecordCipher.NONE;
+		}
+	}
+}
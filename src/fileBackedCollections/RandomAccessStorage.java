@@ -0,0 +1,207 @@
+package fileBackedCollections;
+/**
+ * storage engine using a RandomAccessFile. Reads use positional reads of the
+ * file channel, which do not move a shared file pointer, so they need no lock
+ * and any number of threads can read at the same time.
+ * 
+ * Appended bytes are collected in a buffer and written to the end of the 
+ * file in large sequential writes, when the buffer is full, before a read 
+ * of bytes still in the buffer and when the storage is flushed or closed.
+ * The end of the file is tracked in memory so appends do not ask the file 
+ * for its length. Changes hold a ReentrantLock rather than a monitor, so a 
+ * virtual thread waiting for the disk does not pin its carrier thread.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+class RandomAccessStorage implements Storage {
+
+	/**
+	 * size of the append buffer, 1 MB
+	 */
+	static final int BUFFER_SIZE = 1 << 20;
+
+	private final RandomAccessFile file;
+	private final ReentrantLock lock = new ReentrantLock(); // guards appends, writes and the buffer
+	private final FileChannel channel;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int buffered = 0; // number of bytes in the buffer
+	private volatile long tail; // length of the stored data, including the buffer
+	private volatile long flushed; // length of the data written to the file
+
+	RandomAccessStorage(File backingFile) throws IOException {
+		file = new RandomAccessFile(backingFile, "rw");
+		channel = file.getChannel();
+		tail = file.length();
+		flushed = tail;
+	}
+
+	@Override
+	public long append(byte[] bytes, int offset, int length) throws IOException {
+
+		lock.lock();
+		try {
+			final long position = tail;
+			if (buffered + length > BUFFER_SIZE) {
+				flushBuffer();
+			}
+			if (length >= BUFFER_SIZE) {
+				// too large to be worth copying
+				file.seek(position);
+				file.write(bytes, offset, length);
+				flushed = position + length;
+			} else {
+				System.arraycopy(bytes, offset, buffer, buffered, length);
+				buffered += length;
+			}
+			tail = position + length;
+			return position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long append(ByteBuffer[] buffers) throws IOException {
+
+		lock.lock();
+		try {
+			flushBuffer();
+			final long position = tail;
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers) {
+				remaining += buffer.remaining();
+			}
+			final long length = remaining;
+			
+			channel.position(position);
+			while (remaining > 0) {
+				remaining -= channel.write(buffers);
+			}
+			flushed = position + length;
+			tail = position + length;
+			return position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void read(long position, byte[] bytes, int offset, int length) throws IOException {
+
+		if (position + length > flushed) {
+			lock.lock();
+			try {
+				flushBuffer();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		final ByteBuffer target = ByteBuffer.wrap(bytes, offset, length);
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position() - offset) < 0) {
+				throw new EOFException("read past end of storage " + (position + length));
+			}
+		}
+	}
+
+	@Override
+	public void write(long position, byte[] bytes, int offset, int length) throws IOException {
+
+		lock.lock();
+		try {
+			if (position + length > tail) {
+				throw new IOException("write past end of storage " + (position + length));
+			}
+			if (position + length > flushed) {
+				flushBuffer();
+			}
+			final ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+			while (source.hasRemaining()) {
+				channel.write(source, position + source.position() - offset);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void truncate(long length) throws IOException {
+
+		lock.lock();
+		try {
+			flushBuffer();
+			if (length < tail) {
+				channel.truncate(length);
+				flushed = length;
+				tail = length;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long length() {
+		return tail;
+	}
+
+	@Override
+	public void flush() throws IOException {
+
+		lock.lock();
+		try {
+			flushBuffer();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void force() throws IOException {
+
+		lock.lock();
+		try {
+			flushBuffer();
+			channel.force(false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		lock.lock();
+		try {
+			flushBuffer();
+			file.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * write the buffered bytes to the end of the file
+	 * 
+	 * @throws IOException
+	 */
+	private void flushBuffer() throws IOException {
+
+		if (buffered > 0) {
+			file.seek(flushed);
+			file.write(buffer, 0, buffered);
+			flushed += buffered;
+			buffered = 0;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package fileBackedCollections;
+/**
+ * bounded cache of the objects read from the backing file, so frequently read 
+ * objects are not read and deserialized every time.
+ * 
+ * The objects are keyed by the position of their record in the file, so 
+ * inserting or removing items in the collection does not move the cached 
+ * objects to other keys. A position does not always hold the same record: set 
+ * can write over a record of a temporary file, holes are used again by new 
+ * records, and compaction moves records down over others. The collection removes
+ * a position from the cache when it writes a record there or releases the record,
+ * removes both the old and new positions of the records compaction moves, and 
+ * clears the cache when the file is truncated. Writes and moves hold the record
+ * lock, so an object read while they ran is removed again after it is cached; an
+ * object cached after its record was released is removed when the hole is used.
+ * 
+ * Eviction uses a segmented LRU: new objects go into a probation segment and 
+ * are moved to the protected segment when they are read again. An object read 
+ * only once, for example in a scan of the whole collection, only displaces 
+ * other objects in probation, so the frequently read objects stay cached.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class ReadCache<E> {
+
+	/**
+	 * share of the capacity for the protected segment
+	 */
+	private static final double PROTECTED_SHARE = 0.8;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final int maxProtected;
+	
+	// least recently used first
+	private final LinkedHashMap<Long, Entry<E>> probation = new LinkedHashMap<Long, Entry<E>>(16, 0.75f, true);
+	private final LinkedHashMap<Long, Entry<E>> protect = new LinkedHashMap<Long, Entry<E>>(16, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	private static final class Entry<E> {
+		
+		final E object;
+		final int size;
+		
+		Entry(E object, int size) {
+			this.object = object;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * create a cache
+	 * 
+	 * @param maxEntries maximum number of objects held
+	 * @param maxBytes maximum total size of the records of the objects held
+	 */
+	ReadCache(int maxEntries, long maxBytes) {
+		
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.maxProtected = (int) (maxEntries * PROTECTED_SHARE);
+	}
+
+	/**
+	 * get a cached object
+	 * 
+	 * @param position position of the record in the file
+	 * @return the object, or null if it is not cached
+	 */
+	synchronized E get(long position) {
+
+		final Long key = position;
+		Entry<E> entry = protect.get(key);
+		if (entry == null) {
+			entry = probation.remove(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			// read again, so promote it
+			protect.put(key, entry);
+			if (protect.size() > maxProtected) {
+				final Iterator<Map.Entry<Long, Entry<E>>> oldest = protect.entrySet().iterator();
+				final Map.Entry<Long, Entry<E>> demoted = oldest.next();
+				oldest.remove();
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+		}
+		hits++;
+		return entry.object;
+	}
+
+	/**
+	 * add an object read from the file
+	 * 
+	 * @param position position of the record in the file
+	 * @param object object read
+	 * @param size size of the record in bytes
+	 */
+	synchronized void put(long position, E object, int size) {
+
+		if (size > maxBytes) {
+			return;
+		}
+		final Entry<E> old = probation.put(position, new Entry<E>(object, size));
+		if (old != null) {
+			bytes -= old.size;
+		}
+		bytes += size;
+		
+		while (probation.size() + protect.size() > maxEntries || bytes > maxBytes) {
+			final LinkedHashMap<Long, Entry<E>> segment = probation.isEmpty() ? protect : probation;
+			final Iterator<Entry<E>> oldest = segment.values().iterator();
+			bytes -= oldest.next().size;
+			oldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * remove the object for a record that is no longer used
+	 * 
+	 * @param position position of the record in the file
+	 */
+	synchronized void remove(long position) {
+
+		final Long key = position;
+		Entry<E> entry = probation.remove(key);
+		if (entry == null) {
+			entry = protect.remove(key);
+		}
+		if (entry != null) {
+			bytes -= entry.size;
+		}
+	}
+
+	/**
+	 * remove all objects
+	 */
+	synchronized void clear() {
+		
+		probation.clear();
+		protect.clear();
+		bytes = 0;
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+	synchronized long evictions() {
+		return evictions;
+	}
+}
@@ -0,0 +1,229 @@
+package fileBackedCollections;
+/**
+ * layout of a record in the backing file. Each record starts with a header
+ * that describes it, followed by the encrypted bytes of the item:
+ *
+ *   0  int   magic number, and flags in the low byte
+ *   4  int   size of the item bytes
+ *   8  int   slot of the item, the same for each version of the item
+ *  12  int   hash of the item
+ *  16  long  sequence number of the record
+ *  24  int   CRC32C of the header from the size on, and the item bytes
+ *
+ * The sequence number is the nonce the record is encrypted with; it is unique
+ * in the file and stays with the record when the record is moved, so records
+ * can be copied to another position without encrypting them again. With the
+ * rest of the header the index can be recovered from the records alone, and
+ * the checksum finds records that were not completely written.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+final class Record {
+
+	/**
+	 * size of the record header in bytes
+	 */
+	static final int HEADER_SIZE = 28;
+
+	/**
+	 * records start at multiples of this, so a scan of the file only looks
+	 * for headers at these positions
+	 */
+	static final int ALIGNMENT = 8;
+
+	/**
+	 * flag of a record holding a null item, which has no item bytes
+	 */
+	static final int NULL = 1;
+
+	/**
+	 * flag of a record no longer used by the collection
+	 */
+	static final int DEAD = 2;
+
+	/**
+	 * flag of a record whose item bytes are compressed
+	 */
+	static final int DEFLATED = 4;
+
+	/**
+	 * flag of a compressed record that needs the dictionary of the collection
+	 */
+	static final int DICTIONARY = 8;
+
+	private static final int MAGIC = 0x46425200; // FBR, and a byte of flags
+	private static final int MAGIC_MASK = 0xffffff00;
+	private static final int CHECKED = 4; // start of the part of the header in the checksum
+	private static final int CHECKSUM = 24; // position of the checksum in the header
+
+	private static final byte[] PADDING = new byte[4096];
+
+	private Record() {
+	}
+
+	/**
+	 * size of the slot the record of an item is stored in. Slots are rounded up
+	 * to size classes, eight for each power of two, so a record can be replaced
+	 * in place by a slightly larger one, and the hole left by a record can be
+	 * used by any record of the same class.
+	 *
+	 * @param size size of the item bytes, or Index.NULL_SIZE
+	 * @return int size of the slot
+	 */
+	static int length(int size) {
+
+		final int length = HEADER_SIZE + Math.max(0, size);
+		final int step = Math.max(ALIGNMENT, Integer.highestOneBit(length) >>> 3);
+		return (length + step - 1) & -step;
+	}
+
+	/**
+	 * unused bytes at the end of the slot of a record
+	 *
+	 * @param size size of the item bytes, or Index.NULL_SIZE
+	 * @return int count of bytes
+	 */
+	static int slack(int size) {
+		return length(size) - HEADER_SIZE - Math.max(0, size);
+	}
+
+	/**
+	 * zero bytes to fill the slack of a slot with. The array may be longer
+	 * than needed and is shared, it must not be changed.
+	 *
+	 * @param length count of bytes needed
+	 * @return byte array of at least 'length' zeros
+	 */
+	static byte[] zeros(int length) {
+		return length <= PADDING.length ? PADDING : new byte[length];
+	}
+
+	/**
+	 * create the header of a record
+	 *
+	 * @param size size of the item bytes, or Index.NULL_SIZE for a null item
+	 * @param flags how the item bytes are compressed
+	 * @param slot slot of the item
+	 * @param hash hash of the item
+	 * @param sequence sequence number of the record
+	 * @param bytes encrypted item bytes, or null for a null item
+	 * @return byte array holding the header
+	 */
+	static byte[] header(int size, int flags, int slot, int hash, long sequence, byte[] bytes) {
+		return header(size, flags, slot, hash, sequence, bytes != null ? ByteBuffer.wrap(bytes) : null);
+	}
+
+	/**
+	 * create the header of a record whose item bytes are in a buffer
+	 *
+	 * @param size size of the item bytes, or Index.NULL_SIZE for a null item
+	 * @param flags how the item bytes are compressed
+	 * @param slot slot of the item
+	 * @param hash hash of the item
+	 * @param sequence sequence number of the record
+	 * @param bytes buffer holding the encrypted item bytes from its position to
+	 * its limit, which are not changed, or null for a null item
+	 * @return byte array holding the header
+	 */
+	static byte[] header(int size, int flags, int slot, int hash, long sequence, ByteBuffer bytes) {
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC | flags | (size == Index.NULL_SIZE ? NULL : 0));
+		header.putInt(Math.max(0, size));
+		header.putInt(slot);
+		header.putInt(hash);
+		header.putLong(sequence);
+
+		final CRC32C checksum = new CRC32C();
+		checksum.update(header.array(), CHECKED, CHECKSUM - CHECKED);
+		if (bytes != null) {
+			checksum.update(bytes.duplicate());
+		}
+		header.putInt((int) checksum.getValue());
+		return header.array();
+	}
+
+	/**
+	 * the first word of the header of a record that is no longer used, written
+	 * over the record so a recovery does not take it for a live one
+	 *
+	 * @return byte array of Integer.BYTES bytes
+	 */
+	static byte[] dead() {
+		return ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC | DEAD).array();
+	}
+
+	/**
+	 * check if the bytes at an offset start with the magic number of a header
+	 *
+	 * @param record array holding the bytes
+	 * @param offset start of the header in the array
+	 * @return true if there may be a header at the offset
+	 */
+	static boolean isHeader(byte[] record, int offset) {
+		return (ByteBuffer.wrap(record).getInt(offset) & MAGIC_MASK) == MAGIC;
+	}
+
+	static int flags(byte[] record, int offset) {
+		return flags(ByteBuffer.wrap(record).getInt(offset));
+	}
+
+	/**
+	 * the flags in the first word of the header of a record
+	 *
+	 * @param word int at the start of the record
+	 * @return int flags
+	 */
+	static int flags(int word) {
+		return word & ~MAGIC_MASK;
+	}
+
+	/**
+	 * read the size of the item bytes from the header of a record
+	 *
+	 * @param record array holding the record
+	 * @param offset start of the record in the array
+	 * @return int size, 0 for a null item
+	 */
+	static int size(byte[] record, int offset) {
+		return ByteBuffer.wrap(record).getInt(offset + 4);
+	}
+
+	static int slot(byte[] record, int offset) {
+		return ByteBuffer.wrap(record).getInt(offset + 8);
+	}
+
+	static int hash(byte[] record, int offset) {
+		return ByteBuffer.wrap(record).getInt(offset + 12);
+	}
+
+	/**
+	 * read the sequence number from the header of a record
+	 *
+	 * @param record array holding the record
+	 * @param offset start of the record in the array
+	 * @return long sequence number
+	 */
+	static long sequence(byte[] record, int offset) {
+		return ByteBuffer.wrap(record).getLong(offset + 16);
+	}
+
+	/**
+	 * check the checksum of a record
+	 *
+	 * @param record array holding the header and the item bytes of the record
+	 * @param offset start of the record in the array
+	 * @return true if the record was completely written
+	 */
+	static boolean verify(byte[] record, int offset) {
+
+		final CRC32C checksum = new CRC32C();
+		checksum.update(record, offset + CHECKED, CHECKSUM - CHECKED);
+		checksum.update(record, offset + HEADER_SIZE, size(record, offset));
+		return (int) checksum.getValue() == ByteBuffer.wrap(record).getInt(offset + CHECKSUM);
+	}
+}
@@ -0,0 +1,45 @@
+package fileBackedCollections;
+/**
+ * protects the records stored in the backing file. The bytes are transformed
+ * in place, and transforming the protected bytes again with the same nonce 
+ * gives back the original bytes.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+interface RecordCipher {
+
+	/**
+	 * cipher that stores the records as they are
+	 */
+	RecordCipher NONE = new RecordCipher() {
+		
+		@Override
+		public void transform(byte[] data, int offset, int length, long nonce) {
+		}
+		
+		@Override
+		public byte[] key() {
+			return new byte[0];
+		}
+	};
+
+	/**
+	 * encrypt or decrypt the bytes of a record in place
+	 * 
+	 * @param data array holding the record
+	 * @param offset start of the record in the array
+	 * @param length number of bytes in the record
+	 * @param nonce value unique to the record, the same value must be used to
+	 * encrypt and decrypt
+	 */
+	void transform(byte[] data, int offset, int length, long nonce);
+	
+	/**
+	 * the key of the cipher, saved with the index of a collection so the 
+	 * file can be read when it is opened again
+	 * 
+	 * @return byte array holding the key
+	 */
+	byte[] key();
+}
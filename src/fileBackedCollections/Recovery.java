@@ -0,0 +1,370 @@
+package fileBackedCollections;
+/**
+ * rebuilds the index of a collection from the records in its backing file,
+ * when the file has no checkpoint that matches it. The file is divided into
+ * chunks that are scanned in parallel for record headers; each record found is
+ * checked with its checksum, and the latest version of each slot is kept. A
+ * chunk starts in the middle of a record, so it finds its first record by
+ * looking for a header at each aligned position, and the chunks are then
+ * joined where the records of the previous chunk end.
+ *
+ * A record marked dead keeps its slot and sequence number, so it outranks the
+ * copies of the same version that compaction left behind, and older versions;
+ * the copies that lose are marked dead in the file too, so they are not
+ * recovered once the record that outranks them is written over.
+ *
+ * Items are recovered in the order of their slots. Slots are given to items as
+ * they are added, so the order is exact for lists changed with add, set and
+ * remove. An item inserted with add(index, item) is recovered after the items
+ * added before it.
+ *
+ * Matthew Clark  2021
+ *
+ */
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+final class Recovery {
+
+	/**
+	 * smallest part of the file scanned by one thread, 16 MB
+	 */
+	private static final long MIN_CHUNK = 16 << 20;
+
+	/**
+	 * bytes read at a time by a scan, 4 MB
+	 */
+	private static final int BLOCK_SIZE = 4 << 20;
+
+	final Index index = new Index();
+	long sequence = 0; // sequence number of the next record
+	int nextSlot = 0; // slot of the next item added
+	long liveBytes = 0;
+	long length = 0; // end of the last complete record
+	boolean torn = false; // there is an incomplete record after the last complete one
+	long records = 0; // count of complete records found
+
+	private Recovery() {
+	}
+
+	/**
+	 * scan a backing file and rebuild its index
+	 *
+	 * @param storage backing file
+	 * @param holes gets the slots of dead records, and of versions that are not the latest
+	 * @return Recovery with the index and the state of the collection
+	 * @throws IOException
+	 */
+	static Recovery recover(Storage storage, FreeList holes) throws IOException {
+
+		final long fileLength = storage.length();
+		final int count = (int) Math.max(1, Math.min(fileLength / MIN_CHUNK, 2 * Runtime.getRuntime().availableProcessors()));
+		final long chunkSize = (fileLength / count + Record.ALIGNMENT - 1) & -Record.ALIGNMENT;
+
+		final Chunk[] chunks = new Chunk[count];
+		final CompletableFuture<?>[] scans = new CompletableFuture<?>[count];
+		for (int i = 0; i < count; i++) {
+			final Chunk chunk = chunks[i] = new Chunk(i * chunkSize, i == count - 1 ? fileLength : (i + 1) * chunkSize);
+			scans[i] = CompletableFuture.runAsync(() -> {
+				try {
+					chunk.scan(storage, fileLength);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, IoThreads.executor());
+		}
+		try {
+			CompletableFuture.allOf(scans).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+
+		// the records of a chunk are right if its scan reached the end of the
+		// last record of the chunk before it
+		long position = 0;
+		for (int i = 0; i < count; i++) {
+			if (position >= chunks[i].stop) {
+				// all in a record of an earlier chunk
+				chunks[i] = new Chunk(position, position);
+				continue;
+			}
+			if (chunks[i].liveCount + chunks[i].deadCount > 0 && chunks[i].first < position) {
+				// the scan took bytes in a record for a header, scan again
+				chunks[i] = new Chunk(position, chunks[i].limit);
+				chunks[i].scan(storage, fileLength);
+			}
+			position = chunks[i].stop;
+		}
+
+		final Recovery result = new Recovery();
+		final long[] stale = result.build(chunks, holes);
+		final byte[] dead = Record.dead();
+		for (long record : stale) {
+			storage.write(record, dead, 0, dead.length);
+		}
+		return result;
+	}
+
+	/**
+	 * keep the latest version of each slot, in the order of the slots. A slot
+	 * whose latest version is dead is not recovered.
+	 *
+	 * @return long array of the positions of live records that are not the latest
+	 * version of their slot
+	 */
+	private long[] build(Chunk[] chunks, FreeList holes) {
+
+		int total = 0;
+		for (Chunk chunk : chunks) {
+			total += chunk.liveCount + chunk.deadCount;
+		}
+		final long[] positions = new long[total];
+		final int[] sizes = new int[total];
+		final boolean[] dead = new boolean[total]; // the record is marked dead
+		final int[] lengths = new int[total];
+		final int[] slots = new int[total];
+		final int[] hashes = new int[total];
+		final long[] sequences = new long[total];
+
+		int n = 0;
+		long maxSequence = -1;
+		int maxSlot = 0;
+		boolean any = false;
+		for (Chunk chunk : chunks) {
+			System.arraycopy(chunk.positions, 0, positions, n, chunk.liveCount);
+			System.arraycopy(chunk.sizes, 0, sizes, n, chunk.liveCount);
+			System.arraycopy(chunk.slots, 0, slots, n, chunk.liveCount);
+			System.arraycopy(chunk.hashes, 0, hashes, n, chunk.liveCount);
+			System.arraycopy(chunk.sequences, 0, sequences, n, chunk.liveCount);
+			for (int i = 0; i < chunk.liveCount; i++) {
+				lengths[n + i] = Record.length(chunk.sizes[i]);
+			}
+			n += chunk.liveCount;
+			
+			System.arraycopy(chunk.deadPositions, 0, positions, n, chunk.deadCount);
+			System.arraycopy(chunk.deadLengths, 0, lengths, n, chunk.deadCount);
+			System.arraycopy(chunk.deadSlots, 0, slots, n, chunk.deadCount);
+			System.arraycopy(chunk.deadSequences, 0, sequences, n, chunk.deadCount);
+			Arrays.fill(dead, n, n + chunk.deadCount, true);
+			n += chunk.deadCount;
+
+			final int found = chunk.liveCount + chunk.deadCount;
+			if (found > 0 && (!any || Integer.compareUnsigned(chunk.maxSlot, maxSlot) > 0)) {
+				maxSlot = chunk.maxSlot;
+				any = true;
+			}
+			maxSequence = Math.max(maxSequence, chunk.maxSequence);
+			length = Math.max(length, chunk.end);
+			records += found;
+		}
+		for (Chunk chunk : chunks) {
+			torn |= chunk.bad >= length;
+		}
+		sequence = maxSequence + 1;
+		nextSlot = any ? maxSlot + 1 : 0;
+
+		// sort by the slot as an unsigned number, then by the record
+		final long[] keys = new long[total];
+		for (int i = 0; i < total; i++) {
+			keys[i] = ((slots[i] & 0xffffffffL) << 32 | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.parallelSort(keys);
+
+		long[] stale = new long[16];
+		int staleCount = 0;
+		int i = 0;
+		while (i < total) {
+			// the version with the highest sequence number, a dead record of the
+			// same version as a live copy wins, as it was marked after the copy
+			int latest = (int) keys[i];
+			int j = i + 1;
+			while (j < total && slots[(int) keys[j]] == slots[latest]) {
+				final int other = (int) keys[j++];
+				if (sequences[other] > sequences[latest] || sequences[other] == sequences[latest] && dead[other]) {
+					latest = other;
+				}
+			}
+			for (int k = i; k < j; k++) {
+				final int record = (int) keys[k];
+				if (record == latest) {
+					continue;
+				}
+				holes.free(positions[record], lengths[record]);
+				if (!dead[record]) {
+					if (staleCount == stale.length) {
+						stale = Arrays.copyOf(stale, staleCount * 2);
+					}
+					stale[staleCount++] = positions[record];
+				}
+			}
+			if (dead[latest]) {
+				holes.free(positions[latest], lengths[latest]);
+			} else {
+				index.add(index.size(), positions[latest], sizes[latest], hashes[latest]);
+				liveBytes += lengths[latest];
+			}
+			i = j;
+		}
+		return Arrays.copyOf(stale, staleCount);
+	}
+
+	/**
+	 * records found in a part of the file
+	 */
+	private static final class Chunk {
+
+		final long start;
+		final long limit; // the scan stops at the first record at or after this
+		long stop; // where the scan stopped
+		long first = -1; // position of the first record found
+		long end = 0; // end of the slot of the last record found
+		long bad = -1; // position of the last header of a record that is not complete
+		long maxSequence = -1;
+		int maxSlot = 0;
+
+		// records in use
+		int liveCount = 0;
+		long[] positions = new long[64];
+		int[] sizes = new int[64];
+		int[] slots = new int[64];
+		int[] hashes = new int[64];
+		long[] sequences = new long[64];
+
+		// records marked dead
+		int deadCount = 0;
+		long[] deadPositions = new long[16];
+		int[] deadLengths = new int[16];
+		int[] deadSlots = new int[16];
+		long[] deadSequences = new long[16];
+
+		// bytes of the file being scanned
+		private byte[] window = null;
+		private long windowStart = 0;
+		private int windowLength = 0;
+
+		Chunk(long start, long limit) {
+			this.start = start;
+			this.limit = limit;
+			this.stop = Math.max(start, limit);
+		}
+
+		/**
+		 * look for records from the start of the chunk to its limit
+		 */
+		void scan(Storage storage, long fileLength) throws IOException {
+
+			long position = start;
+			while (position < limit && position + Record.HEADER_SIZE <= fileLength) {
+				int offset = load(storage, position, Record.HEADER_SIZE, fileLength);
+				if (isHeader(window, offset, fileLength - position)) {
+					offset = load(storage, position, Record.HEADER_SIZE + Record.size(window, offset), fileLength);
+					if (Record.verify(window, offset)) {
+						position += found(window, offset, position);
+						continue;
+					}
+					bad = position;
+				} else if (Record.isHeader(window, offset)) {
+					bad = position;
+				}
+				position += Record.ALIGNMENT;
+			}
+			stop = position;
+			window = null;
+		}
+
+		/**
+		 * make sure bytes from a position are in the window, reading the file
+		 * from the position if they are not
+		 *
+		 * @return int offset of the position in the window
+		 */
+		private int load(Storage storage, long position, int needed, long fileLength) throws IOException {
+
+			if (window != null && position >= windowStart && position + needed <= windowStart + windowLength) {
+				return (int) (position - windowStart);
+			}
+			if (window == null || window.length < needed) {
+				window = new byte[(int) Math.max(needed, Math.min(BLOCK_SIZE, limit - start + Record.HEADER_SIZE))];
+			}
+			windowLength = (int) Math.min(window.length, fileLength - position);
+			windowStart = position;
+			storage.read(position, window, 0, windowLength);
+			return 0;
+		}
+
+		/**
+		 * check if the bytes at an offset can be the header of a record that 
+		 * ends before the end of the file
+		 */
+		private static boolean isHeader(byte[] bytes, int offset, long remaining) {
+
+			if (!Record.isHeader(bytes, offset) || (Record.flags(bytes, offset) & ~(Record.NULL | Record.DEAD | Record.DEFLATED | Record.DICTIONARY)) != 0) {
+				return false;
+			}
+			final int size = Record.size(bytes, offset);
+			if ((Record.flags(bytes, offset) & Record.NULL) != 0) {
+				return size == 0;
+			}
+			return size >= 0 && Record.HEADER_SIZE + (long) size <= remaining;
+		}
+
+		/**
+		 * add a complete record
+		 *
+		 * @return int length of the slot of the record
+		 */
+		private int found(byte[] bytes, int offset, long position) {
+
+			final int flags = Record.flags(bytes, offset);
+			final int size = (flags & Record.NULL) != 0 ? Index.NULL_SIZE : Record.size(bytes, offset);
+			final int slot = Record.slot(bytes, offset);
+			final int length = Record.length(size);
+
+			if (first == -1) {
+				first = position;
+			}
+			end = position + length;
+			maxSequence = Math.max(maxSequence, Record.sequence(bytes, offset));
+			if (liveCount + deadCount == 0 || Integer.compareUnsigned(slot, maxSlot) > 0) {
+				maxSlot = slot;
+			}
+
+			if ((flags & Record.DEAD) != 0) {
+				if (deadCount == deadPositions.length) {
+					deadPositions = Arrays.copyOf(deadPositions, deadCount * 2);
+					deadLengths = Arrays.copyOf(deadLengths, deadCount * 2);
+					deadSlots = Arrays.copyOf(deadSlots, deadCount * 2);
+					deadSequences = Arrays.copyOf(deadSequences, deadCount * 2);
+				}
+				deadPositions[deadCount] = position;
+				deadLengths[deadCount] = length;
+				deadSlots[deadCount] = slot;
+				deadSequences[deadCount] = Record.sequence(bytes, offset);
+				deadCount++;
+				return length;
+			}
+
+			if (liveCount == positions.length) {
+				final int capacity = liveCount * 2;
+				positions = Arrays.copyOf(positions, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+				slots = Arrays.copyOf(slots, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+				sequences = Arrays.copyOf(sequences, capacity);
+			}
+			positions[liveCount] = position;
+			sizes[liveCount] = size;
+			slots[liveCount] = slot;
+			hashes[liveCount] = Record.hash(bytes, offset);
+			sequences[liveCount] = Record.sequence(bytes, offset);
+			liveCount++;
+			return length;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package fileBackedCollections;
+/**
+ * open addressing hash table from the hash of an object to the slots of the 
+ * collection that hold objects with that hash. Several slots can have the 
+ * same hash, the caller checks each candidate slot against the object.
+ * 
+ * The table holds only primitive arrays, a slot and its hash for each cell,
+ * and uses linear probing with backward shift deletion so there are no
+ * tombstones to slow down lookups after removals.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+class SlotTable implements Serializable {
+
+	private static final long serialVersionUID = -4183361590232413342L;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int EMPTY = -1;
+
+	private int[] slots;
+	private int[] hashes;
+	private int mask;
+	private int count;
+
+	SlotTable() {
+		clear();
+	}
+
+	/**
+	 * number of slots in the table
+	 * 
+	 * @return integer count
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * remove all slots
+	 */
+	void clear() {
+		
+		slots = new int[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		Arrays.fill(slots, EMPTY);
+		mask = INITIAL_CAPACITY - 1;
+		count = 0;
+	}
+
+	/**
+	 * find a slot with the hash that is accepted by the test
+	 * 
+	 * @param hash hash of the object
+	 * @param match test of a candidate slot, for example reading the object and comparing it
+	 * @return the slot, or -1 if no slot matches
+	 */
+	int find(int hash, IntPredicate match) {
+
+		for (int i = spread(hash) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+			if (hashes[i] == hash && match.test(slots[i])) {
+				return slots[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * add a slot to the table
+	 * 
+	 * @param hash hash of the object in the slot
+	 * @param slot slot number
+	 */
+	void insert(int hash, int slot) {
+
+		if (count + 1 > (slots.length >> 1) + (slots.length >> 2)) {
+			resize(slots.length << 1);
+		}
+		int i = spread(hash) & mask;
+		while (slots[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = slot;
+		hashes[i] = hash;
+		count++;
+	}
+
+	/**
+	 * remove a slot from the table
+	 * 
+	 * @param hash hash of the object in the slot
+	 * @param slot slot number
+	 * @return true if the slot was in the table
+	 */
+	boolean remove(int hash, int slot) {
+
+		final int i = cell(hash, slot);
+		if (i == -1) {
+			return false;
+		}
+		
+		// shift back the following cells of the probe sequence so 
+		// lookups do not stop at the hole
+		int hole = i;
+		for (int j = (hole + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+			final int home = spread(hashes[j]) & mask;
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				slots[hole] = slots[j];
+				hashes[hole] = hashes[j];
+				hole = j;
+			}
+		}
+		slots[hole] = EMPTY;
+		count--;
+		return true;
+	}
+
+	/**
+	 * change the slot number of an object that has moved in the collection
+	 * 
+	 * @param hash hash of the object
+	 * @param from old slot number
+	 * @param to new slot number
+	 */
+	void move(int hash, int from, int to) {
+
+		final int i = cell(hash, from);
+		if (i != -1) {
+			slots[i] = to;
+		}
+	}
+
+	/**
+	 * find the cell holding a slot
+	 * 
+	 * @param hash hash of the object in the slot
+	 * @param slot slot number
+	 * @return cell number, or -1 if the slot is not in the table
+	 */
+	private int cell(int hash, int slot) {
+
+		for (int i = spread(hash) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+			if (slots[i] == slot) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void resize(int capacity) {
+
+		final int[] oldSlots = slots;
+		final int[] oldHashes = hashes;
+		
+		slots = new int[capacity];
+		hashes = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		mask = capacity - 1;
+		
+		for (int j = 0; j < oldSlots.length; j++) {
+			if (oldSlots[j] != EMPTY) {
+				int i = spread(oldHashes[j]) & mask;
+				while (slots[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = oldSlots[j];
+				hashes[i] = oldHashes[j];
+			}
+		}
+	}
+
+	/**
+	 * mix the bits of the object hash, hashCode values such as those of 
+	 * small numbers and short strings differ only in the low bits.
+	 * 
+	 * @param hash object hash
+	 * @return mixed hash
+	 */
+	private static int spread(int hash) {
+		
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,95 @@
+package fileBackedCollections;
+/**
+ * storage engine for the backing file of a file backed collection. The
+ * collection keeps the index of the objects in memory and uses the storage
+ * to append and read the serialized bytes of the objects.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+interface Storage {
+
+	/**
+	 * append bytes to the end of the storage
+	 * 
+	 * @param bytes array holding the data
+	 * @param offset start of the data in the array
+	 * @param length number of bytes to write
+	 * @return long position in the storage the data was written to
+	 * @throws IOException
+	 */
+	long append(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * append the bytes remaining in several buffers to the end of the storage 
+	 * in one gathering write
+	 * 
+	 * @param buffers buffers holding the data, in the order it is stored
+	 * @return long position in the storage the first buffer was written to
+	 * @throws IOException
+	 */
+	long append(ByteBuffer[] buffers) throws IOException;
+
+	/**
+	 * read bytes from the storage into an array
+	 * 
+	 * @param position position in the storage to read from
+	 * @param bytes array to read the data into
+	 * @param offset start position in the array
+	 * @param length number of bytes to read
+	 * @throws IOException
+	 */
+	void read(long position, byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * overwrite bytes that are already stored
+	 * 
+	 * @param position position in the storage to write to
+	 * @param bytes array holding the data
+	 * @param offset start of the data in the array
+	 * @param length number of bytes to write, position + length may not be past the end
+	 * @throws IOException
+	 */
+	void write(long position, byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * discard the stored bytes after a position
+	 * 
+	 * @param length new length of the stored data
+	 * @throws IOException
+	 */
+	void truncate(long length) throws IOException;
+
+	/**
+	 * return the number of bytes stored
+	 * 
+	 * @return long length of the stored data
+	 * @throws IOException
+	 */
+	long length() throws IOException;
+
+	/**
+	 * write any buffered bytes to the file
+	 * 
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * write any buffered bytes and wait until the stored data is on the disk
+	 * 
+	 * @throws IOException
+	 */
+	void force() throws IOException;
+
+	/**
+	 * release the resources used by the storage. The storage
+	 * may not be used after it is closed.
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
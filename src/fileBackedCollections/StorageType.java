@@ -0,0 +1,49 @@
+package fileBackedCollections;
+/**
+ * the kinds of storage engine available for the backing file of a
+ * file backed collection.
+ * 
+ * Matthew Clark  2021
+ * 
+ */
+import java.io.File;
+import java.io.IOException;
+
+public enum StorageType {
+
+	/**
+	 * read and write the file with a RandomAccessFile. Each access
+	 * is a seek and a read or write system call.
+	 */
+	RANDOM_ACCESS,
+
+	/**
+	 * map the file into memory in fixed size segments, so reads and appends 
+	 * are memory copies. The mapping grows a segment at a time as data is added.
+	 */
+	MEMORY_MAPPED;
+
+	/**
+	 * open a storage engine of this type on the file
+	 * 
+	 * @param file backing file
+	 * @return Storage for the file
+	 * @throws IOException
+	 */
+	Storage open(File file) throws IOException {
+
+		switch (this) {
+		case MEMORY_MAPPED:
+			try {
+				return new MappedStorage(file);
+			} catch (IOException e) {
+				// the address space or file system may not allow mapping, fall back to
+				// the random access file
+				System.err.println("StorageType: could not map file, using random access " + e);
+				return new RandomAccessStorage(file);
+			}
+		default:
+			return new RandomAccessStorage(file);
+		}
+	}
+}
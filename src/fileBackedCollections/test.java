@@ -1,136 +1,814 @@
-package fileBackedCollections;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
-import java.util.Set;
-
-
-public class test {
-
-	int NUM = 100000;
-	Random rand = new Random();
-	
-	public static void main(String[] args) throws Throwable {
-				
-		new test().testArrayList();
-		new test().testHashMap();
-		new test().testSet();
-		print("done");
-	}
-	
-	static void print(String item) {
-		System.out.println(item);
-	}
-	
-	void testArrayList() {
-		
-		long start = System.currentTimeMillis();
-		ArrayList<String> t = new FileBackedArrayList<String>();
-		System.out.println("** test ArrayList with " + NUM);
-		
-		for (Integer i = 0; i < NUM; i++) {
-			t.add("item " + i);
-		}
-		//print("item 100 is: " + t.get(100));
-		
-		print("after add() array length: " + t.size());
-		t.clear();
-		print("after clear() array length: " + t.size());
-		
-		for (Integer i = 0; i < NUM; i++) {
-			t.add("item " + i);
-			t.add(String.valueOf(i));
-		}
-
-		// test setting data
-		String setvalue = "xxxxxx";
-		for (int i = 0; i < NUM/3; i++) {
-			t.set(i,setvalue + i);
-		}
-		for (int i = 0; i < NUM/3; i++) {
-			assert t.get(i) == setvalue + i;
-		}
-		print("tested setting items");
-		
-		// test removing data
-		for (int i = 0; i < NUM/3; i++) {
-			t.remove(i);
-		}
-		print("after remove() array length:" + t.size());
-		
-		print("test null value in array slot 1");
-		t.set(1, null);
-		print("retrieved value: " + t.get(1));
-		
-		print("test arrayList with arrays as content");
-		ArrayList<Long[]> u = new FileBackedArrayList<Long[]>();
-		for (int i = 0; i < 10; i++) {
-			Long[] L = new Long[10];
-			for (int j = 0; j < 10; j++) {
-				L[j] = rand.nextLong();
-			}
-			String y = "array: ";
-			for (int j = 0; j < L.length; j++) {
-				y += L[j] + " ";
-			}
-			print(y);
-			u.add(L);
-		}
-		u.add(new Long[5]);
-		for (int i = 0; i < u.size(); i++) {
-			Long[] x = u.get(i);
-			
-			String y = "array: ";
-			for (int j = 0; j < x.length; j++) {
-				y += x[j] + " ";
-			}
-			print(y);
-		}
-		
-		System.out.println("took " + (System.currentTimeMillis() - start)/1000.0 + " ms");
-		
-	}
-	
-	void testSet() {
-		
-		System.out.println("** test Set");
-		Set<String> t = new FileBackedSet<String>();
-		
-		for (int i = 0; i < NUM; i++) {
-			t.add(String.valueOf(rand.nextInt(50000)));
-		}
-		print("adding int 1-100 set size is " + t.size());
-
-	}
-	void testHashMap() {
-		
-		print("** test HashMap");
-		HashMap<String, String> t = new FileBackedHashMap<String, String>();
-
-		for (int i = 0; i < NUM; i++) {
-			t.put(String.valueOf(i), String.valueOf(i*9029349));
-		}
-
-		for (int i = 0; i < NUM; i++) {
-			t.put(String.valueOf(i), String.valueOf(i*1000));
-		}		
-		
-		for (int i = 0; i < NUM; i++) {
-			t.put(String.valueOf(i) + "x", String.valueOf(i*100));
-		}		
-		
-		for (int i = 0; i < NUM/2; i++) {
-			t.remove(String.valueOf(i) + "x");
-		}	
-		
-		t.put("10x", "this is the 10x value");
-		print("hash value 10x " + t.get("10x"));
-		print("hash value 100 " + t.get("100"));
-		t.put(null, "test null value");
-		print("null value stored was " + t.get(null));
-		print("end hash map size " + t.size());;
-	}
-	
-
-}
+package fileBackedCollections;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+public class test {
+
+	int NUM = 100000;
+	Random rand = new Random();
+	
+	public static void main(String[] args) throws Throwable {
+		
+		if (args.length == 3 && args[0].equals("crash")) {
+			// child process of testCrashRecovery
+			crash(new File(args[1]), StorageType.valueOf(args[2]));
+		}
+		if (args.length == 3 && args[0].equals("crashLongs")) {
+			// child process of testLongListReopen
+			crashLongs(new File(args[1]), StorageType.valueOf(args[2]));
+		}
+		new test().testArrayList();
+		new test().testHashMap();
+		new test().testSet();
+		new test().testCache();
+		new test().testIteration();
+		new test().testStreams();
+		new test().testCheckpointReopen();
+		new test().testCompaction();
+		new test().testHoles();
+		new test().testCompression();
+		new test().testKeyIndex();
+		new test().testTreeMap();
+		new test().testPrimitiveLists();
+		new test().testByteList();
+		new test().testStats();
+		new test().testAsync();
+		new test().testCrashRecovery();
+		new test().testLongListReopen();
+		print("done");
+	}
+	
+	static void print(String item) {
+		System.out.println(item);
+	}
+	
+	static void check(boolean ok, String what) {
+		if (!ok) {
+			throw new AssertionError(what);
+		}
+		print("ok: " + what);
+	}
+	
+	/**
+	 * run a copy of this test in another JVM
+	 */
+	static void runChild(String... args) throws IOException, InterruptedException {
+		
+		final String java = ProcessHandle.current().info().command().orElse("java");
+		final ArrayList<String> command = new ArrayList<String>();
+		command.add(java);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(test.class.getName());
+		for (String arg : args) {
+			command.add(arg);
+		}
+		final int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+		check(status == 0, "child " + args[0] + " exited with " + status);
+	}
+	
+	/**
+	 * change a named list and stop the JVM without closing it
+	 */
+	static void crash(File file, StorageType type) throws IOException {
+		
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(file, Codecs.STRING, type, Protection.AES);
+		for (int i = 0; i < 1000; i++) {
+			t.add("item " + i);
+		}
+		for (int i = 0; i < 100; i++) {
+			t.remove(0);
+		}
+		t.compact();
+		for (int i = 0; i < 50; i++) {
+			t.remove(t.size() - 1);
+		}
+		t.set(10, "replaced");
+		t.set(20, null);
+		t.flush();
+		Runtime.getRuntime().halt(0);
+	}
+	
+	void testCrashRecovery() throws Throwable {
+		
+		print("** test recovery of lists that were not closed");
+		for (StorageType type : StorageType.values()) {
+			File file = File.createTempFile("filebackedtest", ".dat");
+			File checkpoint = new File(file.getPath() + Checkpoint.SUFFIX);
+			file.delete();
+			runChild("crash", file.getPath(), type.name());
+			
+			FileBackedArrayList<String> t = new FileBackedArrayList<String>(file, Codecs.STRING, type, Protection.AES);
+			check(t.size() == 850, type + " recovered size " + t.size());
+			check(t.get(0).equals("item 100"), type + " first item " + t.get(0));
+			check(t.get(10).equals("replaced"), type + " replaced item " + t.get(10));
+			check(t.get(20) == null && t.get(21).equals("item 121"), type + " null item " + t.get(20));
+			check(t.get(849).equals("item 949"), type + " last item " + t.get(849));
+			
+			// the recovered list is changed, and opened again from its checkpoint
+			for (int i = 0; i < 10; i++) {
+				t.remove(0);
+			}
+			t.add("new item");
+			t.close();
+			t = new FileBackedArrayList<String>(file, Codecs.STRING, type, Protection.AES);
+			check(t.size() == 841 && t.get(840).equals("new item"), type + " reopened size " + t.size());
+			t.close();
+			file.delete();
+			checkpoint.delete();
+		}
+	}
+	
+	void testArrayList() {
+		
+		long start = System.currentTimeMillis();
+		ArrayList<String> t = new FileBackedArrayList<String>();
+		System.out.println("** test ArrayList with " + NUM);
+		
+		for (Integer i = 0; i < NUM; i++) {
+			t.add("item " + i);
+		}
+		//print("item 100 is: " + t.get(100));
+		
+		print("after add() array length: " + t.size());
+		t.clear();
+		print("after clear() array length: " + t.size());
+		
+		for (Integer i = 0; i < NUM; i++) {
+			t.add("item " + i);
+			t.add(String.valueOf(i));
+		}
+
+		// test setting data
+		String setvalue = "xxxxxx";
+		for (int i = 0; i < NUM/3; i++) {
+			t.set(i,setvalue + i);
+		}
+		for (int i = 0; i < NUM/3; i++) {
+			assert t.get(i).equals(setvalue + i);
+		}
+		print("tested setting items");
+		
+		// test removing data
+		for (int i = 0; i < NUM/3; i++) {
+			t.remove(i);
+		}
+		print("after remove() array length:" + t.size());
+		
+		print("test null value in array slot 1");
+		t.set(1, null);
+		print("retrieved value: " + t.get(1));
+		
+		print("test arrayList with arrays as content");
+		ArrayList<Long[]> u = new FileBackedArrayList<Long[]>();
+		for (int i = 0; i < 10; i++) {
+			Long[] L = new Long[10];
+			for (int j = 0; j < 10; j++) {
+				L[j] = rand.nextLong();
+			}
+			String y = "array: ";
+			for (int j = 0; j < L.length; j++) {
+				y += L[j] + " ";
+			}
+			print(y);
+			u.add(L);
+		}
+		u.add(new Long[5]);
+		for (int i = 0; i < u.size(); i++) {
+			Long[] x = u.get(i);
+			
+			String y = "array: ";
+			for (int j = 0; j < x.length; j++) {
+				y += x[j] + " ";
+			}
+			print(y);
+		}
+		
+		System.out.println("took " + (System.currentTimeMillis() - start) + " ms");
+		
+	}
+	
+	void testSet() {
+		
+		System.out.println("** test Set");
+		Set<String> t = new FileBackedSet<String>();
+		
+		for (int i = 0; i < NUM; i++) {
+			t.add(String.valueOf(rand.nextInt(50000)));
+		}
+		print("adding int 1-100 set size is " + t.size());
+
+	}
+	void testHashMap() {
+		
+		print("** test HashMap");
+		HashMap<String, String> t = new FileBackedHashMap<String, String>();
+
+		for (int i = 0; i < NUM; i++) {
+			t.put(String.valueOf(i), String.valueOf(i*9029349));
+		}
+
+		for (int i = 0; i < NUM; i++) {
+			t.put(String.valueOf(i), String.valueOf(i*1000));
+		}		
+		
+		for (int i = 0; i < NUM; i++) {
+			t.put(String.valueOf(i) + "x", String.valueOf(i*100));
+		}		
+		
+		for (int i = 0; i < NUM/2; i++) {
+			t.remove(String.valueOf(i) + "x");
+		}	
+		
+		t.put("10x", "this is the 10x value");
+		print("hash value 10x " + t.get("10x"));
+		print("hash value 100 " + t.get("100"));
+		t.put(null, "test null value");
+		print("null value stored was " + t.get(null));
+		print("end hash map size " + t.size());;
+	}
+	
+	/**
+	 * add to a named list of longs and stop the JVM without closing it
+	 */
+	static void crashLongs(File file, StorageType type) throws IOException {
+		
+		FileBackedLongList t = new FileBackedLongList(file, type);
+		for (int i = 0; i < 10; i++) {
+			t.addLong(i * 1000L);
+		}
+		t.setLong(3, -3);
+		t.remove(9);
+		t.flush();
+		// counted at once in a mapped file, only when flushed or closed otherwise
+		for (int i = 0; i < 5; i++) {
+			t.addLong(-1);
+		}
+		Runtime.getRuntime().halt(0);
+	}
+	
+	void testLongListReopen() throws Throwable {
+		
+		print("** test reopening lists of longs");
+		for (StorageType type : StorageType.values()) {
+			File file = File.createTempFile("filebackedtest", ".longs");
+			file.delete();
+			FileBackedLongList t = new FileBackedLongList(file, type);
+			long[] values = new long[100000];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = rand.nextLong();
+			}
+			t.addAll(values);
+			t.add(50, 7L);
+			t.remove(0);
+			t.close();
+			
+			t = new FileBackedLongList(file, type);
+			check(t.size() == values.length, type + " reopened size " + t.size());
+			check(t.getLong(49) == 7 && t.getLong(50) == values[50], type + " reopened values");
+			t.clear();
+			t.close();
+			t = new FileBackedLongList(file, type);
+			check(t.size() == 0, type + " reopened after clear " + t.size());
+			t.close();
+			file.delete();
+			
+			runChild("crashLongs", file.getPath(), type.name());
+			t = new FileBackedLongList(file, type);
+			final int expected = type == StorageType.MEMORY_MAPPED ? 14 : 9;
+			check(t.size() == expected, type + " size after halt " + t.size());
+			check(t.getLong(3) == -3 && t.getLong(8) == 8000, type + " values after halt");
+			t.close();
+			file.delete();
+		}
+	}
+	
+	void testCheckpointReopen() throws Throwable {
+		
+		print("** test reopening a named list from its checkpoint");
+		File file = File.createTempFile("filebackedtest", ".dat");
+		File checkpoint = new File(file.getPath() + Checkpoint.SUFFIX);
+		file.delete();
+		ArrayList<String> expected = new ArrayList<String>();
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(file);
+		for (int i = 0; i < 10000; i++) {
+			t.add("item " + i);
+			expected.add("item " + i);
+		}
+		t.set(5, "five");
+		expected.set(5, "five");
+		t.remove(7);
+		expected.remove(7);
+		t.add(3, null);
+		expected.add(3, null);
+		t.checkpoint();
+		t.add("after checkpoint");
+		expected.add("after checkpoint");
+		t.close();
+		check(checkpoint.exists(), "checkpoint written by close");
+		
+		t = new FileBackedArrayList<String>(file);
+		check(t.equals(expected), "reopened list has the items it was closed with");
+		t.close();
+		
+		try {
+			new FileBackedArrayList<String>(file, Codecs.STRING, StorageType.RANDOM_ACCESS, Protection.NONE).close();
+			check(false, "opened with other protection");
+		} catch (IOException e) {
+			check(true, "other protection refused: " + e.getMessage());
+		}
+		file.delete();
+		checkpoint.delete();
+	}
+	
+	void testCompaction() {
+		
+		print("** test compaction");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		ArrayList<String> expected = new ArrayList<String>();
+		for (int i = 0; i < NUM; i++) {
+			t.add("item " + i);
+			expected.add("item " + i);
+		}
+		final long full = t.fileSize();
+		for (int i = NUM - 2; i >= 0; i -= 2) {
+			t.remove(i);
+			expected.remove(i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			// larger items move to new slots, leaving holes behind them
+			t.set(i, "a larger item " + i);
+			expected.set(i, "a larger item " + i);
+		}
+		check(t.getDeadBytes() > 0, "dead bytes before compaction " + t.getDeadBytes());
+		t.compact();
+		check(t.getDeadBytes() == 0, "dead bytes after compaction " + t.getDeadBytes());
+		check(t.fileSize() < full * 2 / 3, "file compacted from " + full + " to " + t.fileSize());
+		check(t.equals(expected), "items kept their order and values");
+		t.add("after compaction");
+		check(t.get(t.size() - 1).equals("after compaction"), "add after compaction");
+	}
+	
+	void testHoles() {
+		
+		print("** test reuse of the holes of removed items");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		for (int i = 0; i < 1000; i++) {
+			t.add(String.format("item %06d", i));
+		}
+		final long length = t.fileSize();
+		for (int i = 0; i < 500; i++) {
+			t.remove(0);
+		}
+		for (int i = 0; i < 500; i++) {
+			t.add(String.format("next %06d", i));
+		}
+		check(t.fileSize() == length, "new items of the same size used the holes, file " + t.fileSize());
+		for (int i = 0; i < 1000; i++) {
+			t.set(i, String.format("same %06d", i));
+		}
+		check(t.fileSize() == length, "items of the same size set in place, file " + t.fileSize());
+		check(t.get(0).equals("same 000000") && t.get(999).equals("same 000999"), "items read back");
+	}
+	
+	void testCompression() throws Throwable {
+		
+		print("** test compression");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			text.append("a line of text that repeats ");
+		}
+		FileBackedArrayList<String> plain = new FileBackedArrayList<String>(Codecs.STRING);
+		FileBackedArrayList<String> packed = new FileBackedArrayList<String>(Codecs.STRING);
+		packed.setCompression(64);
+		for (int i = 0; i < 1000; i++) {
+			plain.add(text + " " + i);
+			packed.add(text + " " + i);
+		}
+		check(packed.fileSize() * 4 < plain.fileSize(), "compressed " + plain.fileSize() + " to " + packed.fileSize());
+		check(packed.equals(plain), "compressed items read back");
+		
+		// small items are compressed with a dictionary, which is saved with the checkpoint
+		File file = File.createTempFile("filebackedtest", ".dat");
+		File checkpoint = new File(file.getPath() + Checkpoint.SUFFIX);
+		file.delete();
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(file);
+		t.setCompression(16);
+		for (int i = 0; i < 5000; i++) {
+			t.add("{\"name\": \"customer " + i + "\", \"status\": \"active\"}");
+		}
+		t.close();
+		t = new FileBackedArrayList<String>(file);
+		check(t.size() == 5000 && t.get(4321).equals("{\"name\": \"customer 4321\", \"status\": \"active\"}"), "small compressed items reopened");
+		t.close();
+		file.delete();
+		checkpoint.delete();
+	}
+	
+	void testKeyIndex() throws Throwable {
+		
+		print("** test the key index of FileBackedHashMap");
+		FileBackedHashMap<String, Integer> t = new FileBackedHashMap<String, Integer>();
+		HashMap<String, Integer> expected = new HashMap<String, Integer>();
+		for (int i = 0; i < NUM * 2; i++) {
+			t.put("key " + i, i);
+			expected.put("key " + i, i);
+		}
+		check(t.fileSize() > (long) KeyIndex.PAGE_SIZE * 100, "pages split as keys were added");
+		for (int i = 0; i < NUM * 2; i += 3) {
+			t.remove("key " + i);
+			expected.remove("key " + i);
+		}
+		
+		// long keys are kept beside the pages
+		StringBuilder longKey = new StringBuilder();
+		while (longKey.length() <= KeyIndex.MAX_INLINE_KEY) {
+			longKey.append("a long key ");
+		}
+		for (int i = 0; i < 100; i++) {
+			t.put(longKey + " " + i, -i);
+			expected.put(longKey + " " + i, -i);
+		}
+		
+		// keys with the same hash code are chained once their page can not be split
+		String[] parts = { "Aa", "BB" };
+		for (int i = 0; i < 512; i++) {
+			StringBuilder key = new StringBuilder();
+			for (int bit = 0; bit < 9; bit++) {
+				key.append(parts[i >>> bit & 1]);
+			}
+			t.put(key.toString(), i);
+			expected.put(key.toString(), i);
+		}
+		
+		check(t.size() == expected.size(), "map size " + t.size());
+		boolean same = true;
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			same &= entry.getValue().equals(t.get(entry.getKey()));
+		}
+		check(same, "every key found with its value");
+		check(!t.containsKey("key 0") && t.containsKey("key 1"), "removed keys are gone");
+		int count = 0;
+		for (String key : t.keySet()) {
+			same &= expected.containsKey(key);
+			count++;
+		}
+		check(same && count == expected.size(), "key set iterates the keys once");
+		t.close();
+	}
+	
+	void testTreeMap() throws Throwable {
+		
+		print("** test FileBackedTreeMap");
+		FileBackedTreeMap<Integer, String> t = new FileBackedTreeMap<Integer, String>();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int i = 0; i < NUM; i++) {
+			final int key = rand.nextInt(NUM * 10);
+			t.put(key, "value " + key);
+			expected.put(key, "value " + key);
+		}
+		check(t.size() == expected.size(), "tree size after random puts " + t.size());
+		check(t.firstKey().equals(expected.firstKey()) && t.lastKey().equals(expected.lastKey()), "first and last keys");
+		final int probe = NUM * 5;
+		check(t.floorKey(probe).equals(expected.floorKey(probe)) && t.higherKey(probe).equals(expected.higherKey(probe)), "floor and higher keys");
+		check(t.subMap(NUM, NUM * 2).size() == expected.subMap(NUM, NUM * 2).size(), "size of a sub map");
+		
+		// nodes are not merged: removals leave leaves under-full, and a range of
+		// removed keys leaves empty leaves, which navigation skips
+		Iterator<Integer> keys = expected.keySet().iterator();
+		while (keys.hasNext()) {
+			final Integer key = keys.next();
+			if (key % 4 != 0 || key >= NUM * 2 && key < NUM * 4) {
+				t.remove(key);
+				keys.remove();
+			}
+		}
+		check(t.ceilingKey(NUM * 2).equals(expected.ceilingKey(NUM * 2)) && t.lowerKey(NUM * 4).equals(expected.lowerKey(NUM * 4)), "navigation across empty leaves");
+		check(t.subMap(NUM * 2, NUM * 4).isEmpty(), "sub map of removed keys is empty");
+		check(t.pollFirstEntry().getKey().equals(expected.pollFirstEntry().getKey()), "poll the first entry");
+		boolean same = t.size() == expected.size();
+		Iterator<Map.Entry<Integer, String>> entries = t.entrySet().iterator();
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			final Map.Entry<Integer, String> stored = entries.next();
+			same &= stored.getKey().equals(entry.getKey()) && stored.getValue().equals(entry.getValue());
+		}
+		check(same && !entries.hasNext(), "entries iterate in key order after removals");
+		
+		FileBackedTreeMap<Integer, String> loaded = new FileBackedTreeMap<Integer, String>(expected);
+		check(loaded.equals(expected), "bulk loaded copy");
+		check(loaded.descendingMap().firstKey().equals(expected.lastKey()), "descending map");
+		t.close();
+		loaded.close();
+	}
+	
+	void testPrimitiveLists() throws Throwable {
+		
+		print("** test lists of ints and doubles");
+		for (StorageType type : StorageType.values()) {
+			FileBackedIntList ints = new FileBackedIntList(type);
+			FileBackedDoubleList doubles = new FileBackedDoubleList(type);
+			ArrayList<Integer> expectedInts = new ArrayList<Integer>();
+			ArrayList<Double> expectedDoubles = new ArrayList<Double>();
+			for (int i = 0; i < 1000; i++) {
+				ints.addInt(-i);
+				expectedInts.add(-i);
+				doubles.addDouble(i / 3.0);
+				expectedDoubles.add(i / 3.0);
+			}
+			ints.addAll(new int[] { 7, 8, 9 });
+			expectedInts.addAll(java.util.Arrays.asList(7, 8, 9));
+			ints.add(10, 100);
+			expectedInts.add(10, 100);
+			ints.remove(20);
+			expectedInts.remove(20);
+			ints.setInt(0, Integer.MIN_VALUE);
+			expectedInts.set(0, Integer.MIN_VALUE);
+			doubles.set(5, Double.NaN);
+			expectedDoubles.set(5, Double.NaN);
+			doubles.remove(999);
+			expectedDoubles.remove(999);
+			
+			check(ints.equals(expectedInts), type + " ints match");
+			check(doubles.equals(expectedDoubles), type + " doubles match");
+			int[] range = new int[100];
+			ints.get(range, 900);
+			check(range[0] == expectedInts.get(900) && range[99] == expectedInts.get(999), type + " bulk read of ints");
+			check(ints.intStream().asLongStream().sum() == expectedInts.stream().mapToLong(Integer::longValue).sum(), type + " int stream");
+			check(ints.fileSize() == FixedWidthStorage.HEADER_SIZE + (long) ints.size() * Integer.BYTES, type + " file size of ints");
+			ints.close();
+			doubles.close();
+		}
+	}
+	
+	void testAsync() throws Throwable {
+		
+		print("** test the asynchronous methods");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		ArrayList<CompletableFuture<Void>> adds = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < 10000; i++) {
+			adds.add(t.addAsync("item " + i));
+		}
+		CompletableFuture.allOf(adds.toArray(new CompletableFuture<?>[0])).join();
+		boolean inOrder = t.size() == 10000;
+		for (int i = 0; i < t.size(); i++) {
+			inOrder &= t.get(i).equals("item " + i);
+		}
+		check(inOrder, "items added with addAsync are in order");
+		check(t.getAsync(1234).join().equals("item 1234"), "getAsync");
+		List<String> items = t.getAllAsync(9999, 0, 5000, 0).join();
+		check(items.equals(java.util.Arrays.asList("item 9999", "item 0", "item 5000", "item 0")), "getAllAsync keeps the order of the indexes");
+		t.close();
+		
+		// an add made with addAsync is checked against the set like add
+		FileBackedSet<String> set = new FileBackedSet<String>(Codecs.STRING);
+		set.add("x");
+		set.addAsync("x").join();
+		set.addAsync("y").join();
+		check(set.size() == 2 && set.contains("y"), "addAsync does not add an item twice to a set");
+		ArrayList<CompletableFuture<Void>> setAdds = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < 5000; i++) {
+			setAdds.add(set.addAsync("item " + i % 1000));
+			set.add("other " + i % 1000);
+		}
+		CompletableFuture.allOf(setAdds.toArray(new CompletableFuture<?>[0])).join();
+		boolean found = set.size() == 2002;
+		for (int i = 0; i < 1000; i++) {
+			found &= set.contains("item " + i) && set.contains("other " + i);
+		}
+		check(found, "addAsync and add from the caller make a set " + set.size());
+		set.close();
+		
+		// a put made with putAsync and a put from the caller take different indexes
+		FileBackedHashMap<String, String> map = new FileBackedHashMap<String, String>(Codecs.STRING);
+		ArrayList<CompletableFuture<String>> puts = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < 20000; i++) {
+			puts.add(map.putAsync("a" + i, "async " + i));
+			map.put("b" + i, "put " + i);
+			if (i % 10 == 0) {
+				map.remove("b" + (i / 2));
+			}
+		}
+		CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).join();
+		boolean same = map.size() == 38000;
+		for (int i = 0; i < 20000; i++) {
+			same &= ("async " + i).equals(map.get("a" + i));
+			same &= i % 5 == 0 && i < 10000 ? !map.containsKey("b" + i) : ("put " + i).equals(map.get("b" + i));
+		}
+		check(same, "putAsync and put from the caller keep their values, map size " + map.size());
+		check(map.getAsync("a7").join().equals("async 7"), "getAsync of a map");
+		map.close();
+	}
+	
+	void testIteration() throws Throwable {
+		
+		print("** test iteration reading runs of records");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		ArrayList<String> expected = new ArrayList<String>();
+		for (int i = 0; i < NUM; i++) {
+			final String item = i % 7 == 0 ? "a longer item " + i : "item " + i;
+			t.add(item);
+			expected.add(item);
+		}
+		// moved and removed records break the runs
+		for (int i = 0; i < NUM; i += 101) {
+			t.set(i, "moved item " + i);
+			expected.set(i, "moved item " + i);
+		}
+		for (int i = NUM - 1; i >= 0; i -= 997) {
+			t.remove(i);
+			expected.remove(i);
+		}
+		check(t.equals(expected), "iterated items match");
+		t.setPrefetch(true);
+		check(t.equals(expected), "iterated items match with the next run read in the background");
+		
+		// items changed while a scan runs are read as either version
+		final Thread writer = new Thread(() -> {
+			for (int i = 0; i < expected.size(); i += 3) {
+				t.set(i, "changed " + i);
+			}
+		});
+		writer.start();
+		boolean same = true;
+		for (int pass = 0; pass < 3; pass++) {
+			int i = 0;
+			for (String item : t) {
+				same &= item.equals(expected.get(i)) || item.equals("changed " + i);
+				i++;
+			}
+			same &= i == expected.size();
+		}
+		writer.join();
+		check(same, "items changed during iteration are read whole");
+		t.close();
+	}
+	
+	void testCache() throws Throwable {
+		
+		print("** test the read cache");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		for (int i = 0; i < 1000; i++) {
+			t.add(String.format("item %04d", i));
+		}
+		t.setCache(100, 1 << 20);
+		for (int pass = 0; pass < 5; pass++) {
+			for (int i = 0; i < 50; i++) {
+				t.get(i);
+			}
+		}
+		check(t.getCacheMisses() == 50 && t.getCacheHits() == 200, "repeated reads are served from the cache, hits " + t.getCacheHits());
+		
+		// items that reuse the position of a cached item are not read from the cache
+		t.set(3, "same 0003");
+		check(t.get(3).equals("same 0003"), "item set in place is read again");
+		t.remove(5);
+		t.add("next 9999");
+		check(t.get(4).equals("item 0004") && t.get(5).equals("item 0006") && t.get(999).equals("next 9999"), "item in the hole of a cached item");
+		for (int i = 0; i < 500; i++) {
+			t.remove(t.size() - 1);
+		}
+		t.compact();
+		boolean same = true;
+		for (int i = 6; i < 50; i++) {
+			same &= t.get(i - 1).equals(String.format("item %04d", i));
+		}
+		check(same, "cached items read after compaction");
+		t.setCache(0, 0);
+		check(t.getCacheHits() == 0 && t.get(0).equals("item 0000"), "cache disabled");
+		t.close();
+	}
+	
+	void testStreams() throws Throwable {
+		
+		print("** test the spliterator and parallel streams");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		ArrayList<String> expected = new ArrayList<String>();
+		for (int i = 0; i < NUM; i++) {
+			t.add("item " + i);
+			expected.add("item " + i);
+		}
+		
+		Spliterator<String> all = t.spliterator();
+		Spliterator<String> prefix = all.trySplit();
+		check(prefix != null && prefix.estimateSize() + all.estimateSize() == NUM, "split sizes add up to " + NUM);
+		ArrayList<String> split = new ArrayList<String>();
+		prefix.forEachRemaining(split::add);
+		all.forEachRemaining(split::add);
+		check(split.equals(expected), "the splits hold the items in order");
+		
+		check(t.parallelStream().collect(Collectors.toList()).equals(expected), "parallel stream keeps the order");
+		final long sum = expected.stream().mapToLong(String::length).sum();
+		check(t.parallelStream().mapToLong(String::length).sum() == sum, "parallel stream sum");
+		
+		// records moved out of order are split at the middle of the range
+		for (int i = 0; i < NUM; i += 2) {
+			t.set(i, "moved item " + i);
+			expected.set(i, "moved item " + i);
+		}
+		check(t.parallelStream().collect(Collectors.toList()).equals(expected), "parallel stream of moved records");
+		check(t.stream().filter(item -> item.startsWith("moved")).count() == NUM / 2, "sequential stream count");
+		t.close();
+	}
+	
+	void testByteList() throws Throwable {
+		
+		print("** test FileBackedByteList and getBuffer");
+		for (StorageType type : StorageType.values()) {
+			for (Protection protection : new Protection[] { Protection.NONE, Protection.AES }) {
+				final String name = type + " " + protection;
+				FileBackedByteList t = new FileBackedByteList(type, protection);
+				ArrayList<byte[]> expected = new ArrayList<byte[]>();
+				ByteBuffer direct = ByteBuffer.allocateDirect(300);
+				boolean kept = true;
+				for (int i = 0; i < 1000; i++) {
+					final byte[] bytes = new byte[i % 300];
+					rand.nextBytes(bytes);
+					expected.add(bytes);
+					if (i % 2 == 0) {
+						t.add(bytes);
+					} else {
+						direct.clear();
+						direct.put(bytes).flip();
+						t.add(direct);
+						kept &= direct.position() == 0 && direct.limit() == bytes.length;
+					}
+				}
+				check(kept, name + " add(ByteBuffer) leaves the position of the buffer");
+				t.add((byte[]) null);
+				boolean same = true;
+				for (int i = 0; i < expected.size(); i++) {
+					final ByteBuffer buffer = t.getBuffer(i);
+					same &= buffer.isReadOnly() && buffer.equals(ByteBuffer.wrap(expected.get(i)));
+					same &= java.util.Arrays.equals(t.get(i), expected.get(i));
+				}
+				check(same, name + " getBuffer and get return the added bytes");
+				check(t.getBuffer(1000) == null, name + " getBuffer of a null item");
+				if (type == StorageType.MEMORY_MAPPED && protection == Protection.NONE) {
+					check(t.getBuffer(999).isDirect(), name + " getBuffer is a view of the mapped file");
+				}
+				
+				// compressed records are given as a copy
+				t.setCompression(64);
+				final byte[] zeros = new byte[4096];
+				t.add(ByteBuffer.wrap(zeros));
+				check(t.getBuffer(1001).equals(ByteBuffer.wrap(zeros)), name + " getBuffer of a compressed record");
+				t.close();
+			}
+		}
+	}
+	
+	void testStats() throws Throwable {
+		
+		print("** test the collection stats and their MBean");
+		FileBackedArrayList<String> t = new FileBackedArrayList<String>(Codecs.STRING);
+		CollectionStats stats = t.getStats();
+		stats.setTiming(true);
+		for (int i = 0; i < 1000; i++) {
+			t.add("item " + i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			t.get(i);
+		}
+		t.flush();
+		check(stats.getWrites() > 0 && stats.getBytesWritten() >= t.getLiveBytes(), "writes counted: " + stats);
+		check(stats.getReads() == 1000 && stats.getReadNanos() > 0 && stats.getEncodeNanos() > 0, "reads and times counted");
+		t.remove(0);
+		check(stats.getLiveBytes() == t.getLiveBytes() && stats.getDeadBytes() == t.getDeadBytes(), "live and dead bytes of the list");
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("fileBackedCollections:type=CollectionStats,name=" + ObjectName.quote("test list"));
+		check(stats.register("test list") && server.isRegistered(name), "stats registered as an MBean");
+		check(server.getAttribute(name, "Reads").equals(stats.getReads()), "reads read through JMX");
+		server.invoke(name, "reset", null, null);
+		check(stats.getReads() == 0, "stats reset through JMX");
+		t.close();
+		check(!server.isRegistered(name), "MBean unregistered when the list is closed");
+		
+		// a map reports the records of its values and of its key pages together
+		FileBackedHashMap<String, String> map = new FileBackedHashMap<String, String>(Codecs.STRING);
+		for (int i = 0; i < 10000; i++) {
+			map.put("key " + i, "value " + i);
+		}
+		map.flush();
+		check(map.getStats().getWrites() > 0 && map.getStats().getLiveBytes() > 0, "map stats " + map.getStats());
+		map.close();
+	}
+}